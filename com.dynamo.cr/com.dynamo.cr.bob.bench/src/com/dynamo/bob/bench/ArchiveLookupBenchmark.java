@@ -0,0 +1,147 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveEntry;
+import com.dynamo.bob.archive.ArchiveReader;
+import com.dynamo.bob.archive.ManifestBuilder;
+import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+
+/**
+ * Finding entries by hash in archive indices with and without a perfect hash,
+ * i.e. a binary search over the sorted hashes compared to a perfect hash lookup
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveLookupBenchmark {
+
+    private static final int LOOKUPS = 4096;
+
+    @Param({ "1000", "10000", "100000" })
+    public int entries;
+
+    private File contentRoot;
+    private Path resourcePackDir;
+    private File binarySearchIndex;
+    private File perfectHashIndex;
+    private File outputData;
+    private ArchiveReader binarySearchReader;
+    private ArchiveReader perfectHashReader;
+    private byte[][] hashes;
+
+    private void writeArchive(List<String> paths, File outputIndex, boolean perfectHash) throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder archiveBuilder = new ArchiveBuilder(contentRoot.getAbsolutePath(), manifestBuilder);
+        archiveBuilder.setPerfectHash(perfectHash);
+        for (String path : paths) {
+            archiveBuilder.add(path, false);
+        }
+
+        RandomAccessFile archiveIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile archiveData = new RandomAccessFile(outputData, "rw");
+        try {
+            archiveIndex.setLength(0);
+            archiveData.setLength(0);
+            archiveBuilder.write(archiveIndex, archiveData, resourcePackDir, new ArrayList<String>());
+        } finally {
+            archiveIndex.close();
+            archiveData.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        contentRoot = Files.createTempDirectory("bob_bench_lookup_").toFile();
+        resourcePackDir = Files.createTempDirectory("bob_bench_resourcepack_");
+        binarySearchIndex = File.createTempFile("bob_bench", ".arci");
+        perfectHashIndex = File.createTempFile("bob_bench", ".arci");
+        outputData = File.createTempFile("bob_bench", ".arcd");
+        List<String> paths = Fixtures.createSmallArchiveContent(contentRoot, entries);
+
+        writeArchive(paths, binarySearchIndex, false);
+        writeArchive(paths, perfectHashIndex, true);
+        binarySearchReader = new ArchiveReader(binarySearchIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        binarySearchReader.read();
+        perfectHashReader = new ArchiveReader(perfectHashIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        perfectHashReader.read();
+        perfectHashReader.verifyPerfectHash();
+
+        // Look up the entries in random order
+        List<ArchiveEntry> archiveEntries = new ArrayList<ArchiveEntry>(binarySearchReader.getEntries());
+        Collections.shuffle(archiveEntries, new Random(Fixtures.SEED));
+        hashes = new byte[LOOKUPS][];
+        for (int i = 0; i < LOOKUPS; ++i) {
+            hashes[i] = archiveEntries.get(i % archiveEntries.size()).hash;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        binarySearchReader.close();
+        perfectHashReader.close();
+        FileUtils.deleteDirectory(contentRoot);
+        FileUtils.deleteDirectory(resourcePackDir.toFile());
+        FileUtils.deleteQuietly(binarySearchIndex);
+        FileUtils.deleteQuietly(perfectHashIndex);
+        FileUtils.deleteQuietly(outputData);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void binarySearch(Blackhole blackhole) {
+        for (byte[] hash : hashes) {
+            blackhole.consume(binarySearchReader.getEntry(hash));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void perfectHash(Blackhole blackhole) {
+        for (byte[] hash : hashes) {
+            blackhole.consume(perfectHashReader.getEntry(hash));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.font.DistanceFieldGenerator;
+
+/**
+ * Distance field rendering of glyphs, as done by Fontc for distance field fonts
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class DistanceFieldBenchmark {
+
+    // Font size in pixels
+    @Param({ "32", "128" })
+    public int size;
+
+    private DistanceFieldGenerator generator;
+    private double[] output;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setup() {
+        generator = new DistanceFieldGenerator();
+        Fixtures.addGlyphOutline(generator, '&', size);
+        width = size + 8;
+        height = size + 8;
+        output = new double[width * height];
+    }
+
+    @Benchmark
+    public double[] render() {
+        // Glyph box with padding, in glyph coordinates with the baseline at y = 0
+        double u0 = -4;
+        double v0 = -size;
+        generator.render(output, u0, v0, u0 + width, v0 + height, width, height);
+        return output;
+    }
+}
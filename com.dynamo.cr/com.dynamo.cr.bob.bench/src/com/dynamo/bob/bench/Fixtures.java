@@ -0,0 +1,274 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.dynamo.bob.font.DistanceFieldGenerator;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+
+/**
+ * Generators for benchmark input. All fixtures are generated from a fixed seed
+ * so that runs are comparable between releases.
+ */
+public class Fixtures {
+
+    public static final long SEED = 0x5eed;
+
+    /**
+     * Create rects sized like typical sprite images, 8 to 256 pixels per side
+     * @param count number of rects
+     * @return list of rects
+     */
+    public static List<Rect> createRects(int count) {
+        Random random = new Random(SEED);
+        List<Rect> rects = new ArrayList<Rect>(count);
+        for (int i = 0; i < count; ++i) {
+            rects.add(new Rect("rect" + i, i, 8 + random.nextInt(248), 8 + random.nextInt(248)));
+        }
+        return rects;
+    }
+
+    /**
+     * Create images with a transparent border around an opaque shape, so that
+     * trimming and convex hull generation have something to work on
+     * @param count number of images
+     * @param maxSize max image width and height
+     * @return list of images
+     */
+    public static List<BufferedImage> createImages(int count, int maxSize) {
+        Random random = new Random(SEED);
+        List<BufferedImage> images = new ArrayList<BufferedImage>(count);
+        for (int i = 0; i < count; ++i) {
+            int width = 8 + random.nextInt(maxSize - 7);
+            int height = 8 + random.nextInt(maxSize - 7);
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(random.nextInt(0xffffff)));
+            int border = Math.min(width, height) / 8;
+            if (random.nextBoolean()) {
+                g.fillOval(border, border, width - 2 * border, height - 2 * border);
+            } else {
+                g.fillPolygon(new int[] { width / 2, width - border, border }, new int[] { border, height - border, height - border }, 3);
+            }
+            g.dispose();
+            images.add(image);
+        }
+        return images;
+    }
+
+    /**
+     * Create a COLLADA document with a single grid mesh with positions, normals and texture coordinates
+     * @param size number of quads per side, the mesh has 2 * size * size triangles
+     * @return COLLADA document
+     */
+    public static byte[] createColladaGrid(int size) {
+        int vertexCount = (size + 1) * (size + 1);
+        StringBuilder positions = new StringBuilder(vertexCount * 24);
+        StringBuilder texcoords = new StringBuilder(vertexCount * 16);
+        for (int y = 0; y <= size; ++y) {
+            for (int x = 0; x <= size; ++x) {
+                double u = x / (double) size;
+                double v = y / (double) size;
+                double z = 0.1 * Math.sin(u * 8.0) * Math.cos(v * 8.0);
+                positions.append(String.format(Locale.US, "%f %f %f ", u * 2.0 - 1.0, v * 2.0 - 1.0, z));
+                texcoords.append(String.format(Locale.US, "%f %f ", u, v));
+            }
+        }
+        StringBuilder indices = new StringBuilder(size * size * 6 * 12);
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                int i0 = y * (size + 1) + x;
+                int i1 = i0 + 1;
+                int i2 = i0 + size + 1;
+                int i3 = i2 + 1;
+                for (int i : new int[] { i0, i1, i3, i0, i3, i2 }) {
+                    indices.append(i).append(" 0 ").append(i).append(' ');
+                }
+            }
+        }
+
+        StringBuilder dae = new StringBuilder();
+        dae.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        dae.append("<COLLADA xmlns=\"http://www.collada.org/2005/11/COLLADASchema\" version=\"1.4.1\">\n");
+        dae.append("  <asset><unit name=\"meter\" meter=\"1\"/><up_axis>Y_UP</up_axis></asset>\n");
+        dae.append("  <library_geometries>\n");
+        dae.append("    <geometry id=\"Grid-mesh\" name=\"Grid\">\n");
+        dae.append("      <mesh>\n");
+        appendSource(dae, "Grid-mesh-positions", positions, vertexCount * 3, vertexCount, "X", "Y", "Z");
+        appendSource(dae, "Grid-mesh-normals", new StringBuilder("0 0 1"), 3, 1, "X", "Y", "Z");
+        appendSource(dae, "Grid-mesh-map", texcoords, vertexCount * 2, vertexCount, "S", "T");
+        dae.append("        <vertices id=\"Grid-mesh-vertices\"><input semantic=\"POSITION\" source=\"#Grid-mesh-positions\"/></vertices>\n");
+        dae.append(String.format("        <triangles count=\"%d\">\n", size * size * 2));
+        dae.append("          <input semantic=\"VERTEX\" source=\"#Grid-mesh-vertices\" offset=\"0\"/>\n");
+        dae.append("          <input semantic=\"NORMAL\" source=\"#Grid-mesh-normals\" offset=\"1\"/>\n");
+        dae.append("          <input semantic=\"TEXCOORD\" source=\"#Grid-mesh-map\" offset=\"2\" set=\"0\"/>\n");
+        dae.append("          <p>").append(indices).append("</p>\n");
+        dae.append("        </triangles>\n");
+        dae.append("      </mesh>\n");
+        dae.append("    </geometry>\n");
+        dae.append("  </library_geometries>\n");
+        dae.append("  <library_visual_scenes>\n");
+        dae.append("    <visual_scene id=\"Scene\" name=\"Scene\">\n");
+        dae.append("      <node id=\"Grid\" name=\"Grid\" type=\"NODE\">\n");
+        dae.append("        <matrix sid=\"transform\">1 0 0 0 0 1 0 0 0 0 1 0 0 0 0 1</matrix>\n");
+        dae.append("        <instance_geometry url=\"#Grid-mesh\"/>\n");
+        dae.append("      </node>\n");
+        dae.append("    </visual_scene>\n");
+        dae.append("  </library_visual_scenes>\n");
+        dae.append("  <scene><instance_visual_scene url=\"#Scene\"/></scene>\n");
+        dae.append("</COLLADA>\n");
+        return dae.toString().getBytes();
+    }
+
+    private static void appendSource(StringBuilder dae, String id, StringBuilder values, int valueCount, int count, String... params) {
+        dae.append(String.format("        <source id=\"%s\">\n", id));
+        dae.append(String.format("          <float_array id=\"%s-array\" count=\"%d\">", id, valueCount)).append(values).append("</float_array>\n");
+        dae.append("          <technique_common>\n");
+        dae.append(String.format("            <accessor source=\"#%s-array\" count=\"%d\" stride=\"%d\">\n", id, count, params.length));
+        for (String param : params) {
+            dae.append(String.format("              <param name=\"%s\" type=\"float\"/>\n", param));
+        }
+        dae.append("            </accessor>\n");
+        dae.append("          </technique_common>\n");
+        dae.append("        </source>\n");
+    }
+
+    /**
+     * Create a Lua script mixing requires, comments, strings and regular code
+     * @param functions number of functions in the script
+     * @return Lua source
+     */
+    public static String createLua(int functions) {
+        Random random = new Random(SEED);
+        StringBuilder lua = new StringBuilder(functions * 400);
+        for (int i = 0; i < functions / 10 + 1; ++i) {
+            lua.append(String.format("local module%d = require \"main.modules.module%d\"\n", i, i));
+        }
+        lua.append("go.property(\"speed\", 100)\n");
+        lua.append("go.property(\"target\", hash(\"player\"))\n\n");
+        for (int i = 0; i < functions; ++i) {
+            lua.append("--[[\n  Function ").append(i).append(" does things.\n  require \"not.a.module\"\n]]\n");
+            lua.append(String.format("local function update_%d(self, dt)\n", i));
+            lua.append("    -- move towards the target\n");
+            lua.append(String.format("    local p = go.get_position() + vmath.vector3(%d, %d, 0) * dt\n", random.nextInt(100), random.nextInt(100)));
+            lua.append(String.format("    local s = \"string with 'quotes' and \\\"escapes\\\" %d\"\n", i));
+            lua.append("    local l = [[long\nstring]]\n");
+            lua.append(String.format("    if self.speed > %d then\n        local m = require(\"main.lazy%d\")\n        m.run(p, s, l)\n    end\n", random.nextInt(200), i));
+            lua.append("    go.set_position(p)\nend\n\n");
+        }
+        return lua.toString();
+    }
+
+    /**
+     * Create files of mixed content, compressible text and incompressible noise
+     * @param root directory to create the files in
+     * @param count number of files
+     * @return list of absolute file paths
+     * @throws IOException
+     */
+    public static List<String> createArchiveContent(File root, int count) throws IOException {
+        Random random = new Random(SEED);
+        List<String> paths = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            int size = 256 + random.nextInt(16 * 1024);
+            byte[] content = new byte[size];
+            if (i % 3 == 0) {
+                random.nextBytes(content);
+            } else {
+                for (int j = 0; j < size; ++j) {
+                    content[j] = (byte) ('a' + (j * 7 + i) % 13);
+                }
+            }
+            File file = new File(root, String.format("dir%d/file%d.bin", i % 32, i));
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content);
+            paths.add(file.getAbsolutePath());
+        }
+        return paths;
+    }
+
+    /**
+     * Create small files of unique content, for archives with many entries
+     * @param root directory to create the files in
+     * @param count number of files
+     * @return list of absolute file paths
+     * @throws IOException
+     */
+    public static List<String> createSmallArchiveContent(File root, int count) throws IOException {
+        Random random = new Random(SEED);
+        List<String> paths = new ArrayList<String>(count);
+        byte[] content = new byte[64];
+        for (int i = 0; i < count; ++i) {
+            random.nextBytes(content);
+            File file = new File(root, String.format("dir%d/file%d.bin", i % 256, i));
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content);
+            paths.add(file.getAbsolutePath());
+        }
+        return paths;
+    }
+
+    /**
+     * Add the outline of a glyph, the way Fontc does for distance field fonts
+     * @param generator generator to add lines to
+     * @param c character
+     * @param size font size
+     */
+    public static void addGlyphOutline(DistanceFieldGenerator generator, char c, int size) {
+        Font font = new Font(Font.SERIF, Font.PLAIN, size);
+        GlyphVector vector = font.createGlyphVector(new FontRenderContext(new AffineTransform(), true, true), new char[] { c });
+        Shape shape = vector.getGlyphOutline(0);
+        PathIterator pi = new FlatteningPathIterator(shape.getPathIterator(new AffineTransform()), 0.1);
+        double x = 0, y = 0;
+        double mx = 0, my = 0;
+        double[] coords = new double[6];
+        while (!pi.isDone()) {
+            switch (pi.currentSegment(coords)) {
+            case PathIterator.SEG_MOVETO:
+                x = mx = coords[0];
+                y = my = coords[1];
+                break;
+            case PathIterator.SEG_LINETO:
+                generator.addLine(x, y, coords[0], coords[1]);
+                x = coords[0];
+                y = coords[1];
+                break;
+            case PathIterator.SEG_CLOSE:
+                generator.addLine(x, y, mx, my);
+                x = mx;
+                y = my;
+                break;
+            default:
+                break;
+            }
+            pi.next();
+        }
+    }
+}
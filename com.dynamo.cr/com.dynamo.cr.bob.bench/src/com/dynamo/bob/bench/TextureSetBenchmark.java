@@ -0,0 +1,133 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
+import com.dynamo.bob.textureset.TextureSetGenerator;
+import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
+import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
+import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.tile.proto.Tile.Playback;
+
+/**
+ * Atlas layout and texture set generation for atlases with many images
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class TextureSetBenchmark {
+
+    // One animation per image, like an atlas without explicit animations
+    private static class SingleFrameAnimIterator implements AnimIterator {
+        private final int count;
+        private int animIndex = 0;
+        private boolean frameDone = false;
+
+        SingleFrameAnimIterator(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public AnimDesc nextAnim() {
+            if (animIndex < count) {
+                frameDone = false;
+                return new AnimDesc("image" + animIndex++, Playback.PLAYBACK_NONE, 0, false, false);
+            }
+            return null;
+        }
+
+        @Override
+        public Integer nextFrameIndex() {
+            if (frameDone) {
+                return null;
+            }
+            frameDone = true;
+            return animIndex - 1;
+        }
+
+        @Override
+        public void rewind() {
+            animIndex = 0;
+            frameDone = false;
+        }
+    }
+
+    @Param({ "100", "1000" })
+    public int imageCount;
+
+    private List<Rect> rects;
+    private List<BufferedImage> images;
+    private List<Integer> hullSizes;
+    private List<String> paths;
+    private MaxRectsLayoutStrategy.Settings settings;
+
+    @Setup
+    public void setup() {
+        rects = Fixtures.createRects(imageCount);
+        images = Fixtures.createImages(imageCount, 128);
+        hullSizes = new ArrayList<Integer>(imageCount);
+        paths = new ArrayList<String>(imageCount);
+        for (int i = 0; i < imageCount; ++i) {
+            hullSizes.add(i % 2 == 0 ? 8 : 0);
+            paths.add("image" + i);
+        }
+
+        settings = new MaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = 4096;
+        settings.maxPageHeight = 4096;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = 2;
+        settings.paddingY = 2;
+        settings.rotation = true;
+        settings.square = false;
+    }
+
+    @Benchmark
+    public List<Layout> maxRectsLayout() {
+        // The strategy modifies the rects, work on copies
+        List<Rect> copies = new ArrayList<Rect>(rects.size());
+        for (Rect r : rects) {
+            copies.add(new Rect(r));
+        }
+        return new MaxRectsLayoutStrategy(settings).createLayout(copies);
+    }
+
+    @Benchmark
+    public TextureSetResult generate() {
+        return TextureSetGenerator.generate(images, hullSizes, paths, new SingleFrameAnimIterator(imageCount),
+                2, 1, 1, true, false, null);
+    }
+}
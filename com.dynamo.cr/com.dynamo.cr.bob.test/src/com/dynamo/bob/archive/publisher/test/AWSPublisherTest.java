@@ -0,0 +1,298 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive.publisher.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.archive.publisher.AWSPublisher;
+import com.dynamo.bob.archive.publisher.PublisherSettings;
+
+public class AWSPublisherTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final String MANIFEST = "liveupdate.game.dmanifest";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Server server;
+    private SocketConnector connector;
+    private S3Handler handler;
+
+    // Stand-in for an S3 compatible service, supporting the requests made when publishing
+    private static class S3Handler extends AbstractHandler {
+        Map<String, byte[]> objects = new ConcurrentSkipListMap<String, byte[]>();
+        AtomicInteger putCount = new AtomicInteger();
+        AtomicInteger listCount = new AtomicInteger();
+        AtomicInteger failCount = new AtomicInteger();
+        List<String> putKeys = Collections.synchronizedList(new ArrayList<String>());
+        volatile String deniedKey = null;
+        int pageSize = 2;
+
+        private static String md5(byte[] content) {
+            try {
+                return Hex.encodeHexString(MessageDigest.getInstance("MD5").digest(content));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void list(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            listCount.incrementAndGet();
+            String prefix = request.getParameter("prefix") != null ? request.getParameter("prefix") : "";
+            String token = request.getParameter("continuation-token");
+            int start = token != null ? Integer.parseInt(token) : 0;
+            List<String> keys = new ArrayList<String>();
+            for (String key : objects.keySet()) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+            int end = Math.min(keys.size(), start + pageSize);
+            StringBuilder xml = new StringBuilder();
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            xml.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+            xml.append("<Name>").append(BUCKET).append("</Name>");
+            xml.append("<Prefix>").append(prefix).append("</Prefix>");
+            xml.append("<KeyCount>").append(end - start).append("</KeyCount>");
+            xml.append("<MaxKeys>").append(pageSize).append("</MaxKeys>");
+            xml.append("<IsTruncated>").append(end < keys.size()).append("</IsTruncated>");
+            if (end < keys.size()) {
+                xml.append("<NextContinuationToken>").append(end).append("</NextContinuationToken>");
+            }
+            for (String key : keys.subList(start, end)) {
+                xml.append("<Contents><Key>").append(key).append("</Key>");
+                xml.append("<LastModified>2020-01-01T00:00:00.000Z</LastModified>");
+                xml.append("<ETag>&quot;").append(md5(objects.get(key))).append("&quot;</ETag>");
+                xml.append("<Size>").append(objects.get(key).length).append("</Size>");
+                xml.append("<StorageClass>STANDARD</StorageClass></Contents>");
+            }
+            xml.append("</ListBucketResult>");
+            byte[] content = xml.toString().getBytes("UTF-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/xml");
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String method = request.getMethod();
+            String path = target.substring(1);
+            String bucket = path.contains("/") ? path.substring(0, path.indexOf('/')) : path;
+            String key = path.substring(bucket.length()).replaceFirst("^/", "");
+            if (!bucket.equals(BUCKET)) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            } else if (method.equals("HEAD") && key.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_OK);
+            } else if (method.equals("GET") && key.isEmpty()) {
+                list(request, response);
+            } else if (method.equals("PUT")) {
+                byte[] content = IOUtils.toByteArray(request.getInputStream());
+                if (key.equals(deniedKey)) {
+                    byte[] error = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>AccessDenied</Code><Message>Access Denied</Message></Error>".getBytes("UTF-8");
+                    response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+                    response.setContentType("application/xml");
+                    response.setContentLength(error.length);
+                    response.getOutputStream().write(error);
+                } else if (failCount.getAndDecrement() > 0) {
+                    byte[] error = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error>".getBytes("UTF-8");
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    response.setContentType("application/xml");
+                    response.setContentLength(error.length);
+                    response.getOutputStream().write(error);
+                } else {
+                    putCount.incrementAndGet();
+                    putKeys.add(key);
+                    objects.put(key, content);
+                    response.setHeader("ETag", "\"" + md5(content) + "\"");
+                    response.setStatus(HttpServletResponse.SC_OK);
+                }
+            } else {
+                response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+
+    private static class TestPublisher extends AWSPublisher {
+        TestPublisher(PublisherSettings settings) {
+            super(settings);
+        }
+
+        @Override
+        protected AWSCredentialsProvider createCredentialsProvider() {
+            return new AWSStaticCredentialsProvider(new BasicAWSCredentials("access", "secret"));
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        connector = new SocketConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        handler = new S3Handler();
+        server.setHandler(handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private AWSPublisher createPublisher(String prefix, File ledgerFile, String... names) throws IOException {
+        PublisherSettings settings = new PublisherSettings();
+        settings.setAmazonBucket(BUCKET);
+        settings.setAmazonPrefix(prefix);
+        settings.setAmazonCredentialProfile("test");
+        settings.setAmazonEndpoint(String.format("http://localhost:%d", connector.getLocalPort()));
+        settings.setAmazonUploadThreads(4);
+        AWSPublisher publisher = new TestPublisher(settings);
+        publisher.setLedgerFile(ledgerFile);
+        for (String name : names) {
+            File file = folder.newFile();
+            FileUtils.writeByteArrayToFile(file, name.getBytes());
+            publisher.AddEntry(name, file);
+        }
+        return publisher;
+    }
+
+    @Test
+    public void testUploadsOnlyMissingEntries() throws Exception {
+        File ledgerFile = new File(folder.getRoot(), "ledger");
+        handler.objects.put("resources/aaaa", "aaaa".getBytes());
+        String[] names = { "aaaa", "bbbb", "cccc", "dddd", "eeee", MANIFEST };
+
+        // No ledger, the prefix is listed
+        AWSPublisher publisher = createPublisher("resources", ledgerFile, names);
+        publisher.Publish();
+        assertEquals(5, publisher.getUploadCount());
+        assertEquals(1, handler.listCount.get());
+        for (String name : names) {
+            assertArrayEquals(name.getBytes(), handler.objects.get("resources/" + name));
+        }
+        assertTrue(ledgerFile.isFile());
+
+        // Only the manifest changes between publishes
+        handler.putCount.set(0);
+        publisher = createPublisher("resources", ledgerFile, names);
+        publisher.Publish();
+        assertEquals(1, publisher.getUploadCount());
+        assertEquals(1, handler.putCount.get());
+        assertEquals(1, handler.listCount.get());
+    }
+
+    @Test
+    public void testManifestUploadedLast() throws Exception {
+        AWSPublisher publisher = createPublisher("resources", null, "aaaa", "bbbb", "cccc", "dddd", "eeee", MANIFEST);
+        publisher.Publish();
+        assertEquals(6, handler.putKeys.size());
+        assertEquals("resources/" + MANIFEST, handler.putKeys.get(handler.putKeys.size() - 1));
+    }
+
+    @Test
+    public void testManifestNotUploadedOnFailure() throws Exception {
+        handler.deniedKey = "resources/cccc";
+        AWSPublisher publisher = createPublisher("resources", null, "aaaa", "bbbb", "cccc", "dddd", MANIFEST);
+        try {
+            publisher.Publish();
+            fail("Expected the upload to fail");
+        } catch (CompileExceptionError e) {
+            // Expected
+        }
+        assertFalse(handler.objects.containsKey("resources/" + MANIFEST));
+    }
+
+    @Test
+    public void testListsPrefixWithoutLedger() throws Exception {
+        for (int i = 0; i < 5; ++i) {
+            handler.objects.put("resources/000" + i, new byte[0]);
+        }
+
+        AWSPublisher publisher = createPublisher("resources/", null, "0000", "0001", "0002", "0003", "0004", "ffff");
+        publisher.Publish();
+        assertEquals(1, publisher.getUploadCount());
+        // Listed in pages
+        assertEquals(3, handler.listCount.get());
+        assertTrue(handler.objects.containsKey("resources/ffff"));
+    }
+
+    @Test
+    public void testLedgerOfOtherPrefixIsIgnored() throws Exception {
+        File ledgerFile = new File(folder.getRoot(), "ledger");
+        createPublisher("first", ledgerFile, "aaaa").Publish();
+
+        AWSPublisher publisher = createPublisher("second", ledgerFile, "aaaa");
+        publisher.Publish();
+        assertEquals(1, publisher.getUploadCount());
+        assertEquals(2, handler.listCount.get());
+        assertTrue(handler.objects.containsKey("second/aaaa"));
+    }
+
+    @Test
+    public void testRetryUpload() throws Exception {
+        handler.failCount.set(2);
+        AWSPublisher publisher = createPublisher("resources", null, "aaaa");
+        publisher.Publish();
+        assertEquals(1, publisher.getUploadCount());
+        assertArrayEquals("aaaa".getBytes(), handler.objects.get("resources/aaaa"));
+    }
+
+    @Test(expected = CompileExceptionError.class)
+    public void testMissingBucket() throws Exception {
+        PublisherSettings settings = new PublisherSettings();
+        settings.setAmazonBucket("missing-bucket");
+        settings.setAmazonPrefix("resources");
+        settings.setAmazonCredentialProfile("test");
+        settings.setAmazonEndpoint(String.format("http://localhost:%d", connector.getLocalPort()));
+        new TestPublisher(settings).Publish();
+    }
+}
@@ -0,0 +1,128 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive.publisher.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.archive.ArchiveEntry;
+import com.dynamo.bob.archive.publisher.PublisherSettings;
+import com.dynamo.bob.archive.publisher.ZipPublisher;
+
+public class ZipPublisherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, byte[]> contents = new HashMap<String, byte[]>();
+
+    // Same layout as the resource pack files written by the archive builder
+    private static byte[] createResourcePack(byte[] data, int flags) {
+        byte[] padding = new byte[11];
+        Arrays.fill(padding, (byte) 0xED);
+        ByteBuffer buffer = ByteBuffer.allocate(16 + data.length);
+        buffer.putInt(data.length);
+        buffer.put((byte) flags);
+        buffer.put(padding);
+        buffer.put(data);
+        return buffer.array();
+    }
+
+    private void addEntry(ZipPublisher publisher, String name, byte[] content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        FileUtils.writeByteArrayToFile(file, content);
+        publisher.AddEntry(name, file);
+        contents.put(name, content);
+    }
+
+    private ZipFile publish(int threadCount) throws Exception {
+        File outputDir = folder.newFolder();
+        PublisherSettings settings = new PublisherSettings();
+        settings.setZipFilepath(outputDir.getAbsolutePath());
+        ZipPublisher publisher = new ZipPublisher(settings);
+        publisher.setThreadCount(threadCount);
+
+        Random random = new Random(0);
+        byte[] noise = new byte[100 * 1024];
+        random.nextBytes(noise);
+        byte[] text = new byte[100 * 1024];
+        for (int i = 0; i < text.length; ++i) {
+            text[i] = (byte) ('a' + (i % 13));
+        }
+        addEntry(publisher, "0a", createResourcePack(text, ArchiveEntry.FLAG_LIVEUPDATE));
+        addEntry(publisher, "0b", createResourcePack(text, ArchiveEntry.FLAG_LIVEUPDATE | ArchiveEntry.FLAG_COMPRESSED));
+        addEntry(publisher, "0c", createResourcePack(text, ArchiveEntry.FLAG_ENCRYPTED));
+        addEntry(publisher, "0d", createResourcePack(noise, ArchiveEntry.FLAG_LIVEUPDATE));
+        addEntry(publisher, "0e", createResourcePack(new byte[0], 0));
+        for (int i = 0; i < 20; ++i) {
+            addEntry(publisher, String.format("1%02d", i), createResourcePack(Arrays.copyOf(text, 1000 + i), 0));
+        }
+        addEntry(publisher, "liveupdate.game.dmanifest", text);
+        publisher.Publish();
+
+        File[] files = outputDir.listFiles();
+        assertEquals(1, files.length);
+        return new ZipFile(files[0]);
+    }
+
+    private static int getMethod(ZipFile zip, String name) {
+        return zip.getEntry(name).getMethod();
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        try (ZipFile zip = publish(4)) {
+            assertEquals(contents.size(), zip.size());
+            for (Map.Entry<String, byte[]> e : contents.entrySet()) {
+                ZipEntry entry = zip.getEntry(e.getKey());
+                assertArrayEquals(e.getValue(), IOUtils.toByteArray(zip.getInputStream(entry)));
+            }
+            assertEquals(ZipEntry.DEFLATED, getMethod(zip, "0a"));
+            assertEquals(ZipEntry.STORED, getMethod(zip, "0b"));
+            assertEquals(ZipEntry.STORED, getMethod(zip, "0c"));
+            assertEquals(ZipEntry.STORED, getMethod(zip, "0d"));
+            assertEquals(ZipEntry.DEFLATED, getMethod(zip, "liveupdate.game.dmanifest"));
+        }
+    }
+
+    @Test
+    public void testEntriesAreSorted() throws Exception {
+        try (ZipFile zip = publish(8)) {
+            String previous = "";
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                assertEquals(true, previous.compareTo(name) < 0);
+                previous = name;
+            }
+        }
+    }
+}
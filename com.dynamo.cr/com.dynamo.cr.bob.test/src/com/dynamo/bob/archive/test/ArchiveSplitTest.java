@@ -0,0 +1,193 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.dynamo.bob.archive.ArchiveSplit;
+import com.dynamo.bob.pipeline.ResourceNode;
+
+public class ArchiveSplitTest {
+
+    private static ResourceNode add(ResourceNode parent, String path) {
+        ResourceNode node = new ResourceNode(path, "/build" + path);
+        parent.addChild(node);
+        return node;
+    }
+
+    private static Set<String> paths(String... paths) {
+        Set<String> result = new HashSet<String>();
+        for (String path : paths) {
+            result.add("/build" + path);
+        }
+        return result;
+    }
+
+    /*  main.collectionc
+          main.goc -> shared.texturec
+          level1.collectionproxyc -> level1.collectionc
+            level1.goc -> level1.texturec, levels.texturec, shared.texturec
+            level3.collectionproxyc -> level3.collectionc -> level3.goc -> levels.texturec
+          level2.collectionproxyc -> level2.collectionc
+            level2.goc -> level2.texturec, levels.texturec
+            menu.collectionproxyc -> menu.collectionc -> menu.goc
+    */
+    private static ResourceNode createDependencies() {
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode main = add(root, "/main/main.collectionc");
+        add(add(main, "/main/main.goc"), "/main/shared.texturec");
+
+        ResourceNode level1 = add(add(main, "/main/level1.collectionproxyc"), "/main/level1.collectionc");
+        ResourceNode level1Go = add(level1, "/main/level1.goc");
+        add(level1Go, "/main/level1.texturec");
+        add(level1Go, "/main/levels.texturec");
+        add(level1Go, "/main/shared.texturec");
+        ResourceNode level3 = add(add(level1, "/main/level3.collectionproxyc"), "/main/level3.collectionc");
+        add(add(level3, "/main/level3.goc"), "/main/levels.texturec");
+
+        ResourceNode level2 = add(add(main, "/main/level2.collectionproxyc"), "/main/level2.collectionc");
+        ResourceNode level2Go = add(level2, "/main/level2.goc");
+        add(level2Go, "/main/level2.texturec");
+        add(level2Go, "/main/levels.texturec");
+        add(add(add(level2, "/main/menu.collectionproxyc"), "/main/menu.collectionc"), "/main/menu.goc");
+
+        add(root, "/builtins/render/default.renderc");
+        return root;
+    }
+
+    private static ResourceNode find(ResourceNode node, String path) {
+        if (node.relativeFilepath.equals(path)) {
+            return node;
+        }
+        for (ResourceNode child : node.getChildren()) {
+            ResourceNode result = find(child, path);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    // Everything below a node, without the resources below the given proxies
+    private static void closure(ResourceNode node, Set<String> proxies, Set<String> result) {
+        for (ResourceNode child : node.getChildren()) {
+            result.add(child.absoluteFilepath);
+            if (!proxies.contains(child.relativeFilepath)) {
+                closure(child, proxies, result);
+            }
+        }
+    }
+
+    private static void assertCoverage(ResourceNode root, List<String> proxies) {
+        ArchiveSplit split = new ArchiveSplit(root, proxies);
+        Set<String> proxySet = new HashSet<String>(proxies);
+
+        Set<String> main = new HashSet<String>();
+        closure(root, proxySet, main);
+        assertEquals(main, split.getMainResources());
+
+        Set<String> common = split.getResources(ArchiveSplit.COMMON_GROUP);
+        Set<String> placed = new HashSet<String>(common);
+        for (String proxy : proxies) {
+            Set<String> expected = new HashSet<String>();
+            closure(find(root, proxy), proxySet, expected);
+            assertEquals(expected, split.getClosure(proxy));
+
+            // The closure is exactly covered by the main, proxy and common archives
+            Set<String> own = split.getResources(proxy);
+            Set<String> covered = new HashSet<String>(own);
+            for (String path : expected) {
+                if (main.contains(path) || common.contains(path)) {
+                    covered.add(path);
+                }
+            }
+            assertEquals(expected, covered);
+
+            // Each resource is placed in a single archive
+            for (String path : own) {
+                assertFalse(path, main.contains(path));
+                assertTrue(path, placed.add(path));
+            }
+        }
+
+        // Shared resources are only placed in the common archive
+        for (String path : common) {
+            assertFalse(path, main.contains(path));
+            int count = 0;
+            for (String proxy : proxies) {
+                if (split.getClosure(proxy).contains(path)) {
+                    ++count;
+                }
+            }
+            assertTrue(path, count > 1);
+        }
+    }
+
+    @Test
+    public void testClosureCoverage() {
+        ResourceNode root = createDependencies();
+        List<String> all = Arrays.asList("/main/level1.collectionproxyc", "/main/level2.collectionproxyc", "/main/level3.collectionproxyc", "/main/menu.collectionproxyc");
+        for (int mask = 1; mask < (1 << all.size()); ++mask) {
+            List<String> proxies = new ArrayList<String>();
+            for (int i = 0; i < all.size(); ++i) {
+                if ((mask & (1 << i)) != 0) {
+                    proxies.add(all.get(i));
+                }
+            }
+            assertCoverage(root, proxies);
+        }
+    }
+
+    @Test
+    public void testGroups() {
+        ResourceNode root = createDependencies();
+        ArchiveSplit split = new ArchiveSplit(root, Arrays.asList("/main/level1.collectionproxyc", "/main/level2.collectionproxyc", "/main/level3.collectionproxyc"));
+
+        assertEquals(Arrays.asList("/main/level1.collectionproxyc", "/main/level2.collectionproxyc", "/main/level3.collectionproxyc", ArchiveSplit.COMMON_GROUP), split.getGroups());
+        assertEquals(paths("/main/level1.collectionc", "/main/level1.goc", "/main/level1.texturec", "/main/level3.collectionproxyc"), split.getResources("/main/level1.collectionproxyc"));
+        // The nested menu proxy isn't split, so it is loaded from the level2 archive
+        assertEquals(paths("/main/level2.collectionc", "/main/level2.goc", "/main/level2.texturec", "/main/menu.collectionproxyc", "/main/menu.collectionc", "/main/menu.goc"), split.getResources("/main/level2.collectionproxyc"));
+        // The nested level3 proxy is in the level1 archive and the resources it loads in an archive of its own
+        assertEquals(paths("/main/level3.collectionc", "/main/level3.goc"), split.getResources("/main/level3.collectionproxyc"));
+        assertEquals(paths("/main/levels.texturec"), split.getResources(ArchiveSplit.COMMON_GROUP));
+        assertTrue(split.getMainResources().contains("/build/main/shared.texturec"));
+        assertTrue(split.getMainResources().contains("/build/main/level1.collectionproxyc"));
+    }
+
+    @Test
+    public void testUnknownProxy() {
+        ResourceNode root = createDependencies();
+        ArchiveSplit split = new ArchiveSplit(root, Arrays.asList("/main/missing.collectionproxyc"));
+
+        assertEquals(Collections.emptyList(), split.getGroups());
+        assertEquals(Collections.emptySet(), split.getClosure("/main/missing.collectionproxyc"));
+        assertEquals(Collections.emptySet(), split.getResources(ArchiveSplit.COMMON_GROUP));
+    }
+
+    @Test
+    public void testArchiveName() {
+        assertEquals("main/level1.collectionproxyc", ArchiveSplit.getArchiveName("/main/level1.collectionproxyc"));
+        assertEquals("common", ArchiveSplit.getArchiveName(ArchiveSplit.COMMON_GROUP));
+    }
+}
@@ -15,17 +15,22 @@ package com.dynamo.bob.archive.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -39,7 +44,9 @@ import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.pipeline.ResourceNode;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
+import com.google.protobuf.ByteString;
 
 public class ArchiveTest {
 
@@ -142,6 +149,324 @@ public class ArchiveTest {
         ar.close();
     }
 
+    @Test
+    public void testReaderLookup() throws IOException
+    {
+        // Create
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        List<byte[]> contents = new ArrayList<byte[]>();
+        for (int i = 0; i < 32; ++i) {
+            byte[] content = ("content" + i).getBytes();
+            contents.add(content);
+            ab.add(createDummyFile(contentRoot, "file" + i + ".txt", content));
+        }
+
+        // Write
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // Read
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(contents.size(), entries.size());
+        List<String> found = new ArrayList<String>();
+        for (ArchiveEntry entry : entries) {
+            assertTrue(entry == ar.getEntry(entry.hash));
+            ByteBuffer data = ar.getEntryData(entry);
+            byte[] content = new byte[data.remaining()];
+            data.get(content);
+            assertArrayEquals(ar.getEntryContent(entry), content);
+            found.add(new String(content));
+        }
+        for (byte[] content : contents) {
+            assertTrue(found.contains(new String(content)));
+        }
+        assertEquals(null, ar.getEntry(new byte[ArchiveReader.HASH_BUFFER_BYTESIZE]));
+        ar.close();
+    }
+
+    @Test
+    public void testReaderLookupByUrl() throws IOException
+    {
+        // Create, two of the files have identical content and share a hash
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ab.add(createDummyFile(contentRoot, "a.txt", "shared".getBytes()));
+        ab.add(createDummyFile(contentRoot, "copy/a.txt", "shared".getBytes()));
+        ab.add(createDummyFile(contentRoot, "b.txt", "unique".getBytes()));
+        addEntryToManifest("a.txt", root);
+        addEntryToManifest("copy/a.txt", root);
+        addEntryToManifest("b.txt", root);
+        manifestBuilder.setDependencies(root);
+        manifestBuilder.setProjectIdentifier("test");
+
+        // Write
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // The manifest is not signed, the reader only uses its data
+        File outputManifest = Files.createTempFile("tmp.defold", "dmanifest").toFile();
+        ManifestFile manifestFile = ManifestFile.newBuilder()
+            .setData(manifestBuilder.buildManifestData().toByteString())
+            .setSignature(ByteString.EMPTY)
+            .setArchiveIdentifier(ByteString.EMPTY)
+            .build();
+        FileUtils.writeByteArrayToFile(outputManifest, manifestFile.toByteArray());
+
+        // Read
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), outputManifest.getAbsolutePath());
+        ar.read();
+        ArchiveEntry shared = ar.getEntry("/a.txt");
+        ArchiveEntry copy = ar.getEntry("/copy/a.txt");
+        assertNotNull(shared);
+        assertNotNull(copy);
+        assertArrayEquals("shared".getBytes(), ar.getEntryContent(shared));
+        assertArrayEquals("shared".getBytes(), ar.getEntryContent(copy));
+        ArchiveEntry unique = ar.getEntry("/b.txt");
+        assertNotNull(unique);
+        assertArrayEquals("unique".getBytes(), ar.getEntryContent(unique));
+
+        // Entries with the same hash are named after a url each, e.g. for the build report
+        List<String> names = new ArrayList<String>();
+        for (ArchiveEntry entry : ar.getEntries()) {
+            names.add(entry.fileName);
+        }
+        assertEquals(3, names.size());
+        assertTrue(names.contains("/a.txt"));
+        assertTrue(names.contains("/copy/a.txt"));
+        assertTrue(names.contains("/b.txt"));
+
+        // Every url is extracted
+        File extractDir = Files.createTempDirectory("tmp.defold.extract_").toFile();
+        ar.extractAll(extractDir.getAbsolutePath());
+        ar.close();
+        assertArrayEquals("shared".getBytes(), Files.readAllBytes(new File(extractDir, "a.txt").toPath()));
+        assertArrayEquals("shared".getBytes(), Files.readAllBytes(new File(extractDir, "copy/a.txt").toPath()));
+        assertArrayEquals("unique".getBytes(), Files.readAllBytes(new File(extractDir, "b.txt").toPath()));
+
+        FileUtils.deleteDirectory(extractDir);
+        FileUtils.deleteQuietly(outputManifest);
+    }
+
+    @Test
+    public void testDuplicateDataIsStoredOnce() throws IOException
+    {
+        byte[] content = new byte[1024];
+        new Random(0).nextBytes(content);
+
+        // Create
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ab.add(createDummyFile(contentRoot, "a.bin", content));
+        ab.add(createDummyFile(contentRoot, "copy/a.bin", content));
+        ab.add(createDummyFile(contentRoot, "b.bin", "unique".getBytes()));
+
+        // Write
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // Both entries are kept in the index but share the data
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(3, entries.size());
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (ArchiveEntry entry : entries) {
+            if (entry.size == content.length) {
+                offsets.add(entry.resourceOffset);
+                assertArrayEquals(content, ar.getEntryContent(entry));
+            }
+        }
+        assertEquals(2, offsets.size());
+        assertEquals(offsets.get(0), offsets.get(1));
+        assertTrue(outputData.length() < 2 * content.length);
+        ar.close();
+    }
+
+    @Test
+    public void testLoadOrderLayout() throws IOException
+    {
+        // Create, entries are added in load order but written in reverse by default
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode collection = addEntry("main.collectionc", "", ab, root);
+        addEntry("a.goc", "", ab, collection);
+        ResourceNode proxy = addEntry("proxy.collectionproxyc", "", ab, collection);
+        addEntry("render.renderc", "", ab, root);
+        ResourceNode proxyCollection = addEntry("level.collectionc", "", ab, proxy);
+        addEntry("bb.goc", "", ab, proxyCollection);
+        manifestBuilder.setDependencies(root);
+        ab.setLoadOrder(root);
+
+        // Write
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // Resources loaded by the proxy come after those loaded at startup.
+        // The content of each entry is its name.
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>(ar.getEntries());
+        entries.sort((a, b) -> Integer.compare(a.resourceOffset, b.resourceOffset));
+        List<String> order = new ArrayList<String>();
+        for (ArchiveEntry entry : entries) {
+            order.add(new String(ar.getEntryContent(entry)));
+        }
+        ar.close();
+        assertEquals(Arrays.asList("main.collectionc", "a.goc", "proxy.collectionproxyc", "render.renderc", "level.collectionc", "bb.goc"), order);
+    }
+
+    @Test
+    public void testPageAlignedEntries() throws IOException
+    {
+        // Create
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ab.setDataAlignment(ArchiveBuilder.PAGE_SIZE);
+        for (int i = 0; i < 4; ++i) {
+            ab.add(createDummyFile(contentRoot, "file" + i + ".bin", new byte[100 + i]));
+        }
+        ab.add(createDummyFile(contentRoot, "script.luac", "return 1".getBytes()));
+
+        // Write
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // Read
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        assertEquals(ArchiveBuilder.PAGE_SIZE, ar.getDataAlignment());
+        assertEquals(ArchiveBuilder.INDEX_FLAG_ALIGNED, ar.getIndexFlags() & ArchiveBuilder.INDEX_FLAG_ALIGNED);
+        int aligned = 0;
+        for (ArchiveEntry entry : ar.getEntries()) {
+            if ((entry.flags & ArchiveEntry.FLAG_ENCRYPTED) == 0) {
+                assertEquals(0, entry.resourceOffset % ArchiveBuilder.PAGE_SIZE);
+                ++aligned;
+            }
+        }
+        assertEquals(4, aligned);
+        ar.close();
+    }
+
+    @Test
+    public void testPerfectHash() throws IOException
+    {
+        // Create, two of the files have identical content and share a hash
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ab.setPerfectHash(true);
+        for (int i = 0; i < 100; ++i) {
+            ab.add(createDummyFile(contentRoot, "file" + i + ".bin", ("content" + i).getBytes()));
+        }
+        ab.add(createDummyFile(contentRoot, "copy.bin", "content0".getBytes()));
+
+        // Write
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        // Read
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        assertEquals(ArchiveBuilder.INDEX_FLAG_PERFECT_HASH, ar.getIndexFlags() & ArchiveBuilder.INDEX_FLAG_PERFECT_HASH);
+        assertTrue(ar.hasPerfectHash());
+        ar.verifyPerfectHash();
+        assertEquals(101, ar.getEntries().size());
+        for (ArchiveEntry entry : ar.getEntries()) {
+            ArchiveEntry found = ar.getEntry(entry.hash);
+            assertNotNull(found);
+            assertArrayEquals(entry.hash, found.hash);
+        }
+        byte[] missing = new byte[ArchiveReader.HASH_BUFFER_BYTESIZE];
+        Arrays.fill(missing, (byte) 0x5a);
+        assertNull(ar.getEntry(missing));
+        ar.close();
+    }
+
+    @Test
+    public void testPerfectHashMissing() throws IOException
+    {
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ab.setPerfectHash(true);
+        for (int i = 0; i < 100; ++i) {
+            ab.add(createDummyFile(contentRoot, "file" + i + ".bin", ("content" + i).getBytes()));
+        }
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileData.close();
+
+        // Keep the header flags but drop the perfect hash following the entries, like the live update index written by the engine
+        outFileIndex.seek(16);
+        int entryCount = outFileIndex.readInt();
+        int entryOffset = outFileIndex.readInt();
+        outFileIndex.setLength(entryOffset + 16 * entryCount);
+        outFileIndex.close();
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        assertEquals(ArchiveBuilder.INDEX_FLAG_PERFECT_HASH, ar.getIndexFlags() & ArchiveBuilder.INDEX_FLAG_PERFECT_HASH);
+        assertFalse(ar.hasPerfectHash());
+        for (ArchiveEntry entry : ar.getEntries()) {
+            assertTrue(entry == ar.getEntry(entry.hash));
+        }
+        ar.close();
+
+        // A perfect hash that doesn't match the entries is ignored as well
+        outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        outFileIndex.seek(outFileIndex.length());
+        outFileIndex.writeInt(0); // seed
+        outFileIndex.writeInt(1); // buckets
+        outFileIndex.writeInt(1); // slots
+        outFileIndex.writeInt(0);
+        outFileIndex.writeInt(0);
+        outFileIndex.close();
+
+        ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        assertFalse(ar.hasPerfectHash());
+        for (ArchiveEntry entry : ar.getEntries()) {
+            assertTrue(entry == ar.getEntry(entry.hash));
+        }
+        ar.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDataAlignment() throws IOException
+    {
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ab.setDataAlignment(1000);
+    }
+
     @Test
     public void testEntriesOrder() throws IOException {
 
@@ -218,6 +543,136 @@ public class ArchiveTest {
     	}
     }
 
+    private byte[] writeArchive(List<String> filepaths, int threadCount) throws IOException {
+        return writeArchive(filepaths, threadCount, null, null, null);
+    }
+
+    private byte[] writeArchive(List<String> filepaths, int threadCount, File cacheFile, File previousIndex, File previousData) throws IOException {
+        ManifestBuilder mb = new ManifestBuilder();
+        mb.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, mb, threadCount);
+        if (cacheFile != null) {
+            ab.setArchiveCache(cacheFile, previousIndex, previousData);
+        }
+        for (String filepath : filepaths) {
+            ab.add(filepath, true);
+        }
+
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        byte[] index = FileUtils.readFileToByteArray(outputIndex);
+        byte[] data = FileUtils.readFileToByteArray(outputData);
+        byte[] result = new byte[index.length + data.length];
+        System.arraycopy(index, 0, result, 0, index.length);
+        System.arraycopy(data, 0, result, index.length, data.length);
+        return result;
+    }
+
+    @Test
+    public void testWriteIsDeterministic() throws Exception {
+        // Mix of compressible, incompressible and encrypted entries of varying size
+        Random random = new Random(0);
+        List<String> filepaths = new ArrayList<String>();
+        for (int i = 0; i < 64; ++i) {
+            byte[] content = new byte[random.nextInt(64 * 1024)];
+            if (i % 2 == 0) {
+                random.nextBytes(content);
+            }
+            String ext = (i % 3 == 0) ? "luac" : "bin";
+            filepaths.add(createDummyFile(contentRoot, "file" + i + "." + ext, content));
+        }
+
+        byte[] expected = writeArchive(filepaths, 1);
+        assertArrayEquals(expected, writeArchive(filepaths, 4));
+        assertArrayEquals(expected, writeArchive(filepaths, 64));
+    }
+
+    @Test
+    public void testCompressionPolicy() throws Exception {
+        byte[] noise = new byte[64 * 1024];
+        new Random(0).nextBytes(noise);
+        byte[] text = new byte[48 * 1024];
+        for (int i = 0; i < text.length; ++i) {
+            text[i] = (byte) ('a' + (i % 7));
+        }
+        File statsFile = new File(contentRoot, "archive_compression");
+
+        for (boolean fast : new boolean[] { false, true }) {
+            ManifestBuilder mb = new ManifestBuilder();
+            mb.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+            ArchiveBuilder ab = new ArchiveBuilder(contentRoot, mb);
+            ab.setFastCompression(fast);
+            ab.setCompressionStats(statsFile);
+            ab.add(createDummyFile(contentRoot, "noise.oggc", noise), true);
+            ab.add(createDummyFile(contentRoot, "text.texturec", text), true);
+
+            RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+            RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+            outFileIndex.setLength(0);
+            outFileData.setLength(0);
+            ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+            outFileIndex.close();
+            outFileData.close();
+            assertTrue(statsFile.isFile());
+
+            ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+            ar.read();
+            ArchiveEntry noiseEntry = ar.getEntries().get(0);
+            ArchiveEntry textEntry = ar.getEntries().get(1);
+            if (noiseEntry.size != noise.length) {
+                noiseEntry = textEntry;
+                textEntry = ar.getEntries().get(0);
+            }
+            assertEquals(ArchiveEntry.FLAG_UNCOMPRESSED, noiseEntry.compressedSize);
+            assertTrue(textEntry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED);
+            assertArrayEquals(noise, ar.getEntryContent(noiseEntry));
+            assertArrayEquals(text, ar.getEntryContent(textEntry));
+            ar.close();
+        }
+    }
+
+    @Test
+    public void testIncrementalWrite() throws Exception {
+        Random random = new Random(0);
+        List<String> filepaths = new ArrayList<String>();
+        for (int i = 0; i < 16; ++i) {
+            byte[] content = new byte[1000 + random.nextInt(16 * 1024)];
+            if (i % 2 == 0) {
+                random.nextBytes(content);
+            }
+            String ext = (i % 3 == 0) ? "luac" : "bin";
+            filepaths.add(createDummyFile(contentRoot, "file" + i + "." + ext, content));
+        }
+
+        File cacheFile = new File(contentRoot, "archive_cache");
+        File previousIndex = new File(contentRoot, "previous.arci");
+        File previousData = new File(contentRoot, "previous.arcd");
+
+        // First build writes the cache
+        writeArchive(filepaths, 4, cacheFile, previousIndex, previousData);
+        assertTrue(cacheFile.exists());
+        FileUtils.copyFile(outputIndex, previousIndex);
+        FileUtils.copyFile(outputData, previousData);
+
+        // Change one file and add a new one
+        createDummyFile(contentRoot, "file3.luac", "changed".getBytes());
+        filepaths.add(createDummyFile(contentRoot, "new.bin", "new".getBytes()));
+
+        byte[] incremental = writeArchive(filepaths, 4, cacheFile, previousIndex, previousData);
+        byte[] full = writeArchive(filepaths, 4);
+        assertArrayEquals(full, incremental);
+
+        // A cache that doesn't describe the previous archive is ignored
+        FileUtils.writeByteArrayToFile(previousData, new byte[10]);
+        assertArrayEquals(full, writeArchive(filepaths, 4, cacheFile, previousIndex, previousData));
+    }
+
     @Test
     public void testLoadResourceData() throws Exception {
         byte[] content = "Hello, world".getBytes();
@@ -539,4 +539,40 @@ public class ManifestTest {
         assertEquals("/main/main.collectionc",          parents.get(0).get(0));
     }
 
+    @Test
+    public void testGetDependants() throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
+        ManifestInstance instance = new ManifestInstance();
+        List<String> dependants = instance.manifestBuilder.getDependants("/main/level1.collectionc");
+
+        // Collection proxies are leaves
+        assertEquals(5, dependants.size());
+        assertEquals("/main/dynamic.goc",               dependants.get(0));
+        assertEquals("/main/level1.goc",                dependants.get(1));
+        assertEquals("/main/level1.scriptc",            dependants.get(2));
+        assertEquals("/main/level2.collectionproxyc",   dependants.get(3));
+        assertEquals("/main/shared_go.goc",             dependants.get(4));
+        assertEquals(0, instance.manifestBuilder.getDependants("/main/missing.goc").size());
+    }
+
+    @Test
+    public void testGetParentCollectionsNested() throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode collectionc = new ResourceNode("/main/main.collectionc", "test/main/main.collectionc");
+        ResourceNode goc = new ResourceNode("/main/main.goc", "test/main/main.goc");
+        ResourceNode nested_goc = new ResourceNode("/main/main.goc", "test/main/main.goc");
+        root.addChild(collectionc);
+        collectionc.addChild(goc);
+        goc.addChild(nested_goc);
+
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setDependencies(root);
+
+        // Occurrences below another occurrence of the same resource are not reported
+        List<ArrayList<String>> parents = manifestBuilder.getParentCollections("/main/main.goc");
+        assertEquals(1, parents.size());
+        assertEquals(1, parents.get(0).size());
+        assertEquals("/main/main.collectionc",          parents.get(0).get(0));
+        assertEquals(0, manifestBuilder.getParentCollections("/main/missing.goc").size());
+    }
+
 }
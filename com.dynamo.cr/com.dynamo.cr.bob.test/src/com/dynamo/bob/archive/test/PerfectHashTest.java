@@ -0,0 +1,123 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.dynamo.bob.archive.PerfectHash;
+
+public class PerfectHashTest {
+
+    private static List<byte[]> createKeys(int count, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> keys = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; ++i) {
+            byte[] key = new byte[20];
+            random.nextBytes(key);
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private static int[] createValues(int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    private static byte[] serialize(PerfectHash hash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        hash.write(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testMinimalPerfect() throws IOException {
+        for (int count : new int[] { 1, 2, 3, 10, 1000, 100000 }) {
+            List<byte[]> keys = createKeys(count, count);
+            PerfectHash hash = PerfectHash.build(keys, createValues(count));
+            assertEquals(count, hash.getSlotCount());
+            for (int i = 0; i < count; ++i) {
+                assertEquals(i, hash.get(keys.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testDeterministic() throws IOException {
+        List<byte[]> keys = createKeys(10000, 0);
+        byte[] first = serialize(PerfectHash.build(keys, createValues(keys.size())));
+        byte[] second = serialize(PerfectHash.build(keys, createValues(keys.size())));
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        List<byte[]> keys = createKeys(1000, 0);
+        PerfectHash hash = PerfectHash.build(keys, createValues(keys.size()));
+        byte[] data = serialize(hash);
+        assertEquals(hash.getSize(), data.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        PerfectHash read = PerfectHash.read(buffer);
+        assertEquals(0, buffer.remaining());
+        for (int i = 0; i < keys.size(); ++i) {
+            assertEquals(i, read.get(keys.get(i)));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        PerfectHash hash = PerfectHash.build(new ArrayList<byte[]>(), new int[0]);
+        assertEquals(-1, hash.get(new byte[20]));
+        assertEquals(-1, PerfectHash.read(ByteBuffer.wrap(serialize(hash))).get(new byte[20]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateKeys() {
+        List<byte[]> keys = createKeys(10, 0);
+        keys.add(keys.get(3).clone());
+        PerfectHash.build(keys, createValues(keys.size()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] data = serialize(PerfectHash.build(createKeys(100, 0), createValues(100)));
+        PerfectHash.read(ByteBuffer.wrap(data, 0, data.length - 4));
+    }
+
+    @Test
+    public void testBuildTime() {
+        // Construction is linear, a generous bound catches accidental quadratic behaviour
+        List<byte[]> keys = createKeys(200000, 1);
+        long start = System.nanoTime();
+        PerfectHash.build(keys, createValues(keys.size()));
+        assertTrue((System.nanoTime() - start) / 1000000 < 10000);
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.cache.HttpArtifactCache;
+import com.dynamo.bob.cache.IArtifactCache;
+import com.dynamo.bob.cache.LocalArtifactCache;
+
+public class ArtifactCacheTest {
+
+    private static final String KEY = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER_KEY = "fedcba9876543210fedcba9876543210fedcba98";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Stand-in for a remote cache server
+    private static class CacheHandler extends AbstractHandler {
+        Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String method = request.getMethod();
+            if (method.equals("PUT")) {
+                entries.put(target, IOUtils.toByteArray(request.getInputStream()));
+                response.setStatus(HttpServletResponse.SC_CREATED);
+            } else if (method.equals("GET")) {
+                byte[] content = entries.get(target);
+                if (content == null) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                } else {
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    response.setContentLength(content.length);
+                    response.getOutputStream().write(content);
+                }
+            } else {
+                response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+
+    private void testCache(IArtifactCache cache) throws IOException {
+        assertNull(cache.get(KEY));
+
+        byte[] content = "test data".getBytes();
+        cache.put(KEY, content);
+        assertArrayEquals(content, cache.get(KEY));
+        assertNull(cache.get(OTHER_KEY));
+
+        byte[] empty = new byte[0];
+        cache.put(OTHER_KEY, empty);
+        assertArrayEquals(empty, cache.get(OTHER_KEY));
+
+        // Overwrite
+        byte[] large = new byte[1024 * 1024];
+        for (int i = 0; i < large.length; ++i) {
+            large[i] = (byte) i;
+        }
+        cache.put(KEY, large);
+        assertArrayEquals(large, cache.get(KEY));
+    }
+
+    @Test
+    public void testLocal() throws Exception {
+        testCache(new LocalArtifactCache(folder.getRoot()));
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new CacheHandler());
+        server.start();
+        try {
+            testCache(new HttpArtifactCache(String.format("http://localhost:%d/cache", connector.getLocalPort())));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHttpUnavailable() throws Exception {
+        Server server = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        int port = connector.getLocalPort();
+        server.stop();
+        new HttpArtifactCache(String.format("http://localhost:%d/cache", port)).get(KEY);
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class DigestCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DefaultFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        folder.newFolder("build");
+        fileSystem = newFileSystem();
+    }
+
+    private DefaultFileSystem newFileSystem() {
+        DefaultFileSystem fs = new DefaultFileSystem();
+        fs.setRootDirectory(folder.getRoot().getAbsolutePath());
+        fs.setBuildDirectory("build");
+        return fs;
+    }
+
+    private static byte[] expectedSha1(byte[] content) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(content);
+    }
+
+    private byte[] writeFile(String name, int size, long seed) throws Exception {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        FileUtils.writeByteArrayToFile(new File(folder.getRoot(), name), content);
+        return content;
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        // Larger than the read buffer
+        byte[] content = writeFile("large.bin", 1024 * 1024 + 17, 1);
+        assertArrayEquals(expectedSha1(content), fileSystem.get("large.bin").sha1());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        byte[] content = writeFile("empty.bin", 0, 1);
+        assertArrayEquals(expectedSha1(content), fileSystem.get("empty.bin").sha1());
+    }
+
+    @Test
+    public void testChangedFile() throws Exception {
+        File file = new File(folder.getRoot(), "file.bin");
+        writeFile("file.bin", 100, 1);
+        long mTime = file.lastModified();
+        fileSystem.get("file.bin").sha1();
+
+        // Same modification time but different size
+        byte[] content = writeFile("file.bin", 200, 2);
+        file.setLastModified(mTime);
+        assertArrayEquals(expectedSha1(content), fileSystem.get("file.bin").sha1());
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        byte[] content = writeFile("file.bin", 100, 1);
+        fileSystem.get("file.bin").sha1();
+        fileSystem.saveCache();
+
+        DefaultFileSystem fs = newFileSystem();
+        fs.loadCache();
+        assertArrayEquals(expectedSha1(content), fs.get("file.bin").sha1());
+
+        // The cached digest is used as long as the file is unchanged
+        File file = new File(folder.getRoot(), "file.bin");
+        long mTime = file.lastModified();
+        writeFile("file.bin", 100, 2);
+        file.setLastModified(mTime);
+        assertArrayEquals(expectedSha1(content), fs.get("file.bin").sha1());
+    }
+
+    @Test
+    public void testPrehash() throws Exception {
+        List<byte[]> contents = new ArrayList<byte[]>();
+        List<IResource> resources = new ArrayList<IResource>();
+        for (int i = 0; i < 16; ++i) {
+            contents.add(writeFile("file" + i + ".bin", 1000 * i, i));
+            resources.add(fileSystem.get("file" + i + ".bin"));
+        }
+        // Missing files are ignored
+        resources.add(fileSystem.get("missing.bin"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            fileSystem.prehash(resources, executor);
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < 16; ++i) {
+            assertArrayEquals(expectedSha1(contents.get(i)), resources.get(i).sha1());
+        }
+    }
+}
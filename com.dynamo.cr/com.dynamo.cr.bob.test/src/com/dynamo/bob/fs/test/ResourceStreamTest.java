@@ -0,0 +1,111 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class ResourceStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DefaultFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        folder.newFolder("build");
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(folder.getRoot().getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+    }
+
+    private IResource writeOutput(String path, byte[] content) throws IOException {
+        IResource resource = fileSystem.get(path).output();
+        try (OutputStream os = resource.openOutputStream()) {
+            // Write in chunks to go through the buffered stream
+            for (int i = 0; i < content.length; i += 1000) {
+                os.write(content, i, Math.min(1000, content.length - i));
+            }
+        }
+        return resource;
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] content = randomContent(256 * 1024 + 3);
+        IResource resource = writeOutput("/sub/dir/file.bin", content);
+
+        assertArrayEquals(content, resource.getContent());
+        try (InputStream is = resource.openInputStream()) {
+            assertArrayEquals(content, IOUtils.toByteArray(is));
+        }
+
+        ByteBuffer mapped = resource.map();
+        assertEquals(content.length, mapped.remaining());
+        byte[] mappedContent = new byte[mapped.remaining()];
+        mapped.get(mappedContent);
+        assertArrayEquals(content, mappedContent);
+
+        ByteArrayOutputStream channelContent = new ByteArrayOutputStream();
+        try (ReadableByteChannel channel = resource.openChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                channelContent.write(buffer.array(), 0, buffer.limit());
+                buffer.clear();
+            }
+        }
+        assertArrayEquals(content, channelContent.toByteArray());
+
+        assertArrayEquals(MessageDigest.getInstance("SHA1").digest(content), resource.sha1());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        IResource resource = writeOutput("/empty.bin", new byte[0]);
+        assertEquals(0, resource.map().remaining());
+        try (InputStream is = resource.openInputStream()) {
+            assertEquals(-1, is.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissing() throws Exception {
+        fileSystem.get("/missing.bin").openInputStream();
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.gameobject.proto.GameObject.ComponentDesc;
+import com.dynamo.gameobject.proto.GameObject.PrototypeDesc;
+
+public class ResourceReferencesTest {
+
+    private static final byte[] SIGNATURE_A = new byte[] { 1 };
+    private static final byte[] SIGNATURE_B = new byte[] { 2 };
+
+    private MockFileSystem fileSystem;
+    private ResourceReferences references;
+
+    @Before
+    public void setUp() {
+        fileSystem = new MockFileSystem();
+        fileSystem.setBuildDirectory("build");
+        references = new ResourceReferences();
+    }
+
+    private IResource addGameObject(String path, String... components) {
+        PrototypeDesc.Builder builder = PrototypeDesc.newBuilder();
+        for (int i = 0; i < components.length; ++i) {
+            builder.addComponents(ComponentDesc.newBuilder().setId("c" + i).setComponent(components[i]));
+        }
+        IResource output = fileSystem.get(path).output();
+        fileSystem.addFile(output.getPath(), builder.build().toByteArray());
+        return fileSystem.get(output.getPath());
+    }
+
+    @Test
+    public void testReferences() throws Exception {
+        IResource output = addGameObject("/test.goc", "/a.scriptc", "/b.spritec");
+        String[] expected = { "/a.scriptc", "/b.spritec" };
+        assertArrayEquals(expected, references.getReferences(output, SIGNATURE_A, PrototypeDesc.getDefaultInstance()));
+        assertEquals(1, references.getParseCount());
+    }
+
+    @Test
+    public void testParsedOncePerSignature() throws Exception {
+        IResource output = addGameObject("/test.goc", "/a.scriptc");
+        String[] first = references.getReferences(output, SIGNATURE_A, PrototypeDesc.getDefaultInstance());
+        assertSame(first, references.getReferences(output, SIGNATURE_A, PrototypeDesc.getDefaultInstance()));
+        assertEquals(1, references.getParseCount());
+
+        // Rebuilt
+        output = addGameObject("/test.goc", "/c.scriptc");
+        assertArrayEquals(new String[] { "/c.scriptc" }, references.getReferences(output, SIGNATURE_B, PrototypeDesc.getDefaultInstance()));
+        assertEquals(2, references.getParseCount());
+    }
+
+    @Test
+    public void testWithoutSignature() throws Exception {
+        IResource output = addGameObject("/test.goc", "/a.scriptc");
+        references.getReferences(output, null, PrototypeDesc.getDefaultInstance());
+        references.getReferences(output, null, PrototypeDesc.getDefaultInstance());
+        assertEquals(1, references.getParseCount());
+
+        // The content is compared instead
+        output = addGameObject("/test.goc", "/c.scriptc");
+        assertArrayEquals(new String[] { "/c.scriptc" }, references.getReferences(output, null, PrototypeDesc.getDefaultInstance()));
+        assertEquals(2, references.getParseCount());
+    }
+
+    @Test
+    public void testMissingOutput() throws Exception {
+        IResource output = fileSystem.get("/missing.goc").output();
+        assertNull(references.getReferences(output, SIGNATURE_A, PrototypeDesc.getDefaultInstance()));
+    }
+}
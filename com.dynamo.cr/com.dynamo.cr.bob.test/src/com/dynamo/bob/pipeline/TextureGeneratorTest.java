@@ -708,6 +708,47 @@ public class TextureGeneratorTest {
         assertEquals(0, texture.getAlternatives(1).getMipMapSizeCompressed(texture.getAlternatives(1).getMipMapSizeCount()-1));
     }
 
+    @Test
+    public void testConcurrentEncoding() throws TextureGeneratorException, IOException {
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+        TextureFormat[] formats = new TextureFormat[] {
+                TextureFormat.TEXTURE_FORMAT_RGBA,
+                TextureFormat.TEXTURE_FORMAT_RGB_ETC1,
+                TextureFormat.TEXTURE_FORMAT_RGB,
+                TextureFormat.TEXTURE_FORMAT_RGBA_4444,
+        };
+        for (TextureFormat format : formats) {
+            TextureFormatAlternative.Builder textureFormatAlt = TextureFormatAlternative.newBuilder();
+            textureFormatAlt.setFormat(format);
+            textureFormatAlt.setCompressionLevel(CompressionLevel.FAST);
+            platformProfile.addFormats(textureFormatAlt.build());
+        }
+        platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+        platformProfile.setMipmaps(true);
+        platformProfile.setMaxTextureSize(0);
+
+        textureProfile.setName("Test Profile");
+        textureProfile.addPlatforms(platformProfile.build());
+
+        BufferedImage[] images = new BufferedImage[] { createFlipTestImage(), createFlipTestImage(), createFlipTestImage() };
+        TextureGenerator.Timing timing = new TextureGenerator.Timing();
+        TextureImage[] textures = TextureGenerator.generate(images, textureProfile.build(), true, EnumSet.noneOf(FlipAxis.class), timing);
+
+        // The alternatives are in profile order and identical to encoding each image on its own
+        TextureImage expected = TextureGenerator.generate(createFlipTestImage(), textureProfile.build(), true, EnumSet.noneOf(FlipAxis.class));
+        assertEquals(images.length, textures.length);
+        for (TextureImage texture : textures) {
+            assertEquals(formats.length, texture.getAlternativesCount());
+            assertEquals(TextureFormat.TEXTURE_FORMAT_RGBA, texture.getAlternatives(0).getFormat());
+            assertEquals(TextureFormat.TEXTURE_FORMAT_RGB_ETC1, texture.getAlternatives(1).getFormat());
+            assertEquals(expected, texture);
+        }
+        assertEquals(images.length * formats.length, timing.getImageCount());
+        assertTrue(timing.getEncodeNanos() > 0);
+        assertTrue(timing.getTotalNanos() > 0);
+    }
+
     /*
      JIRA issue: DEF-994
     @Test
@@ -0,0 +1,96 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.BobDaemon;
+import com.dynamo.bob.ClassLoaderScanner;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.graphics.proto.Graphics.TextureProfiles;
+
+public class BobDaemonTest {
+
+    private File root;
+    private Project project;
+    private BobDaemon daemon;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("defold_daemon_").toFile();
+        project = new Project(new DefaultFileSystem(), root.getAbsolutePath(), "build");
+        project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
+        daemon = new BobDaemon(project, root.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        project.dispose();
+        FileUtils.deleteDirectory(root);
+    }
+
+    private String request(String request) {
+        StringWriter reply = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(reply)) {
+            daemon.handle(request, writer);
+        }
+        return reply.toString();
+    }
+
+    private void writeFile(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(root, path), content, "UTF-8");
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        writeFile("test.in", "test data");
+        assertTrue(request("build").startsWith("OK "));
+        assertEquals("test data", FileUtils.readFileToString(new File(root, "build/test.out"), "UTF-8"));
+
+        writeFile("test.in_err", "A");
+        assertTrue(request("build").contains("FAILED "));
+    }
+
+    @Test
+    public void testBuildResultsNotKept() throws Exception {
+        writeFile("a.exclude", "exclude");
+        assertTrue(request("build").startsWith("OK "));
+        assertEquals(1, project.getExcludedCollectionProxies().size());
+        assertTrue(project.getExcludedCollectionProxies().get(0).endsWith("a.excludec"));
+
+        // No longer excluded once built without the flag, and texture profiles are only set by the request building game.project
+        writeFile("a.exclude", "include");
+        project.setTextureProfiles(TextureProfiles.getDefaultInstance());
+        assertTrue(request("build").startsWith("OK "));
+        assertTrue(project.getExcludedCollectionProxies().isEmpty());
+        assertNull(project.getTextureProfiles());
+
+        // Excluded once, not once per request
+        writeFile("a.exclude", "exclude");
+        assertTrue(request("build").startsWith("OK "));
+        assertEquals(1, project.getExcludedCollectionProxies().size());
+    }
+}
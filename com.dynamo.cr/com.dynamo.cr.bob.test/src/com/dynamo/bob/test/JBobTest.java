@@ -15,22 +15,29 @@ package com.dynamo.bob.test;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -48,10 +55,12 @@ import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.pipeline.ProtoBuilders.CollectionProxyBuilder;
 import com.dynamo.bob.test.util.MockFileSystem;
 import com.dynamo.bob.test.util.MockResource;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.TaskResult;
+import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 
 public class JBobTest {
     @BuilderParams(name = "InCopyBuilder", inExts = ".in", outExt = ".out")
@@ -124,6 +133,79 @@ public class JBobTest {
         }
     }
 
+    @BuilderParams(name = "FailedOutputConsumer", inExts = ".out_err", outExt = ".out_errc")
+    public static class FailedOutputConsumerBuilder extends CopyBuilder {}
+
+    // Creates a task consuming the output of test1.in_err while building
+    @BuilderParams(name = "LateConsumer", inExts = ".late", outExt = ".latec")
+    public static class LateConsumerBuilder extends Builder<Void> {
+        @Override
+        public Task<Void> create(IResource input) {
+            return defaultTask(input);
+        }
+
+        @Override
+        public void build(Task<Void> task) throws CompileExceptionError, IOException {
+            task.output(0).setContent(task.input(0).getContent());
+            project.buildResource(task.input(0).getResource("test1.out_err").output());
+        }
+    }
+
+    // Excludes itself from the bundle, like a collection proxy with the exclude flag set
+    @BuilderParams(name = "ExcludingBuilder", inExts = ".exclude", outExt = ".excludec", cacheOutputs = false)
+    public static class ExcludingBuilder extends Builder<Void> {
+        @Override
+        public Task<Void> create(IResource input) {
+            return defaultTask(input);
+        }
+
+        @Override
+        public void build(Task<Void> task) throws IOException {
+            byte[] content = task.input(0).getContent();
+            task.output(0).setContent(content);
+            if (new String(content).equals("exclude")) {
+                project.excludeCollectionProxy(task.output(0).getPath().substring(project.getBuildDirectory().length()));
+            }
+        }
+    }
+
+    // Lines ending with .part include other files, like the sub-collections of a collection
+    @BuilderParams(name = "IncludingBuilder", inExts = ".include", outExt = ".includec")
+    public static class IncludingBuilder extends Builder<Void> {
+        private void collectIncludes(IResource resource, TaskBuilder<Void> builder) throws IOException {
+            for (String line : new String(resource.getContent()).split("\n")) {
+                if (line.endsWith(".part")) {
+                    IResource include = project.getResource(line);
+                    builder.addInput(include);
+                    collectIncludes(include, builder);
+                }
+            }
+        }
+
+        @Override
+        public Task<Void> create(IResource input) throws IOException {
+            TaskBuilder<Void> builder = Task.<Void>newBuilder(this)
+                    .setName(params.name())
+                    .addInput(input)
+                    .addOutput(input.changeExt(params.outExt()));
+            collectIncludes(input, builder);
+            return builder.build();
+        }
+
+        @Override
+        public void build(Task<Void> task) throws IOException {
+            StringBuilder content = new StringBuilder();
+            for (IResource input : task.getInputs()) {
+                for (String line : new String(input.getContent()).split("\n")) {
+                    if (!line.isEmpty() && !line.endsWith(".part")) {
+                        content.append(line);
+                    }
+                }
+            }
+            task.output(0).setContent(content.toString().getBytes());
+        }
+    }
+
     @BuilderParams(name = "CreateException", inExts = ".in_ce", outExt = ".out_ce")
     public static class CreateExceptionBuilder extends Builder<Void> {
         @Override
@@ -210,6 +292,17 @@ public class JBobTest {
         }
     }
 
+    @BuilderParams(name = "CountingBuilder", inExts = ".count", outExt = ".countc")
+    public static class CountingBuilder extends CopyBuilder {
+        static int createCount = 0;
+
+        @Override
+        public Task<Void> create(IResource input) {
+            ++createCount;
+            return super.create(input);
+        }
+    }
+
     private MockFileSystem fileSystem;
     private Project project;
 
@@ -280,6 +373,323 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    @Test
+    public void testParallelJobs() throws Exception {
+        project.setOption("jobs", "4");
+        List<String> inputs = new ArrayList<String>();
+        fileSystem.addFile("test.proj", "".getBytes());
+        inputs.add("test.proj");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 32; ++i) {
+            String name = String.format("test%d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+            expected.append(i);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(33));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        IResource arcOut = fileSystem.get("test.arc").output();
+        assertThat(new String(arcOut.getContent()), is(expected.toString()));
+
+        // rebuild with same input
+        result = build();
+        assertThat(result.size(), is(0));
+    }
+
+    @Test
+    public void testParallelJobsFailing() throws Exception {
+        project.setOption("jobs", "4");
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in"));
+        List<TaskResult> result = build();
+        // The failure is propagated to test.proj which is never run
+        assertThat(result.size(), is(2));
+        for (TaskResult r : result) {
+            assertThat(r.isOk(), is(!r.getTask().getInputs().get(0).getPath().equals("test1.in_err")));
+        }
+        assertFalse(fileSystem.get("test.arc").output().exists());
+    }
+
+    @Test
+    public void testTaskCreatedAfterFailure() throws Exception {
+        // test1.in_err fails before test.late is built and creates a task consuming its output
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test.late", "B".getBytes());
+        project.setInputs(Arrays.asList("test1.in_err", "test.late"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(2));
+        for (TaskResult r : result) {
+            assertThat(r.isOk(), is(!r.getTask().getInputs().get(0).getPath().equals("test1.in_err")));
+        }
+        assertFalse(fileSystem.get("test1.out_errc").output().exists());
+    }
+
+    @Test
+    public void testBuildTrace() throws Exception {
+        File traceFile = File.createTempFile("defold_trace_", ".json");
+        try {
+            project.setOption("build-trace", traceFile.getAbsolutePath());
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(1));
+
+            JsonNode events = new ObjectMapper().readTree(traceFile).get("traceEvents");
+            Set<String> names = new HashSet<String>();
+            for (JsonNode event : events) {
+                names.add(event.get("name").asText());
+                if (event.get("cat") != null && event.get("cat").asText().equals("task")) {
+                    assertThat(event.get("name").asText(), is("InCopyBuilder"));
+                    assertThat(event.get("ph").asText(), is("X"));
+                    assertThat(event.get("args").get("input").asText(), is("test.in"));
+                    assertThat(event.get("args").get("status").asText(), is("built"));
+                }
+            }
+            assertTrue(names.contains("InCopyBuilder"));
+            assertTrue(names.contains("calculateSignature"));
+            assertTrue(names.contains("State.load"));
+            assertTrue(names.contains("State.save"));
+            assertTrue(names.contains("build"));
+        } finally {
+            traceFile.delete();
+        }
+    }
+
+    @Test
+    public void testArtifactCache() throws Exception {
+        File cacheDirectory = Files.createTempDirectory("defold_artifacts_").toFile();
+        try {
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(1));
+            assertTrue(result.get(0).isOk());
+
+            // A clean checkout fetches the output from the cache instead of building it
+            tearDown();
+            setUp();
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+            result = build();
+            assertThat(result.size(), is(0));
+            assertThat(new String(fileSystem.get("test.out").output().getContent()), is("test data"));
+
+            // Changed input is built
+            fileSystem.addFile("test.in", "other data".getBytes());
+            result = build();
+            assertThat(result.size(), is(1));
+            assertThat(new String(fileSystem.get("test.out").output().getContent()), is("other data"));
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testArtifactCacheExcludedCollectionProxy() throws Exception {
+        File cacheDirectory = Files.createTempDirectory("defold_artifacts_").toFile();
+        try {
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            fileSystem.addFile("a.exclude", "exclude".getBytes());
+            project.setInputs(Arrays.asList("a.exclude"));
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(1));
+            assertThat(project.getExcludedCollectionProxies().size(), is(1));
+
+            // A clean checkout with a warm cache still builds the proxy, which excludes itself
+            assertFalse(CollectionProxyBuilder.class.getAnnotation(BuilderParams.class).cacheOutputs());
+            tearDown();
+            setUp();
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            fileSystem.addFile("a.exclude", "exclude".getBytes());
+            project.setInputs(Arrays.asList("a.exclude"));
+            result = build();
+            assertThat(result.size(), is(1));
+            assertThat(project.getExcludedCollectionProxies().size(), is(1));
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testArtifactCachePlatform() throws Exception {
+        File cacheDirectory = Files.createTempDirectory("defold_artifacts_").toFile();
+        try {
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            project.setOption("platform", "x86_64-darwin");
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+            List<TaskResult> result = build();
+            assertThat(result.size(), is(1));
+
+            // Outputs built for another platform aren't fetched from the cache
+            tearDown();
+            setUp();
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            project.setOption("platform", "js-web");
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+            result = build();
+            assertThat(result.size(), is(1));
+
+            // Options not affecting the outputs are left out of the key
+            tearDown();
+            setUp();
+            project.setOption("artifact-cache", cacheDirectory.getAbsolutePath());
+            project.setOption("platform", "x86_64-darwin");
+            project.setOption("jobs", "4");
+            fileSystem.addFile("test.in", "test data".getBytes());
+            project.setInputs(Arrays.asList("test.in"));
+            result = build();
+            assertThat(result.size(), is(0));
+        } finally {
+            FileUtils.deleteDirectory(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testBuildChanged() throws Exception {
+        fileSystem.addFile("a.in", "a".getBytes());
+        fileSystem.addFile("b.in", "b".getBytes());
+        fileSystem.addFile("test.dynamic", "1\n2\n".getBytes());
+        project.setInputs(Arrays.asList("a.in", "b.in", "test.dynamic"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(5));
+
+        // Only the task consuming the changed file is run
+        fileSystem.addFile("a.in", "a2".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("a.in"));
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("a.out"), is("a2"));
+
+        // Tasks are created again from the changed file, and downstream tasks are run
+        fileSystem.addFile("test.dynamic", "3\n4\n".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("test.dynamic"));
+        assertThat(result.size(), is(3));
+        assertThat(getResourceString("test_0.numberc"), is("30"));
+        assertThat(getResourceString("test_1.numberc"), is("40"));
+
+        // Changed outputs, full build
+        fileSystem.addFile("test.dynamic", "3\n4\n5\n".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("test.dynamic"));
+        assertThat(getResourceString("test_2.numberc"), is("50"));
+
+        // Added source file, full build
+        fileSystem.addFile("c.in", "c".getBytes());
+        project.setInputs(Arrays.asList("a.in", "b.in", "c.in", "test.dynamic"));
+        result = project.buildChanged(new NullProgress(), Arrays.asList("c.in"));
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("c.out"), is("c"));
+
+        // Unrelated file
+        fileSystem.addFile("readme.txt", "text".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("readme.txt"));
+        assertThat(result.size(), is(0));
+    }
+
+    @Test
+    public void testBuildChangedSecondaryInput() throws Exception {
+        fileSystem.addFile("a.include", "b.part".getBytes());
+        fileSystem.addFile("b.part", "b".getBytes());
+        fileSystem.addFile("c.part", "c".getBytes());
+        project.setInputs(Arrays.asList("a.include"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("a.includec"), is("b"));
+
+        // The task consuming the changed file is created again, with the new include as input
+        fileSystem.addFile("b.part", "c.part\nb".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("b.part"));
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("a.includec"), is("bc"));
+
+        fileSystem.addFile("c.part", "c2".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("c.part"));
+        assertThat(result.size(), is(1));
+        assertThat(getResourceString("a.includec"), is("bc2"));
+    }
+
+    @Test
+    public void testBuildChangedResults() throws Exception {
+        fileSystem.addFile("a.exclude", "exclude".getBytes());
+        fileSystem.addFile("c.exclude", "exclude".getBytes());
+        fileSystem.addFile("b.in", "b".getBytes());
+        fileSystem.addFile("test.texture_profiles", "".getBytes());
+        project.getProjectProperties().putStringValue("graphics", "texture_profiles", "/test.texture_profiles");
+        project.setInputs(Arrays.asList("a.exclude", "c.exclude", "b.in"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(3));
+        assertThat(project.getExcludedCollectionProxies().size(), is(2));
+
+        // No longer excluded once built without the flag, the unchanged proxy stays excluded
+        fileSystem.addFile("a.exclude", "include".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("a.exclude"));
+        assertThat(result.size(), is(1));
+        assertThat(project.getExcludedCollectionProxies().size(), is(1));
+        assertTrue(project.getExcludedCollectionProxies().get(0).endsWith("c.excludec"));
+
+        fileSystem.addFile("a.exclude", "exclude".getBytes());
+        result = project.buildChanged(new NullProgress(), Arrays.asList("a.exclude"));
+        assertThat(result.size(), is(1));
+        assertThat(project.getExcludedCollectionProxies().size(), is(2));
+
+        // Changed without a new content, the task is up to date and not run
+        result = project.buildChanged(new NullProgress(), Arrays.asList("c.exclude"));
+        assertThat(result.size(), is(0));
+        assertThat(project.getExcludedCollectionProxies().size(), is(2));
+
+        // Texture profiles are kept, unless changed, which results in a full build
+        project.setTextureProfiles(TextureProfiles.getDefaultInstance());
+        fileSystem.addFile("b.in", "b2".getBytes());
+        project.buildChanged(new NullProgress(), Arrays.asList("b.in"));
+        assertNotNull(project.getTextureProfiles());
+        fileSystem.addFile("test.texture_profiles", "changed".getBytes());
+        project.buildChanged(new NullProgress(), Arrays.asList("test.texture_profiles"));
+        assertNull(project.getTextureProfiles());
+    }
+
+    @Test
+    public void testNoOpBuildSkipsTaskCreation() throws Exception {
+        CountingBuilder.createCount = 0;
+        fileSystem.addFile("test.count", "test data".getBytes());
+        project.setInputs(Arrays.asList("test.count"));
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(1));
+        assertThat(CountingBuilder.createCount, is(1));
+
+        // Nothing changed, the persisted task graph is up to date
+        result = build();
+        assertThat(result.size(), is(0));
+        assertThat(CountingBuilder.createCount, is(1));
+        assertTrue(project.getOutputs().containsKey(fileSystem.get("test.countc").output().getAbsPath()));
+
+        // Changed input
+        fileSystem.addFile("test.count", "other data".getBytes());
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(CountingBuilder.createCount, is(2));
+        assertThat(new String(fileSystem.get("test.countc").output().getContent()), is("other data"));
+
+        // Changed options
+        project.setOption("COPTIM", "-O2");
+        result = build();
+        assertThat(result.size(), is(0));
+        assertThat(CountingBuilder.createCount, is(3));
+
+        // Removed output
+        fileSystem.get("test.countc").output().remove();
+        result = build();
+        assertThat(result.size(), is(1));
+        assertThat(CountingBuilder.createCount, is(4));
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
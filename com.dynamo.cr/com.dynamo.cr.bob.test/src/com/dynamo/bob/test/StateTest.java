@@ -0,0 +1,189 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.State;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+
+public class StateTest {
+
+    private MockFileSystem fileSystem;
+    private IResource stateResource;
+    private IResource journalResource;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new MockFileSystem();
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/state");
+        journalResource = fileSystem.get("build/state.journal");
+    }
+
+    private static byte[] signature(int value) {
+        byte[] signature = new byte[20];
+        Arrays.fill(signature, (byte) value);
+        return signature;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/build/file" + i, signature(i));
+        }
+        state.putSignature("/build/failed", new byte[0]);
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/build/file" + i));
+        }
+        assertEquals(0, state.getSignature("/build/failed").length);
+        assertNull(state.getSignature("/build/missing"));
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/build/file" + i, signature(i));
+        }
+        state.save(stateResource);
+        byte[] table = stateResource.getContent();
+        assertFalse(journalResource.exists());
+
+        // Only the changed signatures are appended, the table is left as is
+        state = State.load(stateResource);
+        state.putSignature("/build/file1", signature(1));
+        state.putSignature("/build/file2", signature(42));
+        state.save(stateResource);
+        assertArrayEquals(table, stateResource.getContent());
+        assertTrue(journalResource.exists());
+
+        state = State.load(stateResource);
+        state.putSignature("/build/file3", signature(43));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/build/file1"));
+        assertArrayEquals(signature(42), state.getSignature("/build/file2"));
+        assertArrayEquals(signature(43), state.getSignature("/build/file3"));
+        assertArrayEquals(signature(4), state.getSignature("/build/file4"));
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        State state = State.load(stateResource);
+        state.putSignature("/build/first", signature(1));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        for (int i = 0; i < 2000; ++i) {
+            state.putSignature("/build/file" + i, signature(i));
+        }
+        state.save(stateResource);
+        assertFalse(journalResource.exists());
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/build/first"));
+        for (int i = 0; i < 2000; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/build/file" + i));
+        }
+    }
+
+    @Test
+    public void testInvalidState() throws Exception {
+        stateResource.setContent("not a state".getBytes());
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/build/file"));
+        state.putSignature("/build/file", signature(1));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/build/file"));
+    }
+
+    @Test
+    public void testFileState() throws Exception {
+        File root = Files.createTempDirectory("defold_state_").toFile();
+        try {
+            DefaultFileSystem fs = new DefaultFileSystem();
+            fs.setRootDirectory(root.getAbsolutePath());
+            fs.setBuildDirectory("build");
+            IResource stateResource = fs.get("build/state");
+            File stateFile = new File(root, "build/state");
+            File journalFile = new File(root, "build/state.journal");
+
+            State state = State.load(stateResource);
+            for (int i = 0; i < 100; ++i) {
+                state.putSignature("/build/file" + i, signature(i));
+            }
+            state.save(stateResource);
+            assertTrue(stateFile.isFile());
+            assertFalse(journalFile.exists());
+
+            // Appended to the journal
+            byte[] table = Files.readAllBytes(stateFile.toPath());
+            state = State.load(stateResource);
+            state.putSignature("/build/file1", signature(42));
+            state.save(stateResource);
+            assertArrayEquals(table, Files.readAllBytes(stateFile.toPath()));
+            assertTrue(journalFile.isFile());
+
+            // Compacted, replacing the table loaded from the file
+            state = State.load(stateResource);
+            assertArrayEquals(signature(42), state.getSignature("/build/file1"));
+            for (int i = 0; i < 2000; ++i) {
+                state.putSignature("/build/other" + i, signature(i));
+            }
+            state.save(stateResource);
+            assertFalse(journalFile.exists());
+
+            // Appended to a new journal after compacting
+            state = State.load(stateResource);
+            state.putSignature("/build/file2", signature(43));
+            state.save(stateResource);
+            assertTrue(journalFile.isFile());
+
+            state = State.load(stateResource);
+            assertArrayEquals(signature(42), state.getSignature("/build/file1"));
+            assertArrayEquals(signature(43), state.getSignature("/build/file2"));
+            assertArrayEquals(signature(3), state.getSignature("/build/file3"));
+            for (int i = 0; i < 2000; ++i) {
+                assertArrayEquals(signature(i), state.getSignature("/build/other" + i));
+            }
+
+            // The state can be removed while loaded, e.g. by distclean
+            FileUtils.deleteDirectory(new File(root, "build"));
+            assertFalse(stateFile.exists());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+}
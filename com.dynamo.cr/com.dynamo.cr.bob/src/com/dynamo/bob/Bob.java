@@ -383,6 +383,13 @@ public class Bob {
         options.addOption("tp", "texture-profiles", true, "Use texture profiles (deprecated)");
         options.addOption("tc", "texture-compression", true, "Use texture compression as specified in texture profiles");
         options.addOption("k", "keep-unused", false, "Keep unused resources in archived output");
+        options.addOption(null, "archive-page-align", false, "Align the data of archive entries that are neither compressed nor encrypted to the page size, so they can be memory mapped without copying");
+        options.addOption(null, "archive-page-size", true, "Page size in bytes used with --archive-page-align. Default is 4096");
+        options.addOption(null, "archive-perfect-hash", false, "Write a minimal perfect hash of the resource hashes to the archive index, so resources can be found without a binary search");
+        options.addOption(null, "archive-compression", true, "Compression of archive entries. 'fast' or 'high'. Default is 'fast' for the debug variant and 'high' otherwise");
+        options.addOption(null, "archive-layout", true, "Order of the resource data in the archive. 'default' or 'load-order', placing resources in the order they are loaded at startup and by each collection proxy");
+        options.addOption(null, "archive-split", true, "Write an archive per collection proxy, and one for the resources shared between them, to the archives directory of the build directory. Comma separated list of collection proxies, e.g. /main/level1.collectionproxy, or 'excluded' for the proxies excluded from the bundle");
+        options.addOption("j", "jobs", true, "Number of build tasks to run in parallel. Default is 1, 0 uses all available processors");
 
         options.addOption("br", "build-report", true, "Filepath where to save a build report as JSON");
         options.addOption("brhtml", "build-report-html", true, "Filepath where to save a build report as HTML");
@@ -401,6 +408,11 @@ public class Bob {
 
         options.addOption(null, "version", false, "Prints the version number to the output");
 
+        options.addOption(null, "build-trace", true, "Write a trace of the build in Chrome trace-event format to the given file");
+        options.addOption(null, "artifact-cache", true, "Directory or http(s) URL of a cache to fetch build outputs from, and store them in, instead of building them");
+        options.addOption(null, "daemon-port", true, "Keep the project loaded and serve build requests on the given local port instead of building once");
+        options.addOption(null, "watch", false, "Keep the project loaded and rebuild the files affected by changes to the source files, until interrupted");
+
         // debug options
         options.addOption(null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip");
 
@@ -444,6 +456,10 @@ public class Bob {
         }
         project.mount(new ClassLoaderResourceScanner());
 
+        findSources(project, sourceDirectory);
+    }
+
+    static void findSources(Project project, String sourceDirectory) throws IOException {
         Set<String> skipDirs = new HashSet<String>(Arrays.asList(".git", project.getBuildDirectory(), ".internal"));
         project.findSources(sourceDirectory, skipDirs);
     }
@@ -587,7 +603,39 @@ public class Bob {
             project.setOption("bundle-format", cmd.getOptionValue("bundle-format"));
         }
 
+        if (cmd.hasOption("watch")) {
+            BobWatcher watcher = new BobWatcher(project, sourceDirectory);
+            watcher.watch();
+            project.dispose();
+            System.exit(0);
+            return;
+        }
+
+        if (cmd.hasOption("daemon-port")) {
+            int port = Integer.parseInt(cmd.getOptionValue("daemon-port"));
+            BobDaemon daemon = new BobDaemon(project, sourceDirectory);
+            daemon.serve(port);
+            project.dispose();
+            System.exit(0);
+            return;
+        }
+
         List<TaskResult> result = project.build(new ConsoleProgress(), commands);
+        String errors = getErrors(result);
+        if (errors != null) {
+            System.out.println("The build failed for the following reasons:");
+            System.out.println(errors);
+        }
+        project.dispose();
+        System.exit(errors == null ? 0 : 1);
+    }
+
+    /**
+     * Format the failing task results the same way as reported from the command line
+     * @param result task results from a build
+     * @return formatted errors, or null if all tasks succeeded
+     */
+    static String getErrors(List<TaskResult> result) {
         boolean ret = true;
         StringBuilder errors = new StringBuilder();
         for (TaskResult taskResult : result) {
@@ -619,12 +667,7 @@ public class Bob {
                 }
             }
         }
-        if (!ret) {
-            System.out.println("The build failed for the following reasons:");
-            System.out.println(errors.toString());
-        }
-        project.dispose();
-        System.exit(ret ? 0 : 1);
+        return ret ? null : errors.toString();
     }
 
     private static String getOptionsValue(CommandLine cmd, char o, String defaultValue) {
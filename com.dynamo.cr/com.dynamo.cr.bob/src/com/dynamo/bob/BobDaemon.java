@@ -0,0 +1,121 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Build daemon. Keeps a {@link Project} with its scanned builders, mount points,
+ * build state and signature cache in memory and serves build requests on a local port.
+ *
+ * A request is a single line of space separated commands, e.g. "build" or "clean build".
+ * The reply is zero or more error lines followed by a status line "OK &lt;ms&gt;" or
+ * "FAILED &lt;ms&gt;", after which the connection is closed. The request "shutdown"
+ * stops the daemon.
+ */
+public class BobDaemon {
+
+    private Project project;
+    private String sourceDirectory;
+    private boolean running = true;
+
+    public BobDaemon(Project project, String sourceDirectory) {
+        this.project = project;
+        this.sourceDirectory = sourceDirectory;
+        this.project.setKeepState(true);
+    }
+
+    /**
+     * Serve requests until a shutdown request is received
+     * @param port local port to listen on
+     * @throws IOException
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println(String.format("Bob daemon listening on %s:%d", serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort()));
+            while (running) {
+                try (Socket socket = serverSocket.accept()) {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                    String request = reader.readLine();
+                    if (request != null) {
+                        handle(request.trim(), writer);
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    System.err.println("Bob daemon: failed to serve request: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle a single request
+     * @param request space separated list of commands
+     * @param writer where to write the reply
+     */
+    public void handle(String request, PrintWriter writer) {
+        long start = System.currentTimeMillis();
+        if (request.equals("shutdown")) {
+            running = false;
+            writer.println(String.format("OK %d", System.currentTimeMillis() - start));
+            return;
+        }
+
+        String[] commands = request.isEmpty() ? new String[] { "build" } : request.split("\\s+");
+        boolean ok;
+        try {
+            for (String command : commands) {
+                if (command.equals("resolve")) {
+                    project.resolveLibUrls(new NullProgress());
+                    project.mount(new ClassLoaderResourceScanner());
+                    break;
+                }
+            }
+            // Pick up added and removed source files
+            Bob.findSources(project, sourceDirectory);
+
+            List<TaskResult> result = project.build(new NullProgress(), commands);
+            String errors = Bob.getErrors(result);
+            ok = errors == null;
+            if (!ok) {
+                writer.print(errors);
+            }
+        } catch (CompileExceptionError e) {
+            ok = false;
+            writer.println(String.format("ERROR %s%s %s", e.getResource() != null ? e.getResource() : "",
+                    e.getLineNumber() > 0 ? String.format(":%d", e.getLineNumber()) : "",
+                    e.getMessage()));
+        } catch (MultipleCompileException e) {
+            ok = false;
+            for (MultipleCompileException.Info info : e.issues) {
+                if (info.getSeverity() == MultipleCompileException.Info.SEVERITY_ERROR) {
+                    writer.println(String.format("ERROR %s:%d %s", info.getResource(), info.getLineNumber(), info.getMessage()));
+                }
+            }
+        } catch (Exception e) {
+            ok = false;
+            writer.println(String.format("ERROR %s", e.getMessage()));
+        }
+        writer.println(String.format("%s %d", ok ? "OK" : "FAILED", System.currentTimeMillis() - start));
+    }
+}
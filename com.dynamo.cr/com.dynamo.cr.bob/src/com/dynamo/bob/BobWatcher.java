@@ -0,0 +1,220 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Watch mode. Builds the project once and then rebuilds it whenever source files change.
+ *
+ * Changes are collected into a set of dirty paths until the file system has been quiet
+ * for a short while, so that saving several files at once results in a single build.
+ * The dirty paths are passed to {@link Project#buildChanged(IProgress, java.util.Collection)},
+ * which only runs the tasks affected by the changes.
+ */
+public class BobWatcher {
+
+    private static final long QUIET_PERIOD_MS = 100;
+
+    private Project project;
+    private String sourceDirectory;
+    private Path root;
+    private Set<String> skipDirs;
+    private WatchService watchService;
+    private Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+    private boolean filesAddedOrRemoved = false;
+    private volatile boolean running = true;
+
+    public BobWatcher(Project project, String sourceDirectory) {
+        this.project = project;
+        this.sourceDirectory = sourceDirectory;
+        this.root = Paths.get(project.getRootDirectory()).toAbsolutePath().normalize();
+        this.skipDirs = new HashSet<String>();
+        for (String dir : new String[] { ".git", project.getBuildDirectory(), ".internal" }) {
+            skipDirs.add(FilenameUtils.separatorsToUnix(dir));
+        }
+        this.project.setKeepState(true);
+    }
+
+    /**
+     * Build and then rebuild on changes until {@link #stop()} is called
+     * @throws IOException
+     */
+    public void watch() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            register(root.resolve(sourceDirectory).normalize());
+            build(null);
+            while (running) {
+                Set<String> dirty = new HashSet<String>();
+                boolean overflow = false;
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    overflow |= collect(key, dirty);
+                    key = watchService.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+                }
+                if (overflow) {
+                    build(null);
+                } else if (!dirty.isEmpty()) {
+                    build(dirty);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        } finally {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Stop watching, the current build is completed first
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void build(Set<String> dirty) {
+        long start = System.currentTimeMillis();
+        try {
+            List<TaskResult> result;
+            if (dirty == null) {
+                Bob.findSources(project, sourceDirectory);
+                result = project.build(new NullProgress(), "build");
+            } else {
+                if (dirty.size() == 1) {
+                    System.out.println(String.format("Changed %s", dirty.iterator().next()));
+                } else {
+                    System.out.println(String.format("Changed %d files", dirty.size()));
+                }
+                if (filesAddedOrRemoved) {
+                    // Pick up added and removed source files
+                    Bob.findSources(project, sourceDirectory);
+                    filesAddedOrRemoved = false;
+                }
+                result = project.buildChanged(new NullProgress(), dirty);
+            }
+            String errors = Bob.getErrors(result);
+            if (errors != null) {
+                System.out.print(errors);
+            }
+            System.out.println(String.format("%s, %d tasks built in %d ms", errors == null ? "OK" : "FAILED",
+                    result.size(), System.currentTimeMillis() - start));
+        } catch (CompileExceptionError e) {
+            System.out.println(String.format("ERROR %s%s %s", e.getResource() != null ? e.getResource() : "",
+                    e.getLineNumber() > 0 ? String.format(":%d", e.getLineNumber()) : "",
+                    e.getMessage()));
+        } catch (MultipleCompileException e) {
+            for (MultipleCompileException.Info info : e.issues) {
+                if (info.getSeverity() == MultipleCompileException.Info.SEVERITY_ERROR) {
+                    System.out.println(String.format("ERROR %s:%d %s", info.getResource(), info.getLineNumber(), info.getMessage()));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(String.format("ERROR %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Collect the changed paths of a key
+     * @return true if events were lost and everything must be considered changed
+     */
+    private boolean collect(WatchKey key, Set<String> dirty) throws IOException {
+        Path dir = keys.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            filesAddedOrRemoved |= event.kind() != ENTRY_MODIFY;
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files in a new, or moved, directory are not reported separately
+                register(path);
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(Files::isRegularFile).forEach(p -> addPath(p, dirty));
+                }
+            } else {
+                addPath(path, dirty);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+        return overflow;
+    }
+
+    private void addPath(Path path, Set<String> dirty) {
+        String relative = FilenameUtils.separatorsToUnix(root.relativize(path).toString());
+        if (!isSkipped(relative)) {
+            dirty.add(relative);
+        }
+    }
+
+    private boolean isSkipped(String relative) {
+        for (String dir : skipDirs) {
+            if (relative.equals(dir) || relative.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (isSkipped(FilenameUtils.separatorsToUnix(root.relativize(dir).toString()))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -52,4 +52,11 @@ public @interface BuilderParams {
      * @return create order
      */
     int createOrder() default 0;
+
+    /**
+     * Whether task outputs can be fetched from, and stored in, the artifact cache.
+     * Builders with side effects besides writing their outputs must disable it.
+     * @return true if outputs can be cached
+     */
+    boolean cacheOutputs() default true;
 }
@@ -13,6 +13,10 @@
 package com.dynamo.bob;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.fs.IResource;
 
@@ -38,6 +42,8 @@ public abstract class CopyBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws IOException {
         IResource in = task.getInputs().get(0);
         IResource out = task.getOutputs().get(0);
-        out.setContent(in.getContent());
+        try (InputStream is = in.openInputStream(); OutputStream os = out.openOutputStream()) {
+            IOUtils.copy(is, os);
+        }
     }
 }
@@ -14,9 +14,13 @@ package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.apache.commons.io.IOUtils;
+
 import com.dynamo.bob.Project.Walker;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
@@ -53,7 +57,10 @@ public class CopyCustomResourcesBuilder extends Builder<Void> {
     public void build(Task<Void> task) throws IOException {
         int n = task.getInputs().size();
         for (int i = 0; i < n; i++) {
-            task.getOutputs().get(i).setContent(task.getInputs().get(i).getContent());
+            try (InputStream is = task.getInputs().get(i).openInputStream();
+                 OutputStream os = task.getOutputs().get(i).openOutputStream()) {
+                IOUtils.copy(is, os);
+            }
         }
     }
 }
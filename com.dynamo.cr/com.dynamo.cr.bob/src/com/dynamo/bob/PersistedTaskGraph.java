@@ -0,0 +1,309 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import com.dynamo.bob.Project.OutputFlags;
+import com.dynamo.bob.fs.IFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * The task graph discovered by the last successful build, i.e. the inputs,
+ * dependencies, outputs and signature of every task, including tasks created
+ * while building.
+ *
+ * A build where the project inputs, options and engine are the same as for the
+ * recorded graph, where all recorded inputs produce the recorded signatures and
+ * where all recorded outputs exist, has nothing to do. Such a build can be
+ * verified from the file digests alone without creating any tasks, i.e.
+ * without having the builders parse their inputs.
+ */
+class PersistedTaskGraph {
+
+    private static final int MAGIC = 0x424f4247; // "BOBG"
+    private static final int VERSION = 1;
+
+    static class Entry {
+        String builder;
+        String options;
+        List<String> inputs = new ArrayList<String>();
+        List<String> dependencies = new ArrayList<String>();
+        List<String> outputs = new ArrayList<String>();
+        List<EnumSet<OutputFlags>> outputFlags = new ArrayList<EnumSet<OutputFlags>>();
+        byte[] signature;
+    }
+
+    /**
+     * Creates builder instances from recorded builder class names
+     */
+    interface BuilderFactory {
+        /**
+         * @param className builder class name
+         * @return builder or null if the builder class isn't available
+         */
+        Builder<?> create(String className);
+    }
+
+    private final byte[] key;
+    private final List<Entry> entries;
+
+    private PersistedTaskGraph(byte[] key, List<Entry> entries) {
+        this.key = key;
+        this.entries = entries;
+    }
+
+    /**
+     * Create graph from built tasks
+     * @param key digest of everything except the task inputs that affects which tasks are created
+     * @param tasks tasks, all with calculated signatures
+     * @param outputs output flags by output absolute path
+     * @return graph
+     */
+    static PersistedTaskGraph create(byte[] key, Collection<Task<?>> tasks, Map<String, EnumSet<OutputFlags>> outputs) {
+        List<Entry> entries = new ArrayList<Entry>(tasks.size());
+        for (Task<?> task : tasks) {
+            Entry entry = new Entry();
+            entry.builder = task.getBuilder().getClass().getName();
+            entry.options = task.getOptionsString();
+            for (IResource r : task.getInputs()) {
+                entry.inputs.add(r.getPath());
+            }
+            for (IResource r : task.getDependencies()) {
+                entry.dependencies.add(r.getPath());
+            }
+            for (IResource r : task.getOutputs()) {
+                EnumSet<OutputFlags> flags = outputs.get(r.getAbsPath());
+                entry.outputs.add(r.getPath());
+                entry.outputFlags.add(flags != null ? EnumSet.copyOf(flags) : EnumSet.noneOf(OutputFlags.class));
+            }
+            entry.signature = task.getSignature();
+            if (entry.signature == null) {
+                throw new IllegalArgumentException(String.format("Task '%s' has no signature", task));
+            }
+            entries.add(entry);
+        }
+        return new PersistedTaskGraph(key, entries);
+    }
+
+    /**
+     * Load graph from resource
+     * @param resource graph resource
+     * @return graph or null if no valid graph is stored
+     * @throws IOException
+     */
+    static PersistedTaskGraph load(IResource resource) throws IOException {
+        byte[] content = resource.getContent();
+        if (content == null) {
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(content))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                return null;
+            }
+            byte[] key = readBytes(is);
+            int count = is.readInt();
+            List<Entry> entries = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; ++i) {
+                Entry entry = new Entry();
+                entry.builder = is.readUTF();
+                entry.options = is.readUTF();
+                readPaths(is, entry.inputs);
+                readPaths(is, entry.dependencies);
+                int outputCount = is.readInt();
+                for (int j = 0; j < outputCount; ++j) {
+                    entry.outputs.add(is.readUTF());
+                    entry.outputFlags.add(decodeFlags(is.readByte()));
+                }
+                entry.signature = readBytes(is);
+                entries.add(entry);
+            }
+            return new PersistedTaskGraph(key, entries);
+        } catch (IOException e) {
+            // Truncated or otherwise broken, same as no graph at all
+            return null;
+        }
+    }
+
+    /**
+     * Save graph to resource
+     * @param resource graph resource
+     * @throws IOException
+     */
+    void save(IResource resource) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream os = new DataOutputStream(buffer)) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            writeBytes(os, key);
+            os.writeInt(entries.size());
+            for (Entry entry : entries) {
+                os.writeUTF(entry.builder);
+                os.writeUTF(entry.options);
+                writePaths(os, entry.inputs);
+                writePaths(os, entry.dependencies);
+                os.writeInt(entry.outputs.size());
+                for (int i = 0; i < entry.outputs.size(); ++i) {
+                    os.writeUTF(entry.outputs.get(i));
+                    os.writeByte(encodeFlags(entry.outputFlags.get(i)));
+                }
+                writeBytes(os, entry.signature);
+            }
+        }
+        resource.setContent(buffer.toByteArray());
+    }
+
+    /**
+     * Check if building the recorded graph again would be a no-op
+     * @param key key of the current build, see {@link #create(byte[], Collection, Map)}
+     * @param fileSystem file system
+     * @param state build state
+     * @param builders factory for the recorded builders
+     * @param executor executor used to hash the inputs in parallel
+     * @return true if all tasks are up to date
+     * @throws IOException
+     */
+    boolean isUpToDate(byte[] key, IFileSystem fileSystem, State state, BuilderFactory builders, ExecutorService executor) throws IOException {
+        if (!Arrays.equals(this.key, key)) {
+            return false;
+        }
+
+        // Cheap checks first, everything recorded must still exist
+        Set<String> outputPaths = new HashSet<String>();
+        for (Entry entry : entries) {
+            for (String path : entry.outputs) {
+                IResource r = fileSystem.get(path);
+                if (!r.exists() || !Arrays.equals(entry.signature, state.getSignature(r.getAbsPath()))) {
+                    return false;
+                }
+                outputPaths.add(path);
+            }
+        }
+        Set<IResource> inputs = new HashSet<IResource>();
+        for (Entry entry : entries) {
+            for (String path : entry.inputs) {
+                IResource r = fileSystem.get(path);
+                if (!r.exists()) {
+                    return false;
+                }
+                inputs.add(r);
+            }
+            for (String path : entry.dependencies) {
+                IResource r = fileSystem.get(path);
+                if (!r.exists()) {
+                    return false;
+                }
+                inputs.add(r);
+            }
+        }
+
+        fileSystem.prehash(inputs, executor);
+
+        for (Entry entry : entries) {
+            Builder<?> builder = builders.create(entry.builder);
+            if (builder == null) {
+                return false;
+            }
+            byte[] signature = Task.calculateSignature(resources(fileSystem, entry.inputs), resources(fileSystem, entry.dependencies), builder, entry.options);
+            if (!Arrays.equals(entry.signature, signature)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Put the recorded outputs and their flags, as they were after the build, into the map
+     * @param fileSystem file system
+     * @param outputs output flags by output absolute path
+     */
+    void restoreOutputs(IFileSystem fileSystem, Map<String, EnumSet<OutputFlags>> outputs) {
+        for (Entry entry : entries) {
+            for (int i = 0; i < entry.outputs.size(); ++i) {
+                outputs.put(fileSystem.get(entry.outputs.get(i)).getAbsPath(), EnumSet.copyOf(entry.outputFlags.get(i)));
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static List<IResource> resources(IFileSystem fileSystem, List<String> paths) {
+        List<IResource> resources = new ArrayList<IResource>(paths.size());
+        for (String path : paths) {
+            resources.add(fileSystem.get(path));
+        }
+        return resources;
+    }
+
+    private static int encodeFlags(EnumSet<OutputFlags> flags) {
+        int mask = 0;
+        for (OutputFlags flag : flags) {
+            mask |= 1 << flag.ordinal();
+        }
+        return mask;
+    }
+
+    private static EnumSet<OutputFlags> decodeFlags(int mask) {
+        EnumSet<OutputFlags> flags = EnumSet.noneOf(OutputFlags.class);
+        for (OutputFlags flag : OutputFlags.values()) {
+            if ((mask & (1 << flag.ordinal())) != 0) {
+                flags.add(flag);
+            }
+        }
+        return flags;
+    }
+
+    private static void writePaths(DataOutputStream os, List<String> paths) throws IOException {
+        os.writeInt(paths.size());
+        for (String path : paths) {
+            os.writeUTF(path);
+        }
+    }
+
+    private static void readPaths(DataInputStream is, List<String> paths) throws IOException {
+        int count = is.readInt();
+        for (int i = 0; i < count; ++i) {
+            paths.add(is.readUTF());
+        }
+    }
+
+    private static void writeBytes(DataOutputStream os, byte[] bytes) throws IOException {
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream is) throws IOException {
+        int length = is.readInt();
+        if (length < 0 || length > is.available()) {
+            throw new IOException("Invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return bytes;
+    }
+}
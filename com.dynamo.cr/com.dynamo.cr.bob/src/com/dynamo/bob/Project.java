@@ -32,6 +32,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URI;
 import java.text.ParseException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -44,17 +46,25 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
 
 import com.defold.extender.client.ExtenderClient;
 import com.defold.extender.client.ExtenderResource;
@@ -76,13 +86,19 @@ import com.dynamo.bob.bundle.LinuxBundler;
 import com.dynamo.bob.bundle.OSXBundler;
 import com.dynamo.bob.bundle.Win32Bundler;
 import com.dynamo.bob.bundle.Win64Bundler;
+import com.dynamo.bob.cache.HttpArtifactCache;
+import com.dynamo.bob.cache.IArtifactCache;
+import com.dynamo.bob.cache.LocalArtifactCache;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.pipeline.ExtenderUtil;
+import com.dynamo.bob.pipeline.ResourceReferences;
+import com.dynamo.bob.pipeline.TextureGenerator;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.BuildTrace;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.ReportGenerator;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
@@ -97,6 +113,13 @@ public class Project {
     public final static String LIB_DIR = ".internal/lib";
     public final static String CACHE_DIR = ".internal/cache";
 
+    // Options not affecting the content of task outputs, left out of the artifact cache key
+    // so the cache can be shared between checkouts and build agents
+    private final static Set<String> NON_ARTIFACT_OPTIONS = new HashSet<String>(Arrays.asList(
+            "root", "output", "input", "verbose", "help", "email", "auth", "bundle-output", "jobs",
+            "build-report", "build-report-html", "binary-output", "build-trace", "artifact-cache",
+            "daemon-port", "watch", "debug-ne-upload", "version"));
+
     public enum OutputFlags {
         NONE,
         UNCOMPRESSED
@@ -107,7 +130,14 @@ public class Project {
     private List<String> inputs = new ArrayList<String>();
     private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
     private ArrayList<Task<?>> newTasks;
+    private final Object newTasksLock = new Object();
+    private List<Task<?>> builtTasks;
+    private Set<String> builtInputs;
     private State state;
+    private boolean keepState = false;
+    private IArtifactCache artifactCache;
+    private final ResourceReferences resourceReferences = new ResourceReferences();
+    private final Map<String, TextureGenerator.Timing> textureTimings = new ConcurrentHashMap<String, TextureGenerator.Timing>();
     private String rootDirectory = ".";
     private String buildDirectory = "build";
     private Map<String, String> options = new HashMap<String, String>();
@@ -164,6 +194,50 @@ public class Project {
         return projectProperties;
     }
 
+    /**
+     * Get the table of resources referenced by the outputs of the project.
+     * The table is kept between builds.
+     * @return reference table
+     */
+    public ResourceReferences getResourceReferences() {
+        return resourceReferences;
+    }
+
+    /**
+     * Get the timing of a texture generated in the current build, for the
+     * build report. The timing is created the first time it is requested.
+     * @param path path of the input the texture is generated from
+     * @return timing
+     */
+    public TextureGenerator.Timing getTextureTiming(String path) {
+        TextureGenerator.Timing timing = textureTimings.get(path);
+        if (timing == null) {
+            TextureGenerator.Timing newTiming = new TextureGenerator.Timing();
+            timing = textureTimings.putIfAbsent(path, newTiming);
+            if (timing == null) {
+                timing = newTiming;
+            }
+        }
+        return timing;
+    }
+
+    /**
+     * @return timings of the textures generated in the current build, by path
+     */
+    public Map<String, TextureGenerator.Timing> getTextureTimings() {
+        return new TreeMap<String, TextureGenerator.Timing>(textureTimings);
+    }
+
+    /**
+     * Get the signature of the task that produced an output, in the current
+     * or a previous build
+     * @param path absolute path of the output
+     * @return signature, or null if unknown
+     */
+    public byte[] getOutputSignature(String path) {
+        return state != null ? state.getSignature(path) : null;
+    }
+
     public void setPublisher(Publisher publisher) {
         this.publisher = publisher;
     }
@@ -285,7 +359,7 @@ public class Project {
 
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addTask(task);
         }
         return task;
     }
@@ -300,11 +374,17 @@ public class Project {
     public Task<?> buildResource(IResource input, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addTask(task);
         }
         return task;
     }
 
+    private void addTask(Task<?> task) {
+        synchronized (newTasksLock) {
+            newTasks.add(task);
+        }
+    }
+
     private List<String> sortInputs() {
         ArrayList<String> sortedInputs = new ArrayList<String>(inputs);
         Collections.sort(sortedInputs, new Comparator<String>() {
@@ -330,7 +410,7 @@ public class Project {
         for (String input : sortedInputs) {
             Task<?> task = doCreateTask(input);
             if (task != null) {
-                newTasks.add(task);
+                addTask(task);
             }
         }
     }
@@ -355,7 +435,9 @@ public class Project {
                 PublisherSettings settings = PublisherSettings.load(is);
                 if (shouldPublish) {
                     if (PublisherSettings.PublishMode.Amazon.equals(settings.getMode())) {
-                        this.publisher = new AWSPublisher(settings);
+                        AWSPublisher publisher = new AWSPublisher(settings);
+                        publisher.setLedgerFile(new File(FilenameUtils.concat(FilenameUtils.concat(getRootDirectory(), getBuildDirectory()), "liveupdate_ledger")));
+                        this.publisher = publisher;
                     } else if (PublisherSettings.PublishMode.Defold.equals(settings.getMode())) {
                         this.publisher = new DefoldPublisher(settings);
                     } else if (PublisherSettings.PublishMode.Zip.equals(settings.getMode())) {
@@ -450,6 +532,11 @@ public class Project {
      * @throws CompileExceptionError
      */
     public List<TaskResult> build(IProgress monitor, String... commands) throws IOException, CompileExceptionError, MultipleCompileException {
+        String tracePath = option("build-trace", null);
+        if (tracePath != null) {
+            BuildTrace.start();
+        }
+        long startTime = BuildTrace.now();
         try {
             loadProjectFile();
             return doBuild(monitor, commands);
@@ -463,9 +550,222 @@ public class Project {
             throw e;
         } catch (Throwable e) {
             throw new CompileExceptionError(null, 0, e.getMessage(), e);
+        } finally {
+            if (tracePath != null) {
+                BuildTrace.add("build", "build", startTime, BuildTrace.args("commands", String.join(" ", commands)));
+                try {
+                    BuildTrace.stop(new File(tracePath));
+                } catch (IOException e) {
+                    logWarning("Unable to write build trace '%s': %s", tracePath, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuild after source files have changed, reusing the tasks from the previous
+     * build of this project instance. Only the tasks consuming a changed file, and
+     * the tasks consuming their outputs in turn, are run. Tasks consuming a changed
+     * file are created again, as their inputs and outputs may depend on its content.
+     *
+     * A full build is made instead when there is no previous build, when a source
+     * file has been added or removed, when the project file has changed or when a
+     * task created again doesn't produce the same outputs as before.
+     * @param monitor the monitor
+     * @param changedPaths root relative paths of the changed files
+     * @return list of {@link TaskResult}. Only executed nodes are part of the list.
+     * @throws IOException
+     * @throws CompileExceptionError
+     */
+    public List<TaskResult> buildChanged(IProgress monitor, Collection<String> changedPaths) throws IOException, CompileExceptionError, MultipleCompileException {
+        List<Task<?>> tasks = builtTasks != null ? getChangedTasks(changedPaths) : null;
+        if (tasks == null) {
+            return build(monitor, "build");
+        }
+        resetBuildResults(false);
+
+        try {
+            IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
+            if (state == null || !keepState) {
+                fileSystem.loadCache();
+                state = State.load(stateResource);
+            }
+            for (String path : changedPaths) {
+                fileSystem.invalidate(path);
+            }
+            for (Task<?> task : tasks) {
+                for (IResource res : task.getOutputs()) {
+                    outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+                }
+            }
+
+            IResource taskGraphResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "taskgraph"));
+            if (taskGraphResource.exists()) {
+                taskGraphResource.remove();
+            }
+            monitor.beginTask("Building...", tasks.size());
+            TaskGraph graph = new TaskGraph();
+            List<TaskResult> result = executeTasks(monitor, graph, tasks);
+            monitor.done();
+
+            // Tasks created while building replace the ones from the previous build
+            List<Task<?>> created = graph.getTasks().subList(tasks.size(), graph.size());
+            builtTasks = replaceTasks(builtTasks, created);
+            if (graph.isComplete()) {
+                PersistedTaskGraph.create(getTaskGraphKey(), builtTasks, outputs).save(taskGraphResource);
+            }
+
+            state.save(stateResource);
+            fileSystem.saveCache();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // Start over with a full build next time
+            builtTasks = null;
+            throw e;
         }
     }
 
+    /**
+     * Find the tasks affected by changed files, creating the tasks consuming them again
+     * @param changedPaths root relative paths of the changed files
+     * @return affected tasks in build order, or null if a full build is required
+     */
+    private List<Task<?>> getChangedTasks(Collection<String> changedPaths) throws CompileExceptionError {
+        // Reverse edges, from a resource to the tasks consuming it
+        Map<String, List<Task<?>>> consumers = new HashMap<String, List<Task<?>>>();
+        Map<String, Task<?>> producers = new HashMap<String, Task<?>>();
+        for (Task<?> task : builtTasks) {
+            for (IResource input : task.getInputs()) {
+                consumers.computeIfAbsent(input.getPath(), (k) -> new ArrayList<Task<?>>()).add(task);
+            }
+            for (IResource output : task.getOutputs()) {
+                producers.put(output.getPath(), task);
+            }
+        }
+
+        if (!builtInputs.equals(new HashSet<String>(inputs))) {
+            // Source files added or removed
+            return null;
+        }
+        // The texture profiles are loaded when the game project task is created
+        String textureProfilesPath = projectProperties.getStringValue("graphics", "texture_profiles");
+        Set<Task<?>> dirty = new HashSet<Task<?>>();
+        Set<Task<?>> recreated = new HashSet<Task<?>>();
+        List<Task<?>> created = new ArrayList<Task<?>>();
+        for (String path : changedPaths) {
+            if (getBuilderFromExtension(path) != null && !fileSystem.get(path).exists()) {
+                return null;
+            }
+            if (stripLeadingSlash(path).equals("game.project")) {
+                return null;
+            }
+            if (textureProfilesPath != null && stripLeadingSlash(path).equals(stripLeadingSlash(textureProfilesPath))) {
+                return null;
+            }
+            List<Task<?>> pathConsumers = consumers.get(path);
+            if (pathConsumers == null) {
+                continue;
+            }
+            for (Task<?> task : pathConsumers) {
+                dirty.add(task);
+                // The task structure may depend on the content of any of its inputs, e.g. the
+                // sub-collections of a collection, so the task is created again. A task created
+                // by another task, e.g. an embedded game object, is created again by it.
+                Task<?> owner = task;
+                while (producers.containsKey(owner.input(0).getPath())) {
+                    owner = producers.get(owner.input(0).getPath());
+                }
+                if (!recreated.add(owner)) {
+                    continue;
+                }
+                newTasks = new ArrayList<Task<?>>();
+                Task<?> task2 = doCreateTask(owner.input(0).getPath(), getBuilderClass(owner));
+                List<Task<?>> tasks = takeNewTasks();
+                if (task2 == null) {
+                    return null;
+                }
+                tasks.add(0, task2);
+                for (Task<?> t : tasks) {
+                    Task<?> previous = producers.get(t.getOutputs().isEmpty() ? null : t.output(0).getPath());
+                    if (previous == null || !previous.getOutputs().equals(t.getOutputs())) {
+                        return null;
+                    }
+                    dirty.add(previous);
+                }
+                created.addAll(tasks);
+            }
+        }
+
+        builtTasks = replaceTasks(builtTasks, created);
+
+        // Everything downstream of a dirty task is dirty as well
+        List<Task<?>> stack = new ArrayList<Task<?>>(dirty);
+        while (!stack.isEmpty()) {
+            Task<?> task = stack.remove(stack.size() - 1);
+            for (IResource output : task.getOutputs()) {
+                List<Task<?>> outputConsumers = consumers.get(output.getPath());
+                if (outputConsumers != null) {
+                    for (Task<?> consumer : outputConsumers) {
+                        if (dirty.add(consumer)) {
+                            stack.add(consumer);
+                        }
+                    }
+                }
+            }
+        }
+
+        Set<IResource> dirtyOutputs = new HashSet<IResource>();
+        for (Task<?> task : dirty) {
+            dirtyOutputs.addAll(task.getOutputs());
+        }
+        List<Task<?>> result = new ArrayList<Task<?>>();
+        for (Task<?> task : builtTasks) {
+            for (IResource output : task.getOutputs()) {
+                if (dirtyOutputs.contains(output)) {
+                    result.add(task);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Builder<?>> getBuilderClass(Task<?> task) {
+        return (Class<? extends Builder<?>>) task.getBuilder().getClass();
+    }
+
+    /**
+     * Replace tasks by the tasks producing the same outputs, new tasks are added last
+     */
+    private static List<Task<?>> replaceTasks(List<Task<?>> tasks, List<Task<?>> replacements) {
+        if (replacements.isEmpty()) {
+            return tasks;
+        }
+        Map<IResource, Task<?>> byOutput = new HashMap<IResource, Task<?>>();
+        for (Task<?> task : replacements) {
+            for (IResource output : task.getOutputs()) {
+                byOutput.put(output, task);
+            }
+        }
+        Set<Task<?>> added = new HashSet<Task<?>>();
+        List<Task<?>> result = new ArrayList<Task<?>>(tasks.size());
+        for (Task<?> task : tasks) {
+            Task<?> replacement = task.getOutputs().isEmpty() ? null : byOutput.get(task.output(0));
+            if (replacement == null) {
+                result.add(task);
+            } else if (added.add(replacement)) {
+                result.add(replacement);
+            }
+        }
+        for (Task<?> task : replacements) {
+            if (added.add(task)) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
     /**
      * Mounts all the mount point associated with the project.
      * @param resourceScanner scanner to use for finding resources in the java class path
@@ -779,12 +1079,40 @@ public class Project {
         m.done();
     }
 
+    /**
+     * Keep the build state and the file system signature cache in memory between
+     * builds instead of loading them from disk each build. Both are still saved
+     * after each build.
+     * @param keepState true to keep the state loaded
+     */
+    public void setKeepState(boolean keepState) {
+        this.keepState = keepState;
+    }
+
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws IOException, CompileExceptionError, MultipleCompileException {
-        fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
-        state = State.load(stateResource);
-        createTasks();
-        validateBuildResourceMapping();
+        if (state == null || !keepState) {
+            long startTime = BuildTrace.now();
+            fileSystem.loadCache();
+            BuildTrace.add("loadCache", "state", startTime, null);
+            startTime = BuildTrace.now();
+            state = State.load(stateResource);
+            BuildTrace.add("State.load", "state", startTime, null);
+        }
+        // Set again by a build that runs the tasks, see buildChanged()
+        builtTasks = null;
+        resetBuildResults(true);
+        IResource taskGraphResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "taskgraph"));
+        PersistedTaskGraph upToDateGraph = loadUpToDateTaskGraph(taskGraphResource, commands);
+        if (upToDateGraph != null) {
+            // Nothing to build, skip creating the tasks altogether
+            newTasks = new ArrayList<Task<?>>();
+        } else {
+            long createStartTime = BuildTrace.now();
+            createTasks();
+            BuildTrace.add("createTasks", "build", createStartTime, null);
+            validateBuildResourceMapping();
+        }
         List<TaskResult> result = new ArrayList<TaskResult>();
 
         BundleHelper.throwIfCanceled(monitor);
@@ -816,8 +1144,14 @@ public class Project {
 
                     IProgress m = monitor.subProgress(99);
                     BundleHelper.throwIfCanceled(monitor);
-                    m.beginTask("Building...", newTasks.size());
-                    result = runTasks(m);
+                    if (upToDateGraph != null) {
+                        m.beginTask("Building...", 0);
+                        outputs = new HashMap<>();
+                        upToDateGraph.restoreOutputs(fileSystem, outputs);
+                    } else {
+                        m.beginTask("Building...", newTasks.size());
+                        result = runTasks(m, taskGraphResource);
+                    }
                     m.done();
                     if (anyFailing(result)) {
                         break loop;
@@ -881,6 +1215,9 @@ public class Project {
                 case "clean": {
                     IProgress m = monitor.subProgress(1);
                     m.beginTask("Cleaning...", newTasks.size());
+                    if (taskGraphResource.exists()) {
+                        taskGraphResource.remove();
+                    }
                     for (Task<?> t : newTasks) {
                         List<IResource> outputs = t.getOutputs();
                         for (IResource r : outputs) {
@@ -897,6 +1234,7 @@ public class Project {
                     m.beginTask("Cleaning...", newTasks.size());
                     BundleHelper.throwIfCanceled(monitor);
                     FileUtils.deleteDirectory(new File(FilenameUtils.concat(rootDirectory, buildDirectory)));
+                    state = new State();
                     m.worked(1);
                     m.done();
                     break;
@@ -910,163 +1248,444 @@ public class Project {
         }
 
         monitor.done();
+        long startTime = BuildTrace.now();
         state.save(stateResource);
+        BuildTrace.add("State.save", "state", startTime, null);
+        startTime = BuildTrace.now();
         fileSystem.saveCache();
+        BuildTrace.add("saveCache", "state", startTime, null);
         return result;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+    /**
+     * Outcome of running a single task on a worker thread
+     */
+    private static class TaskOutcome {
+        TaskGraph.Node node;
+        byte[] signature;
+        TaskResult result;
+        boolean abort;
+        boolean fetched;
+    }
+
+    private int getJobCount() {
+        int jobs;
+        try {
+            jobs = Integer.parseInt(option("jobs", "1"));
+        } catch (NumberFormatException e) {
+            logWarning("Invalid number of jobs '%s', building with a single job", option("jobs", "1"));
+            jobs = 1;
+        }
+        if (jobs <= 0) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+        return jobs;
+    }
 
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
+    private IArtifactCache createArtifactCache() {
+        String location = option("artifact-cache", null);
+        if (location == null || location.isEmpty()) {
+            return null;
+        }
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return new HttpArtifactCache(location);
+        }
+        return new LocalArtifactCache(new File(location));
+    }
 
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+    private static boolean isCacheable(Task<?> task) {
+        BuilderParams params = task.getBuilder().getClass().getAnnotation(BuilderParams.class);
+        return params == null || params.cacheOutputs();
+    }
 
-        List<TaskResult> result = new ArrayList<>();
+    private Map<String, String> getArtifactOptions() {
+        Map<String, String> artifactOptions = new TreeMap<String, String>(options);
+        artifactOptions.keySet().removeAll(NON_ARTIFACT_OPTIONS);
+        return artifactOptions;
+    }
 
-        List<Task<?>> tasks = new ArrayList<>(newTasks);
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : newTasks) {
-            allOutputs.addAll(task.getOutputs());
+    private String getArtifactKey(Task<?> task, byte[] taskSignature, IResource output) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
-        newTasks.clear();
+        // The task signature doesn't cover the builder, the output path or the options, e.g. the platform,
+        // and outputs differ between versions of bob
+        digest.update(taskSignature);
+        digest.update(task.getBuilder().getClass().getName().getBytes());
+        digest.update(EngineVersion.sha1.getBytes());
+        digest.update(output.getPath().getBytes());
+        digest.update(getArtifactOptions().toString().getBytes());
+        return Hex.encodeHexString(digest.digest());
+    }
 
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
-        }
-
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < tasks.size()) {
-            for (Task<?> task : tasks) {
-                BundleHelper.throwIfCanceled(monitor);
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
-                    continue;
+    /**
+     * Fetch all outputs of a task from the artifact cache. Each entry is the
+     * output flags, see {@link OutputFlags}, followed by the output content.
+     * @return true if all outputs were found in the cache and written
+     */
+    private boolean fetchArtifacts(Task<?> task, byte[] taskSignature) {
+        List<IResource> taskOutputs = task.getOutputs();
+        List<byte[]> artifacts = new ArrayList<byte[]>(taskOutputs.size());
+        try {
+            for (IResource r : taskOutputs) {
+                byte[] artifact = artifactCache.get(getArtifactKey(task, taskSignature, r));
+                if (artifact == null || artifact.length == 0) {
+                    return false;
                 }
+                artifacts.add(artifact);
+            }
+            for (int i = 0; i < taskOutputs.size(); ++i) {
+                IResource r = taskOutputs.get(i);
+                byte[] artifact = artifacts.get(i);
+                r.setContent(Arrays.copyOfRange(artifact, 1, artifact.length));
+                for (OutputFlags flag : OutputFlags.values()) {
+                    if ((artifact[0] & (1 << flag.ordinal())) != 0) {
+                        addOutputFlags(r.getAbsPath(), flag);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logWarning("Unable to fetch outputs of %s from the artifact cache: %s", task, e.getMessage());
+            return false;
+        }
+        return true;
+    }
 
-                monitor.worked(1);
+    private void storeArtifacts(Task<?> task, byte[] taskSignature) {
+        try {
+            for (IResource r : task.getOutputs()) {
+                byte[] content = r.getContent();
+                byte[] artifact = new byte[content.length + 1];
+                EnumSet<OutputFlags> flags = getOutputFlags(r.getAbsPath());
+                for (OutputFlags flag : flags) {
+                    artifact[0] |= 1 << flag.ordinal();
+                }
+                System.arraycopy(content, 0, artifact, 1, content.length);
+                artifactCache.put(getArtifactKey(task, taskSignature, r), artifact);
+            }
+        } catch (IOException e) {
+            logWarning("Unable to store outputs of %s in the artifact cache: %s", task, e.getMessage());
+        }
+    }
 
-                byte[] taskSignature = task.calculateSignature(this);
+    // Tasks running at the same time access the output flags, see addOutputFlags()
+    private synchronized void addOutputs(List<Task<?>> tasks) {
+        for (Task<?> task : tasks) {
+            for (IResource res : task.getOutputs()) {
+                outputs.putIfAbsent(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+            }
+        }
+    }
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : task.getOutputs()) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
-                    }
+    private synchronized EnumSet<OutputFlags> getOutputFlags(String resourcePath) {
+        EnumSet<OutputFlags> flags = outputs.get(resourcePath);
+        return flags != null ? EnumSet.copyOf(flags) : EnumSet.noneOf(OutputFlags.class);
+    }
+
+    private List<Task<?>> takeNewTasks() {
+        synchronized (newTasksLock) {
+            List<Task<?>> tasks = new ArrayList<Task<?>>(newTasks);
+            newTasks.clear();
+            return tasks;
+        }
+    }
+
+    private TaskOutcome runTask(TaskGraph.Node node) throws IOException {
+        if (!BuildTrace.isEnabled()) {
+            return buildTask(node);
+        }
+        long startTime = BuildTrace.now();
+        long bytesRead = BuildTrace.getBytesRead();
+        long bytesWritten = BuildTrace.getBytesWritten();
+        TaskOutcome outcome = null;
+        try {
+            outcome = buildTask(node);
+            return outcome;
+        } finally {
+            Task<?> task = node.task;
+            String name = task.getName() != null ? task.getName() : task.getBuilder().getClass().getSimpleName();
+            String status;
+            if (outcome == null || (outcome.result != null && !outcome.result.isOk())) {
+                status = "failed";
+            } else if (outcome.fetched) {
+                status = "fetched";
+            } else if (outcome.result == null) {
+                status = "up to date";
+            } else {
+                status = "built";
+            }
+            BuildTrace.add(name, "task", startTime,
+                    BuildTrace.args("input", task.getInputs().isEmpty() ? "" : task.input(0).getPath(),
+                                    "status", status,
+                                    "bytes_read", BuildTrace.getBytesRead() - bytesRead,
+                                    "bytes_written", BuildTrace.getBytesWritten() - bytesWritten));
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskOutcome buildTask(TaskGraph.Node node) throws IOException {
+        Task<?> task = node.task;
+        TaskOutcome outcome = new TaskOutcome();
+        outcome.node = node;
+
+        long signatureStartTime = BuildTrace.now();
+        byte[] taskSignature = task.calculateSignature(this);
+        outcome.signature = taskSignature;
+        BuildTrace.add("calculateSignature", "signature", signatureStartTime, null);
+
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
+        }
+
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        boolean allSigsEquals = true;
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
+
+        if (allOutputExists && allSigsEquals) {
+            // Task is successfully completed in a previous build
+            return outcome;
+        }
+
+        if (artifactCache != null && isCacheable(task) && fetchArtifacts(task, taskSignature)) {
+            // Task is successfully completed by another build
+            outcome.fetched = true;
+            return outcome;
+        }
+
+        TaskResult taskResult = new TaskResult(task);
+        outcome.result = taskResult;
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        resetTaskResults(task);
+        try {
+            builder.build(task);
+            for (IResource r : task.getOutputs()) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
                 }
+            }
+        } catch (CompileExceptionError e) {
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+            outcome.abort = true;
+
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+        } else if (artifactCache != null && isCacheable(task)) {
+            storeArtifacts(task, taskSignature);
+        }
+        return outcome;
+    }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                List<byte[]> outputSigs = new ArrayList<byte[]>();
-                for (IResource r : task.getOutputs()) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    outputSigs.add(s);
+    /**
+     * Key of everything, besides the content of the task inputs, that affects
+     * which tasks are created and how they are built.
+     */
+    private byte[] getTaskGraphKey() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(EngineVersion.sha1.getBytes());
+        digest.update(new TreeMap<String, String>(options).toString().getBytes());
+        List<String> sortedInputs = new ArrayList<String>(inputs);
+        Collections.sort(sortedInputs);
+        for (String input : sortedInputs) {
+            digest.update(input.getBytes());
+            digest.update((byte) 0);
+        }
+        for (Map.Entry<String, Class<? extends Builder<?>>> entry : new TreeMap<String, Class<? extends Builder<?>>>(extToBuilder).entrySet()) {
+            digest.update(entry.getKey().getBytes());
+            digest.update(entry.getValue().getName().getBytes());
+        }
+        digest.update(libUrls.toString().getBytes());
+        return digest.digest();
+    }
+
+    /**
+     * Load the task graph persisted by the last build, if building it again would be a no-op
+     * @return graph or null if tasks need to be created and built
+     */
+    private PersistedTaskGraph loadUpToDateTaskGraph(IResource taskGraphResource, String... commands) throws IOException {
+        List<String> commandList = Arrays.asList(commands);
+        if (!commandList.contains("build") || commandList.contains("clean") || commandList.contains("distclean")) {
+            return null;
+        }
+        long startTime = BuildTrace.now();
+        PersistedTaskGraph graph = PersistedTaskGraph.load(taskGraphResource);
+        if (graph == null) {
+            return null;
+        }
+        Map<String, Class<? extends Builder<?>>> builderClasses = new HashMap<String, Class<? extends Builder<?>>>();
+        for (Class<? extends Builder<?>> klass : extToBuilder.values()) {
+            builderClasses.put(klass.getName(), klass);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(getJobCount());
+        try {
+            boolean upToDate = graph.isUpToDate(getTaskGraphKey(), fileSystem, state, (className) -> {
+                Class<? extends Builder<?>> klass = builderClasses.get(className);
+                if (klass == null) {
+                    return null;
                 }
-                boolean allSigsEquals = true;
-                for (byte[] sig : outputSigs) {
-                    if (!Arrays.equals(sig, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
-                    }
+                try {
+                    Builder<?> builder = klass.newInstance();
+                    builder.setProject(this);
+                    return builder;
+                } catch (ReflectiveOperationException e) {
+                    return null;
                 }
+            }, executor);
+            BuildTrace.add("checkTaskGraph", "build", startTime, BuildTrace.args("tasks", graph.size(), "up_to_date", upToDate));
+            return upToDate ? graph : null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+    private List<TaskResult> runTasks(IProgress monitor, IResource taskGraphResource) throws IOException {
+        // The persisted graph is only valid for a build where all tasks completed
+        if (taskGraphResource.exists()) {
+            taskGraphResource.remove();
+        }
+
+        List<Task<?>> tasks = takeNewTasks();
+
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>();
+        for (Task<?> task : tasks) {
+            for (IResource res : task.getOutputs()) {
+                outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+            }
+        }
+
+        TaskGraph graph = new TaskGraph();
+        List<TaskResult> result = executeTasks(monitor, graph, tasks);
+        builtTasks = graph.getTasks();
+        builtInputs = new HashSet<String>(inputs);
+
+        if (graph.isComplete()) {
+            PersistedTaskGraph.create(getTaskGraphKey(), builtTasks, outputs).save(taskGraphResource);
+        }
+        return result;
+    }
+
+    private List<TaskResult> executeTasks(IProgress monitor, TaskGraph graph, List<Task<?>> tasks) throws IOException {
+        List<TaskResult> result = new ArrayList<>();
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(task.getOutputs());
+        // The graph is built once up front. Tasks created while building, see buildResource(),
+        // are added to the graph as soon as the task that created them has completed.
+        // A task is queued once all tasks producing its inputs have completed and is
+        // never run if any of them failed.
+        artifactCache = createArtifactCache();
+        ExecutorService executor = Executors.newFixedThreadPool(getJobCount());
+        CompletionService<TaskOutcome> completionService = new ExecutorCompletionService<TaskOutcome>(executor);
+        int running = 0;
+        boolean abort = false;
+        try {
+            // Hash all source inputs up front, in parallel, rather than one at a time as tasks are scheduled
+            Set<IResource> sources = new HashSet<>();
+            for (Task<?> task : tasks) {
+                for (IResource input : task.getInputs()) {
+                    if (!outputs.containsKey(input.getAbsPath())) {
+                        sources.add(input);
                     }
-                    continue;
                 }
+            }
+            fileSystem.prehash(sources, executor);
 
-                completedTasks.add(task);
+            for (final TaskGraph.Node node : graph.addAll(tasks)) {
+                completionService.submit(() -> runTask(node));
+                ++running;
+            }
 
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
+            while (running > 0) {
+                BundleHelper.throwIfCanceled(monitor);
+                TaskOutcome outcome;
                 try {
-                    builder.build(task);
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), taskSignature);
+                    outcome = completionService.take().get();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while building", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
                     }
+                    throw new RuntimeException(cause);
+                }
+                --running;
+                monitor.worked(1);
 
+                Task<?> task = outcome.node.task;
+                List<TaskGraph.Node> ready;
+                if (outcome.result == null || outcome.result.isOk()) {
                     for (IResource r : task.getOutputs()) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
-                        }
+                        state.putSignature(r.getAbsPath(), outcome.signature);
                     }
-                    completedOutputs.addAll(task.getOutputs());
-
-                } catch (CompileExceptionError e) {
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
-
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
-                }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
+                    ready = graph.complete(outcome.node);
+                } else {
                     // Clear sigs for all outputs when a task fails
                     for (IResource r : task.getOutputs()) {
                         state.putSignature(r.getAbsPath(), new byte[0]);
                     }
-                    if (abort) {
-                        break run;
+                    graph.fail(outcome.node);
+                    ready = new ArrayList<>();
+                }
+                if (outcome.result != null) {
+                    result.add(outcome.result);
+                }
+                abort |= outcome.abort;
+
+                List<Task<?>> createdTasks = takeNewTasks();
+                if (!createdTasks.isEmpty()) {
+                    addOutputs(createdTasks);
+                    ready.addAll(graph.addAll(createdTasks));
+                }
+
+                // Unexpected errors stop the build, only wait for the tasks already running
+                if (!abort) {
+                    for (final TaskGraph.Node node : ready) {
+                        completionService.submit(() -> runTask(node));
+                        ++running;
                     }
                 }
             }
-            if (taskFailed) {
-                break;
-            }
-            // set of *all* possible output files
-            for (Task<?> task : newTasks) {
-                allOutputs.addAll(task.getOutputs());
-            }
-            tasks.addAll(newTasks);
-            newTasks.clear();
+        } finally {
+            executor.shutdownNow();
         }
         return result;
     }
@@ -1088,7 +1707,7 @@ run:
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
-    public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
+    public synchronized boolean addOutputFlags(String resourcePath, OutputFlags flag) {
         EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
         if(currentFlags == null) {
             return false;
@@ -1389,12 +2008,40 @@ run:
         this.textureProfiles = textureProfiles;
     }
 
-    public void excludeCollectionProxy(String path) {
-        this.excludedCollectionProxies.add(path);
+    // Results of the previous build, kept when the project is reused, e.g. by the daemon
+    private synchronized void resetBuildResults(boolean createTasks) {
+        textureTimings.clear();
+        // Set again when all tasks are created, e.g. the texture profiles by the game project task.
+        // Otherwise only the tasks that are run report their results again, see resetTaskResults()
+        if (createTasks) {
+            excludedCollectionProxies.clear();
+            textureProfiles = null;
+        }
+    }
+
+    // A collection proxy is excluded by the path of its output, relative to the build directory
+    private synchronized void resetTaskResults(Task<?> task) {
+        for (IResource output : task.getOutputs()) {
+            String path = output.getPath();
+            if (path.startsWith(buildDirectory)) {
+                excludedCollectionProxies.remove(path.substring(buildDirectory.length()));
+            }
+        }
+    }
+
+    /**
+     * Exclude a collection proxy from the bundle. Called by the collection proxy
+     * builder, i.e. from the threads running tasks.
+     * @param path path of the collection proxy
+     */
+    public synchronized void excludeCollectionProxy(String path) {
+        if (!this.excludedCollectionProxies.contains(path)) {
+            this.excludedCollectionProxies.add(path);
+        }
     }
 
-    public final List<String> getExcludedCollectionProxies() {
-        return this.excludedCollectionProxies;
+    public final synchronized List<String> getExcludedCollectionProxies() {
+        return new ArrayList<String>(this.excludedCollectionProxies);
     }
 
 }
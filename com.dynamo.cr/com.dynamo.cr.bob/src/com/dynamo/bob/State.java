@@ -12,34 +12,86 @@
 
 package com.dynamo.bob;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.apache.commons.io.FilenameUtils;
+
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.IResource;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ *
+ * The state is stored as a compacted table of fixed-width records sorted by path,
+ * followed by the path strings. The table is read as is when loaded and looked
+ * up with binary search, so loading doesn't parse the records. It isn't memory
+ * mapped, as a mapped file can't be replaced or removed on Windows.
+ * Signatures changed during a build are appended to a journal next to the state
+ * file. The journal is merged back into the table once it has grown large enough.
+ *
  * @author Christian Murray
  *
  */
-public class State implements Serializable {
+public class State {
 
-    private static final long serialVersionUID = -275410118302470803L;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+    private static final int MAGIC = 0x424f4253; // "BOBS"
+    private static final int JOURNAL_MAGIC = 0x424f424a; // "BOBJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12; // magic, version, record count
+    private static final int JOURNAL_HEADER_SIZE = 8; // magic, version
+    private static final int SIGNATURE_SIZE = 20;
+    private static final int RECORD_SIZE = 32; // path offset, path length, signature length, padding, signature
+    private static final int COMPACT_MIN_RECORDS = 1024;
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final Comparator<byte[]> UNSIGNED_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; ++i) {
+                int d = (a[i] & 0xff) - (b[i] & 0xff);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    // Compacted signature table, null if no valid table was loaded
+    private ByteBuffer table = null;
+    private int tableCount = 0;
+    // Signatures newer than the table, loaded from the journal or put during the build
+    private Map<String, byte[]> changed = new HashMap<String, byte[]>();
+    // Signatures not yet written to the journal
+    private Map<String, byte[]> dirty = new HashMap<String, byte[]>();
+    private int journalCount = 0;
 
     /**
      * Get signature for path
      * @param path path to get sha1 for
      * @return signature or null of no mapping exists
      */
-    public byte[] getSignature(String path) {
-        return signatures.get(path);
+    public synchronized byte[] getSignature(String path) {
+        byte[] signature = changed.get(path);
+        if (signature != null) {
+            return signature;
+        }
+        return findInTable(path.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -47,8 +99,138 @@ public class State implements Serializable {
      * @param path path to set sha1 for
      * @param signature signature to set
      */
-    public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+    public synchronized void putSignature(String path, byte[] signature) {
+        if (signature.length != 0 && signature.length != SIGNATURE_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid signature length %d for '%s'", signature.length, path));
+        }
+        if (Arrays.equals(getSignature(path), signature)) {
+            return;
+        }
+        changed.put(path, signature);
+        dirty.put(path, signature);
+    }
+
+    private int compareTableKey(int index, byte[] key) {
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        int offset = table.getInt(record);
+        int length = table.getInt(record + 4);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; ++i) {
+            int d = (table.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return length - key.length;
+    }
+
+    private byte[] readTableKey(int index) {
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        int offset = table.getInt(record);
+        byte[] key = new byte[table.getInt(record + 4)];
+        for (int i = 0; i < key.length; ++i) {
+            key[i] = table.get(offset + i);
+        }
+        return key;
+    }
+
+    private byte[] readTableSignature(int index) {
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        byte[] signature = new byte[table.get(record + 8)];
+        for (int i = 0; i < signature.length; ++i) {
+            signature[i] = table.get(record + 12 + i);
+        }
+        return signature;
+    }
+
+    private byte[] findInTable(byte[] key) {
+        int low = 0;
+        int high = tableCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareTableKey(mid, key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return readTableSignature(mid);
+            }
+        }
+        return null;
+    }
+
+    private static File getFile(IResource resource) {
+        if (resource instanceof DefaultResource) {
+            return new File(resource.getAbsPath());
+        }
+        return null;
+    }
+
+    private static IResource getJournalResource(IResource resource) {
+        return resource.getResource(FilenameUtils.getName(resource.getPath()) + JOURNAL_SUFFIX);
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("State too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated state");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    // A journal left next to a new table would be replayed over it, restoring stale signatures
+    private static void removeJournal(File journalFile) throws IOException {
+        if (journalFile.exists() && !journalFile.delete()) {
+            // An empty journal is ignored when loading and started over when appending
+            Files.write(journalFile.toPath(), new byte[0]);
+        }
+    }
+
+    private void loadTable(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown state format");
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || (long) HEADER_SIZE + (long) count * RECORD_SIZE > buffer.limit()) {
+            throw new IOException("Truncated state");
+        }
+        table = buffer;
+        tableCount = count;
+    }
+
+    private void loadJournal(ByteBuffer buffer) {
+        if (buffer.limit() < JOURNAL_HEADER_SIZE || buffer.getInt(0) != JOURNAL_MAGIC || buffer.getInt(4) != VERSION) {
+            return;
+        }
+        buffer.position(JOURNAL_HEADER_SIZE);
+        // Stop at the first incomplete record, e.g. if bob was killed while appending
+        while (buffer.remaining() >= 4) {
+            int pathLength = buffer.getInt();
+            if (pathLength < 0 || buffer.remaining() < pathLength + 1) {
+                break;
+            }
+            byte[] path = new byte[pathLength];
+            buffer.get(path);
+            int signatureLength = buffer.get();
+            if ((signatureLength != 0 && signatureLength != SIGNATURE_SIZE) || buffer.remaining() < signatureLength) {
+                break;
+            }
+            byte[] signature = new byte[signatureLength];
+            buffer.get(signature);
+            changed.put(new String(path, StandardCharsets.UTF_8), signature);
+            ++journalCount;
+        }
     }
 
     /**
@@ -58,33 +240,167 @@ public class State implements Serializable {
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+        State state = new State();
+        IResource journalResource = getJournalResource(resource);
+        File file = getFile(resource);
+        try {
+            if (file != null) {
+                if (!file.isFile()) {
+                    return state;
+                }
+                state.loadTable(read(file));
+                File journalFile = getFile(journalResource);
+                if (journalFile.isFile()) {
+                    state.loadJournal(ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath())));
+                }
+            } else {
+                byte[] content = resource.getContent();
+                if (content == null) {
+                    return state;
+                }
+                state.loadTable(ByteBuffer.wrap(content));
+                byte[] journal = journalResource.getContent();
+                if (journal != null) {
+                    state.loadJournal(ByteBuffer.wrap(journal));
+                }
             }
+            return state;
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+            return new State();
+        }
+    }
+
+    private static ByteBuffer writeJournalRecords(Map<String, byte[]> records, boolean header) {
+        int size = header ? JOURNAL_HEADER_SIZE : 0;
+        Map<byte[], byte[]> encoded = new HashMap<byte[], byte[]>(records.size());
+        for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+            byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            encoded.put(path, entry.getValue());
+            size += 4 + path.length + 1 + entry.getValue().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        if (header) {
+            buffer.putInt(JOURNAL_MAGIC);
+            buffer.putInt(VERSION);
+        }
+        for (Map.Entry<byte[], byte[]> entry : encoded.entrySet()) {
+            buffer.putInt(entry.getKey().length);
+            buffer.put(entry.getKey());
+            buffer.put((byte) entry.getValue().length);
+            buffer.put(entry.getValue());
         }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer writeTable() {
+        TreeMap<byte[], byte[]> entries = new TreeMap<byte[], byte[]>(UNSIGNED_COMPARATOR);
+        for (int i = 0; i < tableCount; ++i) {
+            entries.put(readTableKey(i), readTableSignature(i));
+        }
+        for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+            entries.put(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
+        }
+
+        int size = HEADER_SIZE + entries.size() * RECORD_SIZE;
+        for (byte[] key : entries.keySet()) {
+            size += key.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(entries.size());
+        int stringOffset = HEADER_SIZE + entries.size() * RECORD_SIZE;
+        for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+            byte[] signature = entry.getValue();
+            buffer.putInt(stringOffset);
+            buffer.putInt(entry.getKey().length);
+            buffer.put((byte) signature.length);
+            buffer.put(new byte[3]);
+            buffer.put(signature);
+            buffer.put(new byte[SIGNATURE_SIZE - signature.length]);
+            stringOffset += entry.getKey().length;
+        }
+        for (byte[] key : entries.keySet()) {
+            buffer.put(key);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
     }
 
     /**
-     * Save state
+     * Save state. Only the signatures changed since the last save are written,
+     * unless the journal has grown large enough to be merged into the table.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+    public synchronized void save(IResource resource) throws IOException {
+        IResource journalResource = getJournalResource(resource);
+        File file = getFile(resource);
+        boolean compact = table == null
+                || (journalCount + dirty.size() > COMPACT_MIN_RECORDS && journalCount + dirty.size() > tableCount / 4);
+
+        if (compact) {
+            ByteBuffer buffer = writeTable();
+            if (file != null) {
+                file.getParentFile().mkdirs();
+                File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+                try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer out = buffer.duplicate();
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                }
+                try {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    // The state might be open by another process, e.g. a virus scanner on Windows
+                    Files.copy(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    tmp.delete();
+                }
+                removeJournal(getFile(journalResource));
+            } else {
+                resource.setContent(toArray(buffer));
+                if (journalResource.exists()) {
+                    journalResource.remove();
+                }
+            }
+            buffer.rewind();
+            table = buffer;
+            tableCount = buffer.getInt(8);
+            changed.clear();
+            journalCount = 0;
+        } else if (!dirty.isEmpty()) {
+            if (file != null) {
+                File journalFile = getFile(journalResource);
+                boolean header = !journalFile.isFile() || journalFile.length() < JOURNAL_HEADER_SIZE;
+                ByteBuffer buffer = writeJournalRecords(dirty, header);
+                try (FileOutputStream os = new FileOutputStream(journalFile, !header)) {
+                    os.getChannel().write(buffer);
+                }
+            } else {
+                byte[] journal = journalResource.getContent();
+                boolean header = journal == null;
+                byte[] records = toArray(writeJournalRecords(dirty, header));
+                if (journal == null) {
+                    journalResource.setContent(records);
+                } else {
+                    byte[] content = Arrays.copyOf(journal, journal.length + records.length);
+                    System.arraycopy(records, 0, content, journal.length, records.length);
+                    journalResource.setContent(content);
+                }
+            }
+            journalCount += dirty.size();
+        }
+        dirty.clear();
     }
 
 }
@@ -90,6 +90,10 @@ public class Task<T> {
         return builder;
     }
 
+    public String getName() {
+        return name;
+    }
+
     public static <T> TaskBuilder<T> newBuilder(Builder<T> builder) {
         return new TaskBuilder<T>(builder);
     }
@@ -119,7 +123,28 @@ public class Task<T> {
         return outputs.get(i);
     }
 
+    public List<IResource> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Get signature from the last call to {@link #calculateSignature(Project)}
+     * @return signature or null if not calculated
+     */
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    String getOptionsString() {
+        return options.toString();
+    }
+
     public byte[] calculateSignature(Project project) throws IOException {
+        signature = calculateSignature(inputs, dependencies, builder, options.toString());
+        return signature;
+    }
+
+    static byte[] calculateSignature(List<IResource> inputs, List<IResource> dependencies, Builder<?> builder, String options) throws IOException {
         // TODO: Checksum of builder-class byte-code. Seems to be rather difficult though..
         MessageDigest digest;
         try {
@@ -137,10 +162,9 @@ public class Task<T> {
         }
 
         builder.signature(digest);
-        digest.update(options.toString().getBytes());
+        digest.update(options.getBytes());
 
-        signature = digest.digest();
-        return signature;
+        return digest.digest();
     }
 
     public void setProductOf(Task<?> task) {
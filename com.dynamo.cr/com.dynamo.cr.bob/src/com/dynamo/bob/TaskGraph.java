@@ -0,0 +1,194 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Dependency graph of build tasks. An edge is added from the task producing
+ * an output to every task consuming that output as input. Tasks can be added
+ * while the graph is being executed, e.g. tasks created through
+ * {@link Project#buildResource(IResource)}.
+ */
+class TaskGraph {
+
+    enum State {
+        WAITING,
+        QUEUED,
+        DONE,
+        FAILED
+    }
+
+    static class Node {
+        final Task<?> task;
+        final int index;
+        State state = State.WAITING;
+        int pendingDependencies = 0;
+        boolean upstreamFailed = false;
+        final List<Node> dependants = new ArrayList<Node>();
+
+        Node(Task<?> task, int index) {
+            this.task = task;
+            this.index = index;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Map<IResource, Node> producers = new HashMap<IResource, Node>();
+    private final Map<IResource, List<Node>> waitingConsumers = new HashMap<IResource, List<Node>>();
+
+    /**
+     * Add tasks to the graph. Edges are resolved both to already added
+     * producers and to already added, not yet started, consumers.
+     * @param tasks tasks to add
+     * @return the nodes that became ready to run, in insertion order
+     */
+    List<Node> addAll(Collection<Task<?>> tasks) {
+        List<Node> added = new ArrayList<Node>(tasks.size());
+        for (Task<?> task : tasks) {
+            Node node = new Node(task, nodes.size());
+            nodes.add(node);
+            added.add(node);
+
+            for (IResource output : task.getOutputs()) {
+                producers.put(output, node);
+                List<Node> consumers = waitingConsumers.remove(output);
+                if (consumers != null) {
+                    for (Node consumer : consumers) {
+                        if (consumer != node && consumer.state == State.WAITING) {
+                            addEdge(node, consumer);
+                        }
+                    }
+                }
+            }
+
+            for (IResource input : task.getInputs()) {
+                Node producer = producers.get(input);
+                if (producer == null) {
+                    List<Node> consumers = waitingConsumers.get(input);
+                    if (consumers == null) {
+                        consumers = new ArrayList<Node>();
+                        waitingConsumers.put(input, consumers);
+                    }
+                    consumers.add(node);
+                } else if (producer != node) {
+                    addEdge(producer, node);
+                }
+            }
+        }
+
+        List<Node> ready = new ArrayList<Node>();
+        for (Node node : added) {
+            if (node.state == State.WAITING && node.pendingDependencies == 0) {
+                // Added after a task producing one of its inputs failed
+                if (node.upstreamFailed) {
+                    fail(node);
+                } else {
+                    node.state = State.QUEUED;
+                    ready.add(node);
+                }
+            }
+        }
+        return ready;
+    }
+
+    private void addEdge(Node producer, Node consumer) {
+        switch (producer.state) {
+        case DONE:
+            break;
+        case FAILED:
+            consumer.upstreamFailed = true;
+            break;
+        default:
+            producer.dependants.add(consumer);
+            ++consumer.pendingDependencies;
+            break;
+        }
+    }
+
+    /**
+     * Mark a node as successfully completed, either built or up to date.
+     * @param node completed node
+     * @return dependants that became ready to run, in insertion order
+     */
+    List<Node> complete(Node node) {
+        node.state = State.DONE;
+        List<Node> ready = new ArrayList<Node>();
+        for (Node dependant : node.dependants) {
+            --dependant.pendingDependencies;
+            if (dependant.pendingDependencies == 0 && dependant.state == State.WAITING) {
+                if (dependant.upstreamFailed) {
+                    fail(dependant);
+                } else {
+                    dependant.state = State.QUEUED;
+                    ready.add(dependant);
+                }
+            }
+        }
+        ready.sort((a, b) -> a.index - b.index);
+        return ready;
+    }
+
+    /**
+     * Mark a node as failed. The failure is propagated to all transitive
+     * dependants, which will never be run.
+     * @param node failed node
+     */
+    void fail(Node node) {
+        List<Node> stack = new ArrayList<Node>();
+        node.state = State.FAILED;
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            Node n = stack.remove(stack.size() - 1);
+            for (Node dependant : n.dependants) {
+                if (dependant.state == State.WAITING) {
+                    dependant.state = State.FAILED;
+                    stack.add(dependant);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return true if all tasks in the graph have completed successfully
+     */
+    boolean isComplete() {
+        for (Node node : nodes) {
+            if (node.state != State.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return all tasks in the graph, in insertion order
+     */
+    List<Task<?>> getTasks() {
+        List<Task<?>> tasks = new ArrayList<Task<?>>(nodes.size());
+        for (Node node : nodes) {
+            tasks.add(node.task);
+        }
+        return tasks;
+    }
+}
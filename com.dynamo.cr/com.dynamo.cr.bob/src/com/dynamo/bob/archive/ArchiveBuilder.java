@@ -17,13 +17,30 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -36,7 +53,6 @@ import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
 import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
 
 public class ArchiveBuilder {
 
@@ -45,6 +61,15 @@ public class ArchiveBuilder {
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
 
+    // Index header flags, stored in the otherwise unused pad field of the header
+    public static final int INDEX_FLAG_ALIGNED = 1 << 0;
+    // A perfect hash of the entry hashes follows the entries, see PerfectHash
+    public static final int INDEX_FLAG_PERFECT_HASH = 1 << 1;
+    // Bits 8-15 of the flags hold log2 of the alignment of uncompressed entries
+    public static final int INDEX_FLAG_ALIGNMENT_SHIFT = 8;
+    public static final int DEFAULT_DATA_ALIGNMENT = 4;
+    public static final int PAGE_SIZE = 4096;
+
     private static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
 
     private static final List<String> ENCRYPTED_EXTS = Arrays.asList("luac", "scriptc", "gui_scriptc", "render_scriptc");
@@ -52,13 +77,52 @@ public class ArchiveBuilder {
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
     private String root;
     private ManifestBuilder manifestBuilder = null;
-    private LZ4Compressor lz4Compressor;
+    private CompressionPolicy compressionPolicy = new CompressionPolicy(false);
+    private File compressionStatsFile = null;
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
+    private int threadCount;
+    private File cacheFile = null;
+    private File previousArchiveIndex = null;
+    private File previousArchiveData = null;
+    // Cache of the previous archive, only read while writing
+    private ArchiveCache previousCache = null;
+    // Absolute paths of entries in the order their data is written, see setLoadOrder()
+    private List<String> dataOrder = null;
+    private int dataAlignment = DEFAULT_DATA_ALIGNMENT;
+    private boolean perfectHash = false;
+
+    // Buffers reused between entries while writing, grown to fit the largest entry.
+    // A slot is owned by one entry from the time it is loaded until it has been written.
+    private static class BufferSlot {
+        ByteBuffer readBuffer = ByteBuffer.allocate(0);
+        ByteBuffer compressBuffer = ByteBuffer.allocate(0);
+    }
+
+    // Entry loaded, compressed, encrypted and hashed, ready to be written
+    private static class ProcessedEntry {
+        BufferSlot slot;
+        // null if the entry is copied from the previous archive
+        ByteBuffer data;
+        byte archiveEntryFlags;
+        byte[] hashDigest;
+        String hexDigest;
+        String cacheKey;
+        ArchiveCache.Entry cached;
+    }
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder) {
+        this(root, manifestBuilder, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param root root directory of the entries
+     * @param manifestBuilder manifest to add the entries to
+     * @param threadCount number of threads used to load, compress, encrypt and hash entries
+     */
+    public ArchiveBuilder(String root, ManifestBuilder manifestBuilder, int threadCount) {
         this.root = new File(root).getAbsolutePath();
         this.manifestBuilder = manifestBuilder;
-        this.lz4Compressor = LZ4Factory.fastestInstance().highCompressor();
+        this.threadCount = Math.max(1, threadCount);
     }
     
     private void add(String fileName, boolean doCompress, boolean isLiveUpdate) throws IOException {
@@ -86,6 +150,139 @@ public class ArchiveBuilder {
         return entries.contains(e);
     }
 
+    /**
+     * Reuse the compressed and encrypted data of entries whose content is
+     * unchanged since the previous archive was written. A cache file describing
+     * the previous archive is written next to it and used by the next build.
+     * @param cacheFile cache file to read and write
+     * @param previousArchiveIndex index file of the previous archive
+     * @param previousArchiveData data file of the previous archive
+     */
+    public void setArchiveCache(File cacheFile, File previousArchiveIndex, File previousArchiveData) {
+        this.cacheFile = cacheFile;
+        this.previousArchiveIndex = previousArchiveIndex;
+        this.previousArchiveData = previousArchiveData;
+    }
+
+    /**
+     * Write the data of the entries in the order they are loaded by the engine,
+     * so that reading the resources of a collection is close to sequential.
+     * The order is a depth first traversal of the dependencies, starting at
+     * the roots loaded at startup, followed by the resources loaded by each
+     * collection proxy, in breadth first order of the proxies. A resource is
+     * placed where it is first loaded. Entries not in the dependencies are
+     * written last, in the default order.
+     * @param root dependencies, see {@link ManifestBuilder#setDependencies(ResourceNode)}
+     */
+    public void setLoadOrder(ResourceNode root) {
+        List<String> order = new ArrayList<String>();
+        Set<String> placed = new HashSet<String>();
+        ArrayDeque<ResourceNode> groups = new ArrayDeque<ResourceNode>();
+        groups.add(root);
+        while (!groups.isEmpty()) {
+            ResourceNode group = groups.poll();
+            ArrayDeque<ResourceNode> stack = new ArrayDeque<ResourceNode>();
+            stack.push(group);
+            while (!stack.isEmpty()) {
+                ResourceNode current = stack.pop();
+                if (placed.add(current.absoluteFilepath)) {
+                    order.add(current.absoluteFilepath);
+                }
+                if (current != group && current.relativeFilepath.endsWith(".collectionproxyc")) {
+                    // Loaded separately, when the proxy is loaded
+                    groups.add(current);
+                    continue;
+                }
+                List<ResourceNode> children = current.getChildren();
+                for (int i = children.size() - 1; i >= 0; --i) {
+                    stack.push(children.get(i));
+                }
+            }
+        }
+        this.dataOrder = order;
+    }
+
+    /**
+     * Compress entries with the fast compressor instead of the high
+     * compression one, e.g. for debug builds where build time matters
+     * more than the size of the archive. Default is false.
+     * @param fast true to use the fast compressor
+     */
+    public void setFastCompression(boolean fast) {
+        this.compressionPolicy = new CompressionPolicy(fast);
+    }
+
+    /**
+     * Learn how well each type of resource compresses. Large entries of
+     * types that compress well are compressed without first checking a
+     * sample of the entry. The ratios are read from and written to the
+     * given file, so that they are kept between builds.
+     * @param statsFile file to read and write
+     */
+    public void setCompressionStats(File statsFile) {
+        this.compressionStatsFile = statsFile;
+    }
+
+    /**
+     * Align the data of entries that are neither compressed nor encrypted,
+     * so that they can be memory mapped and used without copying. Other
+     * entries are aligned to {@link #DEFAULT_DATA_ALIGNMENT} bytes. The
+     * alignment is recorded in the index header flags.
+     * @param alignment alignment in bytes, a power of two, e.g. {@link #PAGE_SIZE}
+     */
+    public void setDataAlignment(int alignment) {
+        if (alignment < DEFAULT_DATA_ALIGNMENT || Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two and at least " + DEFAULT_DATA_ALIGNMENT + ": " + alignment);
+        }
+        this.dataAlignment = alignment;
+    }
+
+    /**
+     * Write a minimal perfect hash of the entry hashes to the index, after
+     * the entries, so that an entry can be found without searching the
+     * sorted hashes. The sorted hashes are still written. Default is false.
+     * @param perfectHash true to write the perfect hash
+     */
+    public void setPerfectHash(boolean perfectHash) {
+        this.perfectHash = perfectHash;
+    }
+
+    private int getIndexFlags() {
+        int flags = this.perfectHash ? INDEX_FLAG_PERFECT_HASH : 0;
+        if (this.dataAlignment == DEFAULT_DATA_ALIGNMENT) {
+            return flags;
+        }
+        return flags | INDEX_FLAG_ALIGNED | (Integer.numberOfTrailingZeros(this.dataAlignment) << INDEX_FLAG_ALIGNMENT_SHIFT);
+    }
+
+    // Entries with identical content share a hash, the first of them is used
+    private PerfectHash buildPerfectHash() throws IOException {
+        List<byte[]> keys = new ArrayList<byte[]>(entries.size());
+        int[] values = new int[entries.size()];
+        byte[] previous = null;
+        for (int i = 0; i < entries.size(); ++i) {
+            byte[] hash = entries.get(i).hash;
+            if (previous != null && Arrays.equals(previous, hash)) {
+                continue;
+            }
+            values[keys.size()] = i;
+            keys.add(hash);
+            previous = hash;
+        }
+        try {
+            return PerfectHash.build(keys, Arrays.copyOf(values, keys.size()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unable to build the perfect hash of the archive index", e);
+        }
+    }
+
+    private int getDataAlignment(byte archiveEntryFlags) {
+        if ((archiveEntryFlags & (ArchiveEntry.FLAG_COMPRESSED | ArchiveEntry.FLAG_ENCRYPTED)) != 0) {
+            return DEFAULT_DATA_ALIGNMENT;
+        }
+        return this.dataAlignment;
+    }
+
     public ArchiveEntry getArchiveEntry(int index) {
         return this.entries.get(index);
     }
@@ -103,7 +300,56 @@ public class ArchiveBuilder {
         return FileUtils.readFileToByteArray(fhandle);
     }
 
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() < capacity) {
+            return ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+        }
+        return buffer;
+    }
+
+    /**
+     * Read resource data into the read buffer of a slot
+     * @param slot buffers to use
+     * @param filepath file to read
+     * @return buffer holding the file content, valid until the slot is reused
+     */
+    private static ByteBuffer readResourceDataReused(BufferSlot slot, String filepath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Resource '%s' is too large", filepath));
+            }
+            ByteBuffer readBuffer = slot.readBuffer = ensureCapacity(slot.readBuffer, (int) size);
+            readBuffer.clear();
+            readBuffer.limit((int) size);
+            while (readBuffer.hasRemaining()) {
+                if (channel.read(readBuffer) < 0) {
+                    throw new IOException(String.format("Unexpected end of file '%s'", filepath));
+                }
+            }
+            readBuffer.flip();
+            return readBuffer;
+        }
+    }
+
+    /**
+     * Compress data into the compress buffer of a slot
+     * @param slot buffers to use
+     * @param data data to compress
+     * @return buffer holding the compressed data, valid until the slot is reused
+     */
+    private ByteBuffer compressResourceDataReused(BufferSlot slot, ByteBuffer data) {
+        LZ4Compressor lz4Compressor = compressionPolicy.getCompressor();
+        int maximumCompressedSize = lz4Compressor.maxCompressedLength(data.remaining());
+        ByteBuffer compressBuffer = slot.compressBuffer = ensureCapacity(slot.compressBuffer, maximumCompressedSize);
+        compressBuffer.clear();
+        int compressedSize = lz4Compressor.compress(data, data.position(), data.remaining(), compressBuffer, 0, maximumCompressedSize);
+        compressBuffer.limit(compressedSize);
+        return compressBuffer;
+    }
+
     public byte[] compressResourceData(byte[] buffer) {
+        LZ4Compressor lz4Compressor = compressionPolicy.getCompressor();
         int maximumCompressedSize = lz4Compressor.maxCompressedLength(buffer.length);
         byte[] compressedContent = new byte[maximumCompressedSize];
         int compressedSize = lz4Compressor.compress(buffer, compressedContent);
@@ -111,8 +357,11 @@ public class ArchiveBuilder {
     }
 
     public boolean shouldUseCompressedResourceData(byte[] original, byte[] compressed) {
-        double ratio = (double) compressed.length / (double) original.length;
-        return ratio <= 0.95;
+        return shouldUseCompressedResourceData(original.length, compressed.length);
+    }
+
+    public boolean shouldUseCompressedResourceData(int originalSize, int compressedSize) {
+        return CompressionPolicy.shouldUseCompressedData(originalSize, compressedSize);
     }
 
     public byte[] encryptResourceData(byte[] buffer) {
@@ -120,6 +369,10 @@ public class ArchiveBuilder {
     }
 
     public void writeResourcePack(String filename, String directory, byte[] buffer, byte flags, int size) throws IOException {
+        writeResourcePack(filename, directory, ByteBuffer.wrap(buffer), flags, size);
+    }
+
+    public void writeResourcePack(String filename, String directory, ByteBuffer buffer, byte flags, int size) throws IOException {
         FileOutputStream outputStream = null;
         try {
             File fhandle = new File(directory, filename);
@@ -131,7 +384,7 @@ public class ArchiveBuilder {
                 outputStream.write(size_bytes); // 4 bytes
                 outputStream.write(flags); // 1 byte
                 outputStream.write(padding); // 11 bytes
-                outputStream.write(buffer);
+                outputStream.getChannel().write(buffer.duplicate());
                 
             }
         } finally {
@@ -177,58 +430,119 @@ public class ArchiveBuilder {
         archiveIndex.write(new byte[MD5_HASH_DIGEST_BYTE_LENGTH]);
         
         int archiveIndexHeaderOffset = (int) archiveIndex.getFilePointer();
-
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-            byte[] buffer = this.loadResourceData(entry.fileName);
-            byte archiveEntryFlags = (byte) entry.flags;
-            int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
-            if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
-                    buffer = compressed;
-                    entry.compressedSize = compressed.length;
-                } else {
-                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
-                }
+        // Shares the file pointer with archiveData
+        FileChannel archiveDataChannel = archiveData.getChannel();
+
+        String hashAlgorithm = manifestBuilder.getResourceHashAlgorithm().name();
+        ArchiveCache cache = null;
+        FileChannel previousDataChannel = null;
+        if (this.compressionStatsFile != null) {
+            this.compressionPolicy.load(this.compressionStatsFile);
+        }
+        if (this.cacheFile != null) {
+            cache = new ArchiveCache();
+            this.previousCache = ArchiveCache.load(this.cacheFile, hashAlgorithm, this.previousArchiveIndex, this.previousArchiveData);
+            if (!this.previousCache.isEmpty()) {
+                previousDataChannel = FileChannel.open(this.previousArchiveData.toPath(), StandardOpenOption.READ);
+            } else {
+                this.previousCache = null;
             }
+        }
 
-            // Encrypt data
-            String extension = FilenameUtils.getExtension(entry.fileName);
-            if (ENCRYPTED_EXTS.indexOf(extension) != -1) {
-                archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
-                entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
-                buffer = this.encryptResourceData(buffer);
+        // Entries are loaded, compressed, encrypted and hashed on a pool of
+        // threads while this thread writes them in order, which keeps the
+        // layout of the archive independent of the number of threads.
+        // The number of entries in flight is bounded by the number of slots.
+        int entryCount = entries.size();
+        List<ArchiveEntry> order = getDataOrder();
+        Set<ArchiveEntry> excludedEntries = Collections.newSetFromMap(new IdentityHashMap<ArchiveEntry, Boolean>());
+        int slotCount = Math.min(entryCount, threadCount * 2);
+        ConcurrentLinkedQueue<BufferSlot> freeSlots = new ConcurrentLinkedQueue<BufferSlot>();
+        for (int i = 0; i < slotCount; ++i) {
+            freeSlots.add(new BufferSlot());
+        }
+        List<Future<ProcessedEntry>> futures = new ArrayList<Future<ProcessedEntry>>(entryCount);
+        Map<String, Integer> dataOffsets = new HashMap<String, Integer>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, entryCount)));
+        try {
+            int submitted = 0;
+            while (submitted < slotCount) {
+                futures.add(submitProcessEntry(executor, order.get(submitted++), freeSlots));
             }
 
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+            for (int n = 0; n < entryCount; ++n) {
+                ArchiveEntry entry = order.get(n);
+                ProcessedEntry processed = getProcessedEntry(futures.get(n));
+                futures.set(n, null);
+                ByteBuffer buffer = processed.data;
+                int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+
+                // Write resource to data archive
+                if (this.excludeResource(normalisedPath, excludedResources)) {
+                    resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
+                    if (buffer == null) {
+                        buffer = readPreviousData(previousDataChannel, processed.cached);
+                    }
+                    this.writeResourcePack(processed.hexDigest, resourcePackDirectory.toString(), buffer, processed.archiveEntryFlags, entry.size);
+                    excludedEntries.add(entry);
+                } else {
+                    // Entries with identical data share it
+                    String dataKey = processed.hexDigest + ":" + processed.archiveEntryFlags + ":" + entry.size;
+                    Integer dataOffset = dataOffsets.get(dataKey);
+                    int storedSize;
+                    if (dataOffset != null) {
+                        entry.resourceOffset = dataOffset;
+                        storedSize = buffer != null ? buffer.remaining() : processed.cached.storedSize;
+                    } else {
+                        alignBuffer(archiveData, getDataAlignment(processed.archiveEntryFlags));
+                        entry.resourceOffset = (int) archiveData.getFilePointer();
+                        dataOffsets.put(dataKey, entry.resourceOffset);
+                        if (buffer != null) {
+                            storedSize = buffer.remaining();
+                            ByteBuffer out = buffer.duplicate();
+                            while (out.hasRemaining()) {
+                                archiveDataChannel.write(out);
+                            }
+                        } else {
+                            // Unchanged since the previous archive, copy the stored data as is
+                            storedSize = processed.cached.storedSize;
+                            long position = processed.cached.offset;
+                            long end = position + storedSize;
+                            while (position < end) {
+                                position += previousDataChannel.transferTo(position, end - position, archiveDataChannel);
+                            }
+                        }
+                    }
+                    if (cache != null) {
+                        boolean compressed = (processed.archiveEntryFlags & ArchiveEntry.FLAG_COMPRESSED) != 0;
+                        cache.put(processed.cacheKey, new ArchiveCache.Entry(entry.resourceOffset, storedSize, compressed, processed.hashDigest));
+                    }
+                }
 
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.hash = new byte[HASH_MAX_LENGTH];
-                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
-            }
+                manifestBuilder.addHashedResourceEntry(normalisedPath, processed.hashDigest, resourceEntryFlags);
 
-            // Write resource to data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
-                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
-                entries.remove(i);
-            } else {
-                alignBuffer(archiveData, 4);
-                entry.resourceOffset = (int) archiveData.getFilePointer();
-                archiveData.write(buffer, 0, buffer.length);
+                freeSlots.add(processed.slot);
+                if (submitted < entryCount) {
+                    futures.add(submitProcessEntry(executor, order.get(submitted++), freeSlots));
+                }
             }
+        } finally {
+            executor.shutdownNow();
+            IOUtils.closeQuietly(previousDataChannel);
+            this.previousCache = null;
+        }
 
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, resourceEntryFlags);
+        if (!excludedEntries.isEmpty()) {
+            List<ArchiveEntry> bundledEntries = new ArrayList<ArchiveEntry>(entries.size() - excludedEntries.size());
+            for (ArchiveEntry entry : entries) {
+                if (!excludedEntries.contains(entry)) {
+                    bundledEntries.add(entry);
+                }
+            }
+            entries = bundledEntries;
         }
 
         // Write sorted hashes to index file
@@ -247,6 +561,10 @@ public class ArchiveBuilder {
             archiveIndex.writeInt(entry.compressedSize);
             archiveIndex.writeInt(entry.flags);
         }
+
+        if (this.perfectHash) {
+            buildPerfectHash().write(archiveIndex);
+        }
         
         try {
             // Calc index file MD5 hash
@@ -263,13 +581,171 @@ public class ArchiveBuilder {
         // Update index header with offsets
         archiveIndex.seek(0);
         archiveIndex.writeInt(VERSION);
-        archiveIndex.writeInt(0); // Pad
+        archiveIndex.writeInt(getIndexFlags()); // Flags
         archiveIndex.writeLong(0); // UserData
         archiveIndex.writeInt(entries.size());
         archiveIndex.writeInt(entryOffset);
         archiveIndex.writeInt(hashOffset);
         archiveIndex.writeInt(ManifestBuilder.CryptographicOperations.getHashSize(manifestBuilder.getResourceHashAlgorithm()));
         archiveIndex.write(this.archiveIndexMD5);
+
+        if (cache != null) {
+            cache.save(this.cacheFile, hashAlgorithm, this.archiveIndexMD5, archiveData.length());
+        }
+        if (this.compressionStatsFile != null) {
+            this.compressionPolicy.save(this.compressionStatsFile);
+        }
+    }
+
+    private static ByteBuffer readPreviousData(FileChannel channel, ArchiveCache.Entry cached) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(cached.storedSize);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, cached.offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of previous archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Entries in the order their data is written, by default in reverse order of insertion
+    private List<ArchiveEntry> getDataOrder() {
+        List<ArchiveEntry> order = new ArrayList<ArchiveEntry>(entries);
+        Collections.reverse(order);
+        if (this.dataOrder != null) {
+            final Map<String, Integer> positions = new HashMap<String, Integer>();
+            for (String path : this.dataOrder) {
+                positions.put(path, positions.size());
+            }
+            // Stable, entries not in the load order keep the default order
+            Collections.sort(order, new Comparator<ArchiveEntry>() {
+                @Override
+                public int compare(ArchiveEntry a, ArchiveEntry b) {
+                    Integer pa = positions.get(a.fileName);
+                    Integer pb = positions.get(b.fileName);
+                    return Integer.compare(pa != null ? pa : Integer.MAX_VALUE, pb != null ? pb : Integer.MAX_VALUE);
+                }
+            });
+        }
+        return order;
+    }
+
+    private Future<ProcessedEntry> submitProcessEntry(ExecutorService executor, final ArchiveEntry entry, final ConcurrentLinkedQueue<BufferSlot> freeSlots) {
+        return executor.submit(new Callable<ProcessedEntry>() {
+            @Override
+            public ProcessedEntry call() throws IOException {
+                // A slot is always free since no more entries than slots are in flight
+                return processEntry(entry, freeSlots.poll());
+            }
+        });
+    }
+
+    private static ProcessedEntry getProcessedEntry(Future<ProcessedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while writing archive", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Load, compress, encrypt and hash an entry. Only touches the entry itself,
+    // so entries can be processed concurrently.
+    private ProcessedEntry processEntry(ArchiveEntry entry, BufferSlot slot) throws IOException {
+        ProcessedEntry processed = new ProcessedEntry();
+        processed.slot = slot;
+        ByteBuffer buffer = readResourceDataReused(slot, entry.fileName);
+        byte archiveEntryFlags = (byte) entry.flags;
+        String extension = FilenameUtils.getExtension(entry.fileName);
+        boolean encrypt = ENCRYPTED_EXTS.indexOf(extension) != -1;
+        boolean compress = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+
+        if (this.cacheFile != null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA1");
+                digest.update(buffer.duplicate());
+                processed.cacheKey = ArchiveCache.key(digest.digest(), compress, compressionPolicy.isFast(), encrypt);
+            } catch (NoSuchAlgorithmException exception) {
+                throw new IOException("Unable to create archive, the hashing algorithm is not supported!");
+            }
+            ArchiveCache.Entry cached = this.previousCache != null ? this.previousCache.get(processed.cacheKey) : null;
+            if (cached != null) {
+                if (cached.compressed) {
+                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                    entry.compressedSize = cached.storedSize;
+                } else {
+                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+                }
+                if (compress) {
+                    compressionPolicy.record(extension, buffer.remaining(), cached.compressed ? cached.storedSize : buffer.remaining());
+                }
+                if (encrypt) {
+                    archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+                    entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+                }
+                processed.cached = cached;
+                processed.archiveEntryFlags = archiveEntryFlags;
+                setHash(entry, processed, cached.hashDigest);
+                return processed;
+            }
+        }
+
+        if (compress) {
+            // Compress data, unless a sample shows that it's not worth it
+            int originalSize = buffer.remaining();
+            ByteBuffer compressed = null;
+            if (this.shouldCompressSampled(slot, extension, buffer)) {
+                compressed = this.compressResourceDataReused(slot, buffer);
+            }
+            if (compressed != null && this.shouldUseCompressedResourceData(originalSize, compressed.remaining())) {
+                archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                buffer = compressed;
+                entry.compressedSize = compressed.remaining();
+            } else {
+                entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+            }
+            compressionPolicy.record(extension, originalSize, buffer.remaining());
+        }
+
+        // Encrypt data
+        if (encrypt) {
+            archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+            entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+            // In place, the buffer belongs to the slot
+            Crypt.encryptCTR(buffer, KEY);
+        }
+
+        // Calculate hash digest values for resource
+        try {
+            byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
+            setHash(entry, processed, hashDigest);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+
+        processed.data = buffer;
+        processed.archiveEntryFlags = archiveEntryFlags;
+        return processed;
+    }
+
+    private boolean shouldCompressSampled(BufferSlot slot, String extension, ByteBuffer data) {
+        ByteBuffer sampleBuffer = slot.compressBuffer = ensureCapacity(slot.compressBuffer, compressionPolicy.getSampleBufferSize());
+        sampleBuffer.clear();
+        return compressionPolicy.shouldCompress(extension, data, sampleBuffer);
+    }
+
+    private static void setHash(ArchiveEntry entry, ProcessedEntry processed, byte[] hashDigest) {
+        entry.hash = new byte[HASH_MAX_LENGTH];
+        System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
+        processed.hashDigest = hashDigest;
+        processed.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
     }
 
     private void alignBuffer(RandomAccessFile outFile, int align) throws IOException {
@@ -277,8 +753,8 @@ public class ArchiveBuilder {
         int newPos = (int) (outFile.getFilePointer() + (align - 1));
         newPos &= ~(align - 1);
 
-        for (int i = 0; i < (newPos - pos); ++i) {
-            outFile.writeByte((byte) 0);
+        if (newPos > pos) {
+            outFile.write(new byte[newPos - pos]);
         }
     }
 
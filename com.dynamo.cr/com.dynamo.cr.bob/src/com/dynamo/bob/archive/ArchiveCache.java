@@ -0,0 +1,166 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Side index of a previously written archive, mapping the content of each
+ * resource to where its compressed and encrypted data is stored in the
+ * archive data file. Used by {@link ArchiveBuilder} to copy unchanged
+ * entries from the previous archive instead of processing them again.
+ */
+class ArchiveCache {
+
+    private static final int MAGIC = 0x42415243; // BARC
+    private static final int VERSION = 1;
+    // Offset of the index MD5 in the archive index header
+    private static final int INDEX_MD5_OFFSET = 32;
+
+    static class Entry {
+        final int offset;
+        final int storedSize;
+        final boolean compressed;
+        final byte[] hashDigest;
+
+        Entry(int offset, int storedSize, boolean compressed, byte[] hashDigest) {
+            this.offset = offset;
+            this.storedSize = storedSize;
+            this.compressed = compressed;
+            this.hashDigest = hashDigest;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Create the key of a resource
+     * @param contentDigest SHA1 digest of the uncompressed, unencrypted content
+     * @param compress if compression was requested for the resource
+     * @param fast if the resource is compressed with the fast compressor
+     * @param encrypt if the resource is encrypted
+     * @return key
+     */
+    static String key(byte[] contentDigest, boolean compress, boolean fast, boolean encrypt) {
+        String compression = compress ? (fast ? "f" : "c") : "-";
+        return ManifestBuilder.CryptographicOperations.hexdigest(contentDigest) + compression + (encrypt ? "e" : "-");
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    private static byte[] readIndexMD5(File archiveIndex) {
+        try (RandomAccessFile file = new RandomAccessFile(archiveIndex, "r")) {
+            byte[] md5 = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
+            file.seek(INDEX_MD5_OFFSET);
+            file.readFully(md5);
+            return md5;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Load the cache of a previous archive. An empty cache is returned if the
+     * cache is missing or if it doesn't describe the given archive files.
+     * @param cacheFile cache file
+     * @param hashAlgorithm name of the resource hash algorithm of the manifest
+     * @param archiveIndex index file of the previous archive
+     * @param archiveData data file of the previous archive
+     * @return cache
+     */
+    static ArchiveCache load(File cacheFile, String hashAlgorithm, File archiveIndex, File archiveData) {
+        ArchiveCache cache = new ArchiveCache();
+        if (!cacheFile.isFile() || !archiveIndex.isFile() || !archiveData.isFile()) {
+            return cache;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || is.readInt() != ArchiveBuilder.VERSION) {
+                return cache;
+            }
+            if (!is.readUTF().equals(hashAlgorithm)) {
+                return cache;
+            }
+            byte[] indexMD5 = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
+            is.readFully(indexMD5);
+            long dataLength = is.readLong();
+            if (!Arrays.equals(indexMD5, readIndexMD5(archiveIndex)) || dataLength != archiveData.length()) {
+                return cache;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String key = is.readUTF();
+                int offset = is.readInt();
+                int storedSize = is.readInt();
+                boolean compressed = is.readBoolean();
+                byte[] hashDigest = new byte[is.readUnsignedByte()];
+                is.readFully(hashDigest);
+                cache.put(key, new Entry(offset, storedSize, compressed, hashDigest));
+            }
+        } catch (IOException e) {
+            // Corrupt cache, rebuild all entries
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Save the cache
+     * @param cacheFile cache file
+     * @param hashAlgorithm name of the resource hash algorithm of the manifest
+     * @param indexMD5 MD5 of the archive index, as written in the index header
+     * @param dataLength length of the archive data file
+     * @throws IOException
+     */
+    void save(File cacheFile, String hashAlgorithm, byte[] indexMD5, long dataLength) throws IOException {
+        cacheFile.getParentFile().mkdirs();
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(ArchiveBuilder.VERSION);
+            os.writeUTF(hashAlgorithm);
+            os.write(indexMD5);
+            os.writeLong(dataLength);
+            os.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                os.writeUTF(e.getKey());
+                os.writeInt(entry.offset);
+                os.writeInt(entry.storedSize);
+                os.writeBoolean(entry.compressed);
+                os.writeByte(entry.hashDigest.length);
+                os.write(entry.hashDigest);
+            }
+        }
+    }
+}
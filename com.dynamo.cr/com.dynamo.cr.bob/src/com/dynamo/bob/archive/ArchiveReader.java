@@ -13,34 +13,50 @@
 package com.dynamo.bob.archive;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+/**
+ * Reader for archives written by {@link ArchiveBuilder}. The index is read
+ * once and entries are looked up by binary search on the sorted hashes. The
+ * data file is memory mapped the first time entry content is accessed, i.e.
+ * reading the index only never keeps the data file mapped.
+ */
 public class ArchiveReader {
     public static final int VERSION = 4;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
 
     private ArrayList<ArchiveEntry> entries = null;
+    private Map<String, ArchiveEntry> entriesByUrl = null;
 
+    private int indexFlags = 0;
     private int entryCount = 0;
     private int entryOffset = 0;
     private int hashOffset = 0;
     private int hashLength = 0;
+    private PerfectHash perfectHash = null;
 
     private final String archiveIndexFilepath;
     private final String archiveDataFilepath;
     private final String manifestFilepath;
-    private RandomAccessFile archiveIndexFile = null;
-    private RandomAccessFile archiveDataFile = null;
+    private ByteBuffer archiveIndex = null;
+    private ByteBuffer archiveData = null;
     private ManifestFile manifestFile = null;
 
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
@@ -50,133 +66,281 @@ public class ArchiveReader {
     }
 
     public void read() throws IOException {
-    	this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
-        this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
-        
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
-        
+        // The index is small, read it onto the heap
+        this.archiveIndex = ByteBuffer.wrap(Files.readAllBytes(Paths.get(this.archiveIndexFilepath)));
+
         if (this.manifestFilepath != null) {
-	        InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
-	        this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
-	        manifestInputStream.close();
+            try (InputStream manifestInputStream = Files.newInputStream(Paths.get(this.manifestFilepath))) {
+                this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
+            }
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.archiveIndex.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
             throw new IOException("Unsupported archive index version: " + indexVersion);
         }
     }
-    
-    private boolean matchHash(byte[] a, byte[] b, int hlen) {
-    	if (a.length < hlen || b.length < hlen) {
-    		return false;
-    	}
-    	
-    	for (int i = 0; i < hlen; ++i) {
-    		if (a[i] != b[i]) {
-    			return false;
-    		}
-    	}
-    	
-    	return true;
-    }
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        ByteBuffer index = this.archiveIndex.duplicate();
+        index.position(4); // Version
+        indexFlags = index.getInt();
+        index.getLong(); // UserData, should be 0
+        entryCount = index.getInt();
+        entryOffset = index.getInt();
+        hashOffset = index.getInt();
+        hashLength = index.getInt();
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
+        entriesByUrl = new HashMap<String, ArchiveEntry>(entryCount);
 
         // Hashes are stored linearly in memory instead of within each entry, so the hashes are read in a separate loop.
         // Once the hashes are read, the rest of the entries are read.
-
-        archiveIndexFile.seek(hashOffset);
-        // Read entry hashes
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             e.hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(e.hash, 0, hashLength);
-
-            if (this.manifestFile != null) {
-                ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
-                for (ResourceEntry resource : manifestData.getResourcesList()) {
-	            	if (matchHash(e.hash, resource.getHash().getData().toByteArray(), this.hashLength)) {
-	            		e.fileName = resource.getUrl();
-	            		e.relName = resource.getUrl();
-	            	}
-	            }
-            }
-            
+            index.position(hashOffset + i * HASH_BUFFER_BYTESIZE);
+            index.get(e.hash, 0, hashLength);
             entries.add(e);
         }
 
         // Read entries
-        archiveIndexFile.seek(entryOffset);
+        index.position(entryOffset);
         for (int i=0; i<entryCount; ++i) {
             ArchiveEntry e = entries.get(i);
 
-            e.resourceOffset = archiveIndexFile.readInt();
-            e.size = archiveIndexFile.readInt();
-            e.compressedSize = archiveIndexFile.readInt();
-            e.flags = archiveIndexFile.readInt();
+            e.resourceOffset = index.getInt();
+            e.size = index.getInt();
+            e.compressedSize = index.getInt();
+            e.flags = index.getInt();
+        }
+
+        // The engine copies the header flags when writing the live update index, but not the perfect hash.
+        // A perfect hash that is missing or doesn't match the entries is ignored, the sorted hashes are searched instead.
+        if ((indexFlags & ArchiveBuilder.INDEX_FLAG_PERFECT_HASH) != 0 && hashLength >= PerfectHash.KEY_LENGTH) {
+            try {
+                PerfectHash hash = PerfectHash.read(index);
+                if (hash.getSlotCount() == countDistinctHashes()) {
+                    perfectHash = hash;
+                }
+            } catch (IOException e) {
+                // Truncated, e.g. a live update index
+            }
+        }
+
+        // Parse the manifest once and look up the entry of each resource. Resources with identical
+        // content have an entry each, with the same hash, and are named in the order of the manifest.
+        if (this.manifestFile != null) {
+            Map<ArchiveEntry, List<ArchiveEntry>> unnamed = new IdentityHashMap<ArchiveEntry, List<ArchiveEntry>>(entryCount);
+            List<ArchiveEntry> sameHash = null;
+            for (int i = 0; i < entryCount; ++i) {
+                if (i == 0 || compareHash(hashOffset + (i - 1) * HASH_BUFFER_BYTESIZE, entries.get(i).hash) != 0) {
+                    sameHash = new ArrayList<ArchiveEntry>(1);
+                }
+                sameHash.add(entries.get(i));
+                unnamed.put(entries.get(i), sameHash);
+            }
+
+            ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
+            for (ResourceEntry resource : manifestData.getResourcesList()) {
+                ArchiveEntry e = getEntry(resource.getHash().getData().toByteArray());
+                if (e != null) {
+                    String url = resource.getUrl();
+                    List<ArchiveEntry> candidates = unnamed.get(e);
+                    if (!candidates.isEmpty()) {
+                        e = candidates.remove(0);
+                        e.fileName = url;
+                        e.relName = url;
+                    }
+                    entriesByUrl.put(url, e);
+                }
+            }
+        }
+    }
+
+    private int countDistinctHashes() {
+        int distinct = 0;
+        for (int i = 0; i < entryCount; ++i) {
+            if (i == 0 || compareHash(hashOffset + (i - 1) * HASH_BUFFER_BYTESIZE, entries.get(i).hash) != 0) {
+                ++distinct;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * @return index header flags, see {@link ArchiveBuilder#INDEX_FLAG_ALIGNED}
+     */
+    public int getIndexFlags() {
+        return indexFlags;
+    }
+
+    /**
+     * @return alignment of the data of entries that are neither compressed nor encrypted
+     */
+    public int getDataAlignment() {
+        if ((indexFlags & ArchiveBuilder.INDEX_FLAG_ALIGNED) == 0) {
+            return ArchiveBuilder.DEFAULT_DATA_ALIGNMENT;
         }
+        return 1 << ((indexFlags >> ArchiveBuilder.INDEX_FLAG_ALIGNMENT_SHIFT) & 0xff);
     }
 
     public List<ArchiveEntry> getEntries() {
         return entries;
     }
 
+    /**
+     * Get an entry by url. Requires the manifest to have been read.
+     * @param url url of the resource, e.g. "/main/main.collectionc"
+     * @return entry, or null if not found
+     */
+    public ArchiveEntry getEntry(String url) {
+        return entriesByUrl.get(url);
+    }
+
+    /**
+     * @return true if the index has a perfect hash of the entry hashes, see {@link ArchiveBuilder#setPerfectHash(boolean)}
+     */
+    public boolean hasPerfectHash() {
+        return perfectHash != null;
+    }
+
+    /**
+     * Check that the perfect hash of the index maps the hash of every
+     * entry to an entry with that hash, and that every slot refers to an
+     * entry.
+     * @throws IOException if the perfect hash is missing or invalid
+     */
+    public void verifyPerfectHash() throws IOException {
+        if (perfectHash == null) {
+            throw new IOException("The archive index has no perfect hash");
+        }
+        for (int i = 0; i < entryCount; ++i) {
+            ArchiveEntry entry = entries.get(i);
+            int index = perfectHash.get(entry.hash);
+            if (index < 0 || index >= entryCount || compareHash(hashOffset + index * HASH_BUFFER_BYTESIZE, entry.hash) != 0) {
+                throw new IOException("The perfect hash maps entry " + i + " to entry " + index);
+            }
+        }
+        int distinct = countDistinctHashes();
+        if (perfectHash.getSlotCount() != distinct) {
+            throw new IOException("The perfect hash has " + perfectHash.getSlotCount() + " slots for " + distinct + " distinct hashes");
+        }
+    }
+
+    /**
+     * Get an entry by hash. The perfect hash of the index is used if there
+     * is one, otherwise a binary search on the sorted hashes of the index.
+     * @param hash resource hash, at least as long as the hash length of the archive
+     * @return entry, or null if not found
+     */
+    public ArchiveEntry getEntry(byte[] hash) {
+        if (hash.length < hashLength) {
+            return null;
+        }
+        if (perfectHash != null) {
+            int index = perfectHash.get(hash);
+            if (index >= 0 && index < entryCount && compareHash(hashOffset + index * HASH_BUFFER_BYTESIZE, hash) == 0) {
+                return entries.get(index);
+            }
+            return null;
+        }
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHash(hashOffset + mid * HASH_BUFFER_BYTESIZE, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    private int compareHash(int offset, byte[] hash) {
+        for (int i = 0; i < hashLength; ++i) {
+            int a = archiveIndex.get(offset + i) & 0xff;
+            int b = hash[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    private ByteBuffer getArchiveData() throws IOException {
+        if (archiveData == null) {
+            try (FileChannel channel = FileChannel.open(Paths.get(this.archiveDataFilepath), StandardOpenOption.READ)) {
+                archiveData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        return archiveData;
+    }
+
+    /**
+     * Get the data of an entry as stored in the archive, i.e. compressed
+     * and/or encrypted according to the entry flags. The returned buffer is
+     * a read-only slice of the mapped data file and isn't copied.
+     * @param entry entry to get data for
+     * @return read-only buffer
+     * @throws IOException
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) throws IOException {
+        int length = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED ? entry.compressedSize : entry.size;
+        ByteBuffer data = getArchiveData().duplicate();
+        data.position(entry.resourceOffset);
+        data.limit(entry.resourceOffset + length);
+        return data.slice();
+    }
+
     public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
         byte[] buf = new byte[entry.size];
-        archiveDataFile.seek(entry.resourceOffset);
-        archiveDataFile.read(buf, 0, entry.size);
+        ByteBuffer data = getArchiveData().duplicate();
+        data.position(entry.resourceOffset);
+        data.get(buf, 0, Math.min(entry.size, data.remaining()));
 
         return buf;
     }
 
     public void extractAll(String path) throws IOException {
 
-        int entryCount = entries.size();
+        // Every url of an entry is extracted, if the manifest was read
+        Map<String, ArchiveEntry> extracted = new TreeMap<String, ArchiveEntry>(entriesByUrl);
+        if (this.manifestFile == null) {
+            for (ArchiveEntry entry : entries) {
+                extracted.put(entry.fileName, entry);
+            }
+        }
 
         System.out.println("Extracting entries to " + path + ": ");
-        for (int i = 0; i < entryCount; i++) {
-            ArchiveEntry entry = entries.get(i);
-            String outdir = path + entry.fileName;
-            System.out.println("> " + entry.fileName);
-            int readSize = entry.compressedSize;
+        for (Map.Entry<String, ArchiveEntry> e : extracted.entrySet()) {
+            ArchiveEntry entry = e.getValue();
+            String outdir = path + e.getKey();
+            System.out.println("> " + e.getKey());
 
             // extract
-            byte[] buf = new byte[entry.size];
-            archiveDataFile.seek(entry.resourceOffset);
-            archiveDataFile.read(buf, 0, readSize);
-
             File fo = new File(outdir);
             fo.getParentFile().mkdirs();
-            FileOutputStream os = new FileOutputStream(fo);
-            os.write(buf);
-            os.close();
+            try (FileChannel channel = new FileOutputStream(fo).getChannel()) {
+                ByteBuffer data = getEntryData(entry);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
         }
     }
 
     public void close() throws IOException {
-        if (archiveIndexFile != null) {
-            archiveIndexFile.close();
-            archiveIndexFile = null;
-        }
-
-        if (archiveDataFile != null) {
-            archiveDataFile.close();
-            archiveDataFile = null;
-        }
+        // The mapping is released when the buffer is garbage collected
+        archiveIndex = null;
+        archiveData = null;
     }
 }
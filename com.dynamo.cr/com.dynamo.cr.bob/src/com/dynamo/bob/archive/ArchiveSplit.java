@@ -0,0 +1,203 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.pipeline.ResourceNode;
+
+/**
+ * Assignment of the resources in a dependency tree to one archive per
+ * split collection proxy, so that the resources of a proxy can be loaded
+ * from a small archive of their own.
+ *
+ * The closure of a proxy is everything reachable from it, i.e. what is
+ * loaded when the proxy is loaded. The proxy itself is loaded with its
+ * parent. Other split proxies are part of the closure but not the resources
+ * below them, as they are loaded separately.
+ *
+ * Every resource in a closure is placed in exactly one group:
+ * <ul>
+ * <li>the main group, if it is also reachable from the root without passing a split proxy</li>
+ * <li>the group of the proxy, if it is only in the closure of that proxy</li>
+ * <li>the common group, if it is in the closures of several proxies</li>
+ * </ul>
+ * Loading a proxy thus requires the main archive, the archive of the proxy and the common archive.
+ */
+public class ArchiveSplit {
+
+    public static final String COMMON_GROUP = "common";
+
+    // Proxy path to the absolute paths of the resources in its closure, in depth first order
+    private final Map<String, Set<String>> closures = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+    private final Set<String> main = new LinkedHashSet<String>();
+    private final Set<String> common = new LinkedHashSet<String>();
+    private final List<String> proxies = new ArrayList<String>();
+
+    /**
+     * @param root dependencies, see {@link ManifestBuilder#setDependencies(ResourceNode)}
+     * @param splitProxies relative paths of the collection proxies to split, e.g. /main/level1.collectionproxyc.
+     * Proxies not in the dependencies are ignored
+     */
+    public ArchiveSplit(ResourceNode root, Collection<String> splitProxies) {
+        Set<String> split = new HashSet<String>(splitProxies);
+
+        // Occurrences of each split proxy, in breadth first order
+        Map<String, List<ResourceNode>> occurrences = new HashMap<String, List<ResourceNode>>();
+        ArrayDeque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            ResourceNode current = queue.poll();
+            if (current != root && split.contains(current.relativeFilepath)) {
+                List<ResourceNode> nodes = occurrences.get(current.relativeFilepath);
+                if (nodes == null) {
+                    nodes = new ArrayList<ResourceNode>();
+                    occurrences.put(current.relativeFilepath, nodes);
+                    proxies.add(current.relativeFilepath);
+                }
+                nodes.add(current);
+            }
+            queue.addAll(current.getChildren());
+        }
+
+        for (ResourceNode child : root.getChildren()) {
+            collect(child, split, main);
+        }
+
+        Map<String, Integer> closureCounts = new HashMap<String, Integer>();
+        for (String proxy : proxies) {
+            Set<String> closure = new LinkedHashSet<String>();
+            for (ResourceNode node : occurrences.get(proxy)) {
+                for (ResourceNode child : node.getChildren()) {
+                    collect(child, split, closure);
+                }
+            }
+            closures.put(proxy, closure);
+            for (String path : closure) {
+                Integer count = closureCounts.get(path);
+                closureCounts.put(path, count != null ? count + 1 : 1);
+            }
+        }
+
+        for (String proxy : proxies) {
+            Set<String> group = new LinkedHashSet<String>();
+            for (String path : closures.get(proxy)) {
+                if (main.contains(path)) {
+                    continue;
+                }
+                if (closureCounts.get(path) > 1) {
+                    common.add(path);
+                } else {
+                    group.add(path);
+                }
+            }
+            groups.put(proxy, group);
+        }
+    }
+
+    // Depth first, without descending into split proxies
+    private static void collect(ResourceNode node, Set<String> split, Set<String> result) {
+        ArrayDeque<ResourceNode> stack = new ArrayDeque<ResourceNode>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            ResourceNode current = stack.pop();
+            if (!result.add(current.absoluteFilepath) || split.contains(current.relativeFilepath)) {
+                continue;
+            }
+            List<ResourceNode> children = current.getChildren();
+            for (int i = children.size() - 1; i >= 0; --i) {
+                stack.push(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get the split proxies found in the dependencies, in breadth first order.
+     * @return relative paths of the proxies
+     */
+    public List<String> getProxies() {
+        return Collections.unmodifiableList(proxies);
+    }
+
+    /**
+     * Get the resources loaded when a proxy is loaded.
+     * @param proxy relative path of the proxy
+     * @return absolute paths, in depth first order
+     */
+    public Set<String> getClosure(String proxy) {
+        Set<String> closure = closures.get(proxy);
+        return closure != null ? Collections.unmodifiableSet(closure) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Get the resources placed in the archive of a proxy, or in the common
+     * archive for {@link #COMMON_GROUP}.
+     * @param group relative path of the proxy or {@link #COMMON_GROUP}
+     * @return absolute paths, in depth first order
+     */
+    public Set<String> getResources(String group) {
+        if (COMMON_GROUP.equals(group)) {
+            return Collections.unmodifiableSet(common);
+        }
+        Set<String> resources = groups.get(group);
+        return resources != null ? Collections.unmodifiableSet(resources) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Get the resources reachable from the root without passing a split
+     * proxy, i.e. the resources left in the main archive.
+     * @return absolute paths, in depth first order
+     */
+    public Set<String> getMainResources() {
+        return Collections.unmodifiableSet(main);
+    }
+
+    /**
+     * Get the groups that have resources, the proxies in breadth first
+     * order followed by {@link #COMMON_GROUP} if any resource is shared.
+     * @return groups
+     */
+    public List<String> getGroups() {
+        List<String> result = new ArrayList<String>();
+        for (String proxy : proxies) {
+            if (!groups.get(proxy).isEmpty()) {
+                result.add(proxy);
+            }
+        }
+        if (!common.isEmpty()) {
+            result.add(COMMON_GROUP);
+        }
+        return result;
+    }
+
+    /**
+     * Get the name of the archive files of a group, without extension.
+     * The name of a proxy archive is the path of the proxy without the
+     * leading slash, e.g. main/level1.collectionproxyc
+     * @param group relative path of the proxy or {@link #COMMON_GROUP}
+     * @return name
+     */
+    public static String getArchiveName(String group) {
+        return group.startsWith("/") ? group.substring(1) : group;
+    }
+}
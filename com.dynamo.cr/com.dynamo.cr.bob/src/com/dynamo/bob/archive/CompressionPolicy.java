@@ -0,0 +1,204 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Decides how archive entries are compressed. Entries of types that
+ * previous builds found to compress poorly, e.g. already compressed
+ * textures and sounds, and large entries of unknown types are first
+ * checked by compressing a prefix with the fast compressor. Entries whose
+ * prefix doesn't compress are stored as is, without compressing them in full.
+ * The ratios of each type are saved after the archive has been written and
+ * used by the next build.
+ */
+class CompressionPolicy {
+
+    private static final int MAGIC = 0x43504f4c; // CPOL
+    private static final int VERSION = 1;
+
+    // Size of the prefix compressed to check if an entry compresses
+    static final int SAMPLE_SIZE = 16 * 1024;
+    // Entries smaller than this are always compressed in full
+    static final int SAMPLE_MIN_SIZE = 2 * SAMPLE_SIZE;
+    // The fast compressor compresses the sample slightly worse than the
+    // high compressor would, so the limit is looser than the final one
+    static final double SAMPLE_MAX_RATIO = 0.98;
+    static final double MAX_RATIO = 0.95;
+    // Types with a learned ratio below this are compressed without checking a sample
+    static final double LEARNED_MAX_RATIO = 0.9;
+    // Number of entries of a type required before its ratio is used
+    static final int LEARNED_MIN_COUNT = 4;
+
+    static class Stats {
+        int count;
+        long originalSize;
+        long compressedSize;
+
+        double getRatio() {
+            return originalSize == 0 ? 1.0 : (double) compressedSize / (double) originalSize;
+        }
+    }
+
+    private final LZ4Compressor sampleCompressor;
+    private final LZ4Compressor compressor;
+    private final boolean fast;
+    private Map<String, Stats> learned = new HashMap<String, Stats>();
+    private final Map<String, Stats> current = new HashMap<String, Stats>();
+
+    /**
+     * @param fast use the fast compressor instead of the high compression one,
+     * trading archive size for build time, e.g. for debug builds
+     */
+    CompressionPolicy(boolean fast) {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.fast = fast;
+        this.sampleCompressor = factory.fastCompressor();
+        this.compressor = fast ? this.sampleCompressor : factory.highCompressor();
+    }
+
+    boolean isFast() {
+        return fast;
+    }
+
+    LZ4Compressor getCompressor() {
+        return compressor;
+    }
+
+    static boolean shouldUseCompressedData(int originalSize, int compressedSize) {
+        double ratio = (double) compressedSize / (double) originalSize;
+        return ratio <= MAX_RATIO;
+    }
+
+    /**
+     * Check if an entry should be compressed in full
+     * @param extension extension of the entry
+     * @param data entry content
+     * @param sampleBuffer buffer to compress the sample into, of at least
+     * {@link #getSampleBufferSize()} bytes
+     * @return true if the entry should be compressed
+     */
+    boolean shouldCompress(String extension, ByteBuffer data, ByteBuffer sampleBuffer) {
+        int size = data.remaining();
+        if (size < SAMPLE_MIN_SIZE) {
+            return true;
+        }
+        Stats stats;
+        synchronized (this) {
+            stats = learned.get(extension);
+        }
+        if (stats != null && stats.count >= LEARNED_MIN_COUNT && stats.getRatio() <= LEARNED_MAX_RATIO) {
+            return true;
+        }
+        int sampleSize = sampleCompressor.compress(data, data.position(), SAMPLE_SIZE, sampleBuffer, 0, sampleBuffer.capacity());
+        return (double) sampleSize / (double) SAMPLE_SIZE <= SAMPLE_MAX_RATIO;
+    }
+
+    int getSampleBufferSize() {
+        return sampleCompressor.maxCompressedLength(SAMPLE_SIZE);
+    }
+
+    /**
+     * Record the outcome for an entry
+     * @param extension extension of the entry
+     * @param originalSize size of the entry
+     * @param storedSize size of the entry as stored, i.e. the original size if it wasn't compressed
+     */
+    synchronized void record(String extension, int originalSize, int storedSize) {
+        Stats stats = current.get(extension);
+        if (stats == null) {
+            stats = new Stats();
+            current.put(extension, stats);
+        }
+        stats.count++;
+        stats.originalSize += originalSize;
+        stats.compressedSize += storedSize;
+    }
+
+    /**
+     * Get the ratios of the entries recorded so far, per extension
+     * @return map from extension to stats
+     */
+    synchronized Map<String, Stats> getStats() {
+        return new TreeMap<String, Stats>(current);
+    }
+
+    /**
+     * Load the ratios learned by a previous build. Missing or invalid files are ignored.
+     * @param file file written by {@link #save(File)}
+     */
+    synchronized void load(File file) {
+        Map<String, Stats> stats = new HashMap<String, Stats>();
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                return;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String extension = is.readUTF();
+                Stats s = new Stats();
+                s.count = is.readInt();
+                s.originalSize = is.readLong();
+                s.compressedSize = is.readLong();
+                stats.put(extension, s);
+            }
+        } catch (IOException e) {
+            // Corrupt file, learn again
+            return;
+        }
+        learned = stats;
+    }
+
+    /**
+     * Save the ratios recorded by this build. Types not in this build keep
+     * their previously learned ratios.
+     * @param file file to write
+     * @throws IOException
+     */
+    synchronized void save(File file) throws IOException {
+        Map<String, Stats> stats = new TreeMap<String, Stats>(learned);
+        stats.putAll(current);
+        file.getParentFile().mkdirs();
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(stats.size());
+            for (Map.Entry<String, Stats> e : stats.entrySet()) {
+                Stats s = e.getValue();
+                os.writeUTF(e.getKey());
+                os.writeInt(s.count);
+                os.writeLong(s.originalSize);
+                os.writeLong(s.compressedSize);
+            }
+        }
+    }
+}
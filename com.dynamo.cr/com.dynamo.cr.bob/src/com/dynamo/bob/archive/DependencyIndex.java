@@ -0,0 +1,152 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dynamo.bob.pipeline.ResourceNode;
+
+/**
+ * Index of a resource dependency tree, built with a single traversal, to
+ * answer the queries used when building the archive and the manifest
+ * without searching the tree for every resource.
+ */
+class DependencyIndex {
+
+    private final ResourceNode root;
+    // Occurrences of each resource in breadth first order. Occurrences below
+    // another occurrence of the same resource are left out.
+    private final Map<String, List<ResourceNode>> occurrences = new HashMap<String, List<ResourceNode>>();
+    // Collection and collection proxy paths from a node, inclusive, to the root.
+    // Nodes that aren't collections share the list of their parent.
+    private final Map<ResourceNode, List<String>> collectionChains = new IdentityHashMap<ResourceNode, List<String>>();
+    private final Map<String, List<String>> dependants = new HashMap<String, List<String>>();
+
+    DependencyIndex(ResourceNode root) {
+        this.root = root;
+        if (root == null) {
+            return;
+        }
+
+        ArrayDeque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            ResourceNode current = queue.poll();
+            String path = current.relativeFilepath;
+
+            List<ResourceNode> nodes = occurrences.get(path);
+            if (nodes == null) {
+                nodes = new ArrayList<ResourceNode>();
+                occurrences.put(path, nodes);
+                nodes.add(current);
+            } else if (!hasAncestor(current, path)) {
+                nodes.add(current);
+            }
+
+            List<String> chain = getCollectionChain(current.getParent());
+            if (isCollection(path)) {
+                List<String> parentChain = chain;
+                chain = new ArrayList<String>(parentChain.size() + 1);
+                chain.add(path);
+                chain.addAll(parentChain);
+            }
+            collectionChains.put(current, chain);
+
+            queue.addAll(current.getChildren());
+        }
+    }
+
+    private static boolean isCollection(String path) {
+        return path.endsWith("collectionproxyc") || path.endsWith("collectionc");
+    }
+
+    private boolean hasAncestor(ResourceNode node, String path) {
+        while (node != root) {
+            node = node.getParent();
+            if (node.relativeFilepath.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> getCollectionChain(ResourceNode node) {
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<String> chain = collectionChains.get(node);
+        if (chain == null) {
+            // Above the indexed tree
+            chain = new ArrayList<String>();
+            for (ResourceNode current = node; current != null; current = current.getParent()) {
+                if (isCollection(current.relativeFilepath)) {
+                    chain.add(current.relativeFilepath);
+                }
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Get the chains of collections and collection proxies from each
+     * occurrence of a resource to the root, deepest parent first.
+     * @param filepath relative path of the resource
+     * @return one chain per occurrence, in breadth first order
+     */
+    List<ArrayList<String>> getParentCollections(String filepath) {
+        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
+        List<ResourceNode> nodes = occurrences.get(filepath);
+        if (nodes != null) {
+            for (ResourceNode node : nodes) {
+                result.add(new ArrayList<String>(getCollectionChain(node.getParent())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get all resources below the first occurrence of a resource, in
+     * breadth first order. Collection proxies are included but not the
+     * resources below them.
+     * @param filepath relative path of the resource
+     * @return dependants
+     */
+    List<String> getDependants(String filepath) {
+        List<String> result = dependants.get(filepath);
+        if (result == null) {
+            result = new ArrayList<String>();
+            List<ResourceNode> nodes = occurrences.get(filepath);
+            if (nodes != null) {
+                ArrayDeque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+                queue.add(nodes.get(0));
+                while (!queue.isEmpty()) {
+                    ResourceNode current = queue.poll();
+                    for (ResourceNode child : current.getChildren()) {
+                        result.add(child.relativeFilepath);
+                        if (!child.relativeFilepath.endsWith("collectionproxyc")) {
+                            queue.add(child);
+                        }
+                    }
+                }
+            }
+            dependants.put(filepath, result);
+        }
+        return new ArrayList<String>(result);
+    }
+}
@@ -32,9 +32,10 @@ import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -64,6 +65,10 @@ public class ManifestBuilder {
         }
 
         public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            return hash(ByteBuffer.wrap(data), algorithm);
+        }
+
+        public static byte[] hash(ByteBuffer data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
             MessageDigest messageDigest = null;
             if (algorithm.equals(HashAlgorithm.HASH_MD5)) {
                 messageDigest = MessageDigest.getInstance("MD5");
@@ -77,7 +82,7 @@ public class ManifestBuilder {
                 throw new NoSuchAlgorithmException("The algorithm specified is not supported!");
             }
 
-            messageDigest.update(data);
+            messageDigest.update(data.duplicate());
             return messageDigest.digest();
         }
 
@@ -153,6 +158,10 @@ public class ManifestBuilder {
         }
 
         public static HashDigest createHashDigest(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            return createHashDigest(ByteBuffer.wrap(data), algorithm);
+        }
+
+        public static HashDigest createHashDigest(ByteBuffer data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
             byte[] hashDigest = CryptographicOperations.hash(data, algorithm);
             HashDigest.Builder builder = HashDigest.newBuilder();
             builder.setData(ByteString.copyFrom(hashDigest));
@@ -279,6 +288,7 @@ public class ManifestBuilder {
     private String publicKeyFilepath = null;
     private String projectIdentifier = null;
     private ResourceNode dependencies = null;
+    private DependencyIndex dependencyIndex = null;
     private boolean outputManifestHash = false;
     private byte[] manifestDataHash = null;
     private byte[] archiveIdentifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
@@ -341,6 +351,14 @@ public class ManifestBuilder {
 
     public void setDependencies(ResourceNode dependencies) {
         this.dependencies = dependencies;
+        this.dependencyIndex = null;
+    }
+
+    private DependencyIndex getDependencyIndex() {
+        if (this.dependencyIndex == null) {
+            this.dependencyIndex = new DependencyIndex(this.dependencies);
+        }
+        return this.dependencyIndex;
     }
 
     public void setPrivateKeyFilepath(String filepath) {
@@ -385,68 +403,46 @@ public class ManifestBuilder {
     }
 
     public void addResourceEntry(String url, byte[] data, int flags) throws IOException {
+        addResourceEntry(url, ByteBuffer.wrap(data), flags);
+    }
+
+    public void addResourceEntry(String url, ByteBuffer data, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
-            HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            this.resourceEntries.add(builder.buildPartial());
+            addHashedResourceEntry(url, CryptographicOperations.hash(data, this.resourceHashAlgorithm), flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    /**
+     * Add a resource entry for data that has already been hashed
+     * @param url url of the resource
+     * @param hashDigest digest of the resource data, using the resource hash algorithm
+     * @param flags resource entry flags
+     */
+    public void addHashedResourceEntry(String url, byte[] hashDigest, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        HashDigest.Builder hashBuilder = HashDigest.newBuilder();
+        hashBuilder.setData(ByteString.copyFrom(hashDigest));
+        builder.setHash(hashBuilder.build());
+        builder.setFlags(flags);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     // Calculate all parent collection paths (to the root) for a resource
     // Resource could occur multiple times in the tree (referenced from several collections) or several times within the same collection
     public List<ArrayList<String>> getParentCollections(String filepath) {
-        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
-        List<ResourceNode> candidates = new LinkedList<ResourceNode>();
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        // Find occurences of resource in tree (may be referenced from several collections for example)
-        while (!queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-
-            if (current != null) {
-                if (current.relativeFilepath.equals(filepath)) {
-                    if (!candidates.contains(current)) {
-                        candidates.add(current);
-                    }
-                } else {
-                    queue.addAll(current.getChildren());
-                }
-            }
-        }
-
-        int i = 0;
-        while (!candidates.isEmpty()) {
-            ResourceNode current = candidates.remove(0).getParent();
-            result.add(new ArrayList<String>());
-            while (current != null) {
-                if (current.relativeFilepath.endsWith("collectionproxyc") ||
-                    current.relativeFilepath.endsWith("collectionc")) {
-                    result.get(i).add(current.relativeFilepath);
-                }
-
-                current = current.getParent();
-            }
-            ++i;
-        }
-        return result;
+        return getDependencyIndex().getParentCollections(filepath);
     }
 
     public List<String> getDependants(String filepath) throws IOException {
-        /* This function first tries to find the correct resource in the
-           dependency tree. Since there is no index we have to iterate over
-           the structure and match the relative filepaths that identifies the
-           resource.
-
-           Once a candidate has been found the children, the children, and so
-           on are added to the list of dependants. If a CollectionProxy is
-           found that resource itself is added to the list of dependants, but
-           it is seen as a leaf and the Collection that it points to is ignored.
+        /* Once the resource has been found in the dependency tree the
+           children, the children, and so on are added to the list of
+           dependants. If a CollectionProxy is found that resource itself is
+           added to the list of dependants, but it is seen as a leaf and the
+           Collection that it points to is ignored.
 
            The reason children of a CollectionProxy is ignored is that they are
            not required to load the parent Collection. This allows us to
@@ -454,36 +450,7 @@ public class ManifestBuilder {
            and thus create a partial archive that has to be updated (through
            LiveUpdate) before that CollectionProxy can be loaded.
         */
-        ResourceNode candidate = null;
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        while (candidate == null && !queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-            if (current.relativeFilepath.equals(filepath)) {
-                candidate = current;
-            } else {
-                for (ResourceNode child : current.getChildren()) {
-                    queue.add(child);
-                }
-            }
-        }
-
-        List<String> dependants = new ArrayList<String>();
-        if (candidate != null) {
-            queue.clear();
-            queue.add(candidate);
-            while (!queue.isEmpty()) {
-                ResourceNode current = queue.remove(0);
-                for (ResourceNode child : current.getChildren()) {
-                    dependants.add(child.relativeFilepath);
-                    if (!child.relativeFilepath.endsWith("collectionproxyc")) {
-                        queue.add(child);
-                    }
-                }
-            }
-        }
-
-        return dependants;
+        return getDependencyIndex().getDependants(filepath);
     }
 
     public ManifestHeader buildManifestHeader() throws IOException {
@@ -511,18 +478,30 @@ public class ManifestBuilder {
         builder.setHeader(manifestHeader);
 
         builder.addAllEngineVersions(this.supportedEngineVersions);
+        Map<String, List<ResourceEntry>> entriesByUrl = new HashMap<String, List<ResourceEntry>>();
+        for (ResourceEntry entry : this.resourceEntries) {
+            List<ResourceEntry> urlEntries = entriesByUrl.get(entry.getUrl());
+            if (urlEntries == null) {
+                urlEntries = new ArrayList<ResourceEntry>(1);
+                entriesByUrl.put(entry.getUrl(), urlEntries);
+            }
+            urlEntries.add(entry);
+        }
+
         for (ResourceEntry entry : this.resourceEntries) {
             ResourceEntry.Builder resourceEntryBuilder = entry.toBuilder();
 
             List<String> dependants = this.getDependants(entry.getUrl());
             for (String dependant : dependants) {
-                for (ResourceEntry dependantEntry : this.resourceEntries) {
-                    if (dependantEntry.getUrl().equals(dependant)) {
-                        if (dependantEntry.hasHash()) {
-                            resourceEntryBuilder.addDependants(dependantEntry.getHash());
-                        } else {
-                            throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
-                        }
+                List<ResourceEntry> dependantEntries = entriesByUrl.get(dependant);
+                if (dependantEntries == null) {
+                    continue;
+                }
+                for (ResourceEntry dependantEntry : dependantEntries) {
+                    if (dependantEntry.hasHash()) {
+                        resourceEntryBuilder.addDependants(dependantEntry.getHash());
+                    } else {
+                        throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
                     }
                 }
             }
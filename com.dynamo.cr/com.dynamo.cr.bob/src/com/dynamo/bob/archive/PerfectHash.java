@@ -0,0 +1,270 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Minimal perfect hash over resource hashes, built with hash and displace
+ * (CHD). Each key is mapped to a bucket, and each bucket has a seed chosen
+ * so that the keys of all buckets map to distinct slots. There are as many
+ * slots as keys, and each slot holds the value of the key mapped to it.
+ *
+ * A lookup reads one bucket seed and one slot. Keys not in the hash map to
+ * an arbitrary slot, so the caller must compare the key of the value found.
+ *
+ * The keys are cryptographic hashes, so the first {@link #KEY_LENGTH} bytes
+ * are used as is, without hashing them again. Construction is deterministic,
+ * the same keys always result in the same table.
+ */
+public class PerfectHash {
+
+    // Bytes of each key used, the shortest resource hash is MD5
+    public static final int KEY_LENGTH = 16;
+
+    // Average number of keys per bucket. Fewer keys per bucket makes
+    // construction faster but the table larger.
+    private static final int KEYS_PER_BUCKET = 4;
+    // Seeds tried for a bucket before starting over with another global seed
+    private static final int MAX_BUCKET_SEED = 1 << 24;
+    private static final int MAX_ATTEMPTS = 16;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final int seed;
+    private final int[] bucketSeeds;
+    private final int[] slots;
+
+    private PerfectHash(int seed, int[] bucketSeeds, int[] slots) {
+        this.seed = seed;
+        this.bucketSeeds = bucketSeeds;
+        this.slots = slots;
+    }
+
+    // splitmix64 finalizer
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    // Map the high 32 bits of a hash onto [0, n) without a division
+    private static int range(long hash, int n) {
+        return (int) (((hash >>> 32) * n) >>> 32);
+    }
+
+    private static long getLong(byte[] key, int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; ++i) {
+            result = (result << 8) | (key[offset + i] & 0xff);
+        }
+        return result;
+    }
+
+    private static long bucketHash(long k0, int seed) {
+        return mix(k0 ^ (seed * GOLDEN));
+    }
+
+    private static int slot(long k1, long bucketHash, int bucketSeed, int slotCount) {
+        return range(mix(k1 + bucketHash + (bucketSeed + 1L) * GOLDEN), slotCount);
+    }
+
+    /**
+     * Build a perfect hash
+     * @param keys distinct keys, at least {@link #KEY_LENGTH} bytes each
+     * @param values value of each key
+     * @return perfect hash
+     * @throws IllegalArgumentException if two keys are identical in their first {@link #KEY_LENGTH} bytes
+     */
+    public static PerfectHash build(List<byte[]> keys, int[] values) {
+        int n = keys.size();
+        if (values.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " values, got " + values.length);
+        }
+        long[] k0 = new long[n];
+        long[] k1 = new long[n];
+        for (int i = 0; i < n; ++i) {
+            byte[] key = keys.get(i);
+            if (key.length < KEY_LENGTH) {
+                throw new IllegalArgumentException("Keys must be at least " + KEY_LENGTH + " bytes");
+            }
+            k0[i] = getLong(key, 0);
+            k1[i] = getLong(key, 8);
+        }
+
+        int bucketCount = Math.max(1, (n + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+        for (int seed = 0; seed < MAX_ATTEMPTS; ++seed) {
+            int[] bucketSeeds = new int[bucketCount];
+            int[] slots = new int[n];
+            if (place(k0, k1, values, seed, bucketSeeds, slots)) {
+                return new PerfectHash(seed, bucketSeeds, slots);
+            }
+        }
+        throw new IllegalArgumentException("Unable to build a perfect hash of " + n + " keys");
+    }
+
+    private static boolean place(long[] k0, long[] k1, int[] values, int seed, int[] bucketSeeds, int[] slots) {
+        int n = k0.length;
+        int bucketCount = bucketSeeds.length;
+
+        // Group the keys per bucket, with a counting sort
+        long[] hashes = new long[n];
+        int[] bucketStart = new int[bucketCount + 1];
+        for (int i = 0; i < n; ++i) {
+            hashes[i] = bucketHash(k0[i], seed);
+            ++bucketStart[range(hashes[i], bucketCount) + 1];
+        }
+        int maxBucketSize = 0;
+        for (int b = 0; b < bucketCount; ++b) {
+            maxBucketSize = Math.max(maxBucketSize, bucketStart[b + 1]);
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] bucketKeys = new int[n];
+        int[] fill = new int[bucketCount];
+        for (int i = 0; i < n; ++i) {
+            int b = range(hashes[i], bucketCount);
+            bucketKeys[bucketStart[b] + fill[b]++] = i;
+        }
+
+        // Place the largest buckets first, while most slots are free.
+        // Buckets of the same size are placed in bucket order.
+        int[] sizeStart = new int[maxBucketSize + 2];
+        for (int b = 0; b < bucketCount; ++b) {
+            ++sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b]) + 1];
+        }
+        for (int s = 0; s <= maxBucketSize; ++s) {
+            sizeStart[s + 1] += sizeStart[s];
+        }
+        int[] order = new int[bucketCount];
+        for (int b = 0; b < bucketCount; ++b) {
+            order[sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+        }
+
+        boolean[] taken = new boolean[n];
+        int[] positions = new int[maxBucketSize];
+        for (int b : order) {
+            int start = bucketStart[b];
+            int size = bucketStart[b + 1] - start;
+            if (size == 0) {
+                break;
+            }
+            // Identical keys are always in the same bucket, and no seed separates them
+            for (int i = start; i < start + size; ++i) {
+                for (int j = i + 1; j < start + size; ++j) {
+                    if (k0[bucketKeys[i]] == k0[bucketKeys[j]] && k1[bucketKeys[i]] == k1[bucketKeys[j]]) {
+                        throw new IllegalArgumentException("Keys " + bucketKeys[i] + " and " + bucketKeys[j] + " are identical in their first " + KEY_LENGTH + " bytes");
+                    }
+                }
+            }
+            int bucketSeed = 0;
+            for (; bucketSeed < MAX_BUCKET_SEED; ++bucketSeed) {
+                int placed = 0;
+                for (; placed < size; ++placed) {
+                    int key = bucketKeys[start + placed];
+                    int position = slot(k1[key], hashes[key], bucketSeed, n);
+                    if (taken[position]) {
+                        break;
+                    }
+                    taken[position] = true;
+                    positions[placed] = position;
+                }
+                if (placed == size) {
+                    break;
+                }
+                for (int i = 0; i < placed; ++i) {
+                    taken[positions[i]] = false;
+                }
+            }
+            if (bucketSeed == MAX_BUCKET_SEED) {
+                return false;
+            }
+            bucketSeeds[b] = bucketSeed;
+            for (int i = 0; i < size; ++i) {
+                slots[positions[i]] = values[bucketKeys[start + i]];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the value of a key. The value is undefined for keys that weren't
+     * used to build the hash, so the key of the value must be compared.
+     * @param key key, at least {@link #KEY_LENGTH} bytes
+     * @return value, or -1 if the hash is empty
+     */
+    public int get(byte[] key) {
+        if (slots.length == 0) {
+            return -1;
+        }
+        long hash = bucketHash(getLong(key, 0), seed);
+        int bucketSeed = bucketSeeds[range(hash, bucketSeeds.length)];
+        return slots[slot(getLong(key, 8), hash, bucketSeed, slots.length)];
+    }
+
+    public int getSlotCount() {
+        return slots.length;
+    }
+
+    /**
+     * @return size in bytes when written, see {@link #write(DataOutput)}
+     */
+    public int getSize() {
+        return 12 + 4 * (bucketSeeds.length + slots.length);
+    }
+
+    /**
+     * Write the hash as big endian 32 bit integers: the seed, the number of
+     * buckets, the number of slots, the seed of each bucket and the value
+     * of each slot.
+     * @param out output
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(seed);
+        out.writeInt(bucketSeeds.length);
+        out.writeInt(slots.length);
+        for (int bucketSeed : bucketSeeds) {
+            out.writeInt(bucketSeed);
+        }
+        for (int slot : slots) {
+            out.writeInt(slot);
+        }
+    }
+
+    /**
+     * Read a hash written with {@link #write(DataOutput)}
+     * @param in input, positioned at the start of the hash
+     * @return perfect hash
+     * @throws IOException if the hash is truncated or invalid
+     */
+    public static PerfectHash read(ByteBuffer in) throws IOException {
+        if (in.remaining() < 12) {
+            throw new IOException("Truncated perfect hash");
+        }
+        int seed = in.getInt();
+        int bucketCount = in.getInt();
+        int slotCount = in.getInt();
+        if (bucketCount < 1 || slotCount < 0 || (long) 4 * bucketCount + (long) 4 * slotCount > in.remaining()) {
+            throw new IOException("Invalid perfect hash, " + bucketCount + " buckets and " + slotCount + " slots");
+        }
+        int[] bucketSeeds = new int[bucketCount];
+        in.asIntBuffer().get(bucketSeeds);
+        in.position(in.position() + 4 * bucketCount);
+        int[] slots = new int[slotCount];
+        in.asIntBuffer().get(slots);
+        in.position(in.position() + 4 * slotCount);
+        return new PerfectHash(seed, bucketSeeds, slots);
+    }
+}
@@ -12,22 +12,65 @@
 
 package com.dynamo.bob.archive.publisher;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.Grant;
-import com.amazonaws.services.s3.model.Permission;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.dynamo.bob.CompileExceptionError;
 
 public class AWSPublisher extends Publisher {
 
+    public static final int DEFAULT_UPLOAD_THREADS = 8;
+    private static final int MAX_UPLOAD_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 200;
+
+    // Resources are named by their hex digest and never change, other entries, e.g. the manifest, do
+    private static final Pattern HEX_DIGEST = Pattern.compile("[0-9a-fA-F]+");
+
+    private File ledgerFile = null;
+    private int uploadCount = 0;
+
     public AWSPublisher(PublisherSettings settings) {
         super(settings);
     }
 
+    /**
+     * Keep track of the resources uploaded to the bucket and prefix in a
+     * file, so that resources already uploaded are skipped without listing
+     * the bucket. Without a ledger, or if the bucket or prefix changed, the
+     * prefix is listed instead.
+     * @param ledgerFile file to read and write
+     */
+    public void setLedgerFile(File ledgerFile) {
+        this.ledgerFile = ledgerFile;
+    }
+
+    /**
+     * Get the number of entries uploaded by the last publish
+     * @return number of entries
+     */
+    public int getUploadCount() {
+        return this.uploadCount;
+    }
+
     private CompileExceptionError amazonException(String reason, Throwable exception) {
         String message = "Amazon S3: " + reason;
         return new CompileExceptionError(message, exception);
@@ -37,59 +80,158 @@ public class AWSPublisher extends Publisher {
         String message = "Unable to upload: " + reason;
         return new CompileExceptionError(message, exception);
     }
-    
-    private boolean hasWritePermissions(AmazonS3 client, String bucket) {
-    	AccessControlList acl = client.getBucketAcl(bucket);
-        for (Grant grant : acl.getGrantsAsList()) {
-            if (grant.getPermission().equals(Permission.Write) || grant.getPermission().equals(Permission.FullControl)) {
-                return true;
+
+    protected AWSCredentialsProvider createCredentialsProvider() {
+        return new ProfileCredentialsProvider(this.getPublisherSettings().getAmazonCredentialProfile());
+    }
+
+    protected AmazonS3 createClient() {
+        AmazonS3Client client = new AmazonS3Client(createCredentialsProvider());
+        String endpoint = this.getPublisherSettings().getAmazonEndpoint();
+        if (endpoint != null) {
+            // S3 compatible services address buckets by path and don't always support chunked uploads
+            client.setEndpoint(endpoint);
+            client.setS3ClientOptions(S3ClientOptions.builder().setPathStyleAccess(true).disableChunkedEncoding().build());
+        }
+        return client;
+    }
+
+    private static String getKeyPrefix(String prefix) {
+        return (prefix + "/").replaceAll("//+", "/");
+    }
+
+    private static UploadLedger listPrefix(AmazonS3 client, String bucket, String keyPrefix, String location) {
+        UploadLedger ledger = new UploadLedger(location);
+        ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(keyPrefix);
+        ListObjectsV2Result result;
+        do {
+            result = client.listObjectsV2(request);
+            for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                ledger.add(summary.getKey().substring(keyPrefix.length()));
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        return ledger;
+    }
+
+    private static boolean isRetryable(AmazonClientException exception) {
+        if (exception instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) exception;
+            int status = serviceException.getStatusCode();
+            return status >= 500 || status == 429 || "SlowDown".equals(serviceException.getErrorCode()) || "RequestTimeout".equals(serviceException.getErrorCode());
+        }
+        // Network errors
+        return exception.isRetryable();
+    }
+
+    private static void upload(AmazonS3 client, String bucket, String key, File file) throws InterruptedException {
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                client.putObject(bucket, key, file);
+                return;
+            } catch (AmazonClientException exception) {
+                if (attempt == MAX_UPLOAD_ATTEMPTS || !isRetryable(exception)) {
+                    throw exception;
+                }
+            }
+            Thread.sleep(RETRY_DELAY_MS << (attempt - 1));
+        }
+    }
+
+    private void uploadAll(ExecutorService executor, AmazonS3 client, String bucket, String keyPrefix, List<String> names, UploadLedger ledger) throws CompileExceptionError, InterruptedException {
+        final Map<String, File> entries = this.getEntries();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(names.size());
+        for (final String name : names) {
+            futures.add(executor.submit(() -> {
+                upload(client, bucket, keyPrefix + name, entries.get(name));
+                ledger.add(name);
+                return null;
+            }));
+        }
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                futures.get(i).get();
+                ++this.uploadCount;
+            } catch (ExecutionException exception) {
+                Throwable cause = exception.getCause();
+                if (cause instanceof AmazonS3Exception) {
+                    AmazonS3Exception s3Exception = (AmazonS3Exception) cause;
+                    if (s3Exception.getStatusCode() == 403) {
+                        throw amazonException("The account does not have permission to upload resources", s3Exception);
+                    }
+                    throw amazonException("Unable to upload file, " + s3Exception.getErrorMessage() + ": " + keyPrefix + names.get(i), s3Exception);
+                }
+                throw compileException("Failed to publish resources to Amazon: " + keyPrefix + names.get(i), cause);
             }
         }
-        
-        return false;
     }
 
     @Override
     public void Publish() throws CompileExceptionError {
-    	if (this.getPublisherSettings().getAmazonBucket() == null) {
-    		throw compileException("AWS Bucket is not specified", null);
-    	} else if (this.getPublisherSettings().getAmazonPrefix() == null) {
-    		throw compileException("AWS Prefix is not specified", null);
-    	} else if (this.getPublisherSettings().getAmazonCredentialProfile() == null) {
-    		throw compileException("AWS Credential profile is not specified", null);
-    	}
-    	
+        if (this.getPublisherSettings().getAmazonBucket() == null) {
+            throw compileException("AWS Bucket is not specified", null);
+        } else if (this.getPublisherSettings().getAmazonPrefix() == null) {
+            throw compileException("AWS Prefix is not specified", null);
+        } else if (this.getPublisherSettings().getAmazonCredentialProfile() == null) {
+            throw compileException("AWS Credential profile is not specified", null);
+        }
+
+        this.uploadCount = 0;
+        UploadLedger ledger = null;
         try {
-        	String credentialProfile = this.getPublisherSettings().getAmazonCredentialProfile();
-    		AWSCredentialsProvider credentials = new ProfileCredentialsProvider(credentialProfile);
-    		AmazonS3Client client = new AmazonS3Client(credentials);
-        	String bucket = this.getPublisherSettings().getAmazonBucket();
-            
-            if (client.doesBucketExist(bucket)) {
-                if (hasWritePermissions(client, bucket)) {
-                	String prefix = this.getPublisherSettings().getAmazonPrefix();
-                    for (String hexDigest : this.getEntries().keySet()) {
-                        String key = (prefix + "/" + hexDigest).replaceAll("//+", "/");
-                        try {
-                        	client.putObject(bucket, key, this.getEntries().get(hexDigest));
-                        } catch (AmazonS3Exception exception) {
-                        	throw amazonException("Unable to upload file, " + exception.getErrorMessage() + ": " + key, exception);
-                        }
-                    }
-                } else {
-                	throw amazonException("The account does not have permission to upload resources", null);
+            AmazonS3 client = createClient();
+            String bucket = this.getPublisherSettings().getAmazonBucket();
+            if (!client.doesBucketExist(bucket)) {
+                throw amazonException("The bucket specified does not exist: " + bucket, null);
+            }
+
+            String keyPrefix = getKeyPrefix(this.getPublisherSettings().getAmazonPrefix());
+            String endpoint = this.getPublisherSettings().getAmazonEndpoint();
+            String location = (endpoint != null ? endpoint : "") + "|" + bucket + "|" + keyPrefix;
+            ledger = UploadLedger.load(this.ledgerFile, location);
+            if (ledger == null) {
+                ledger = listPrefix(client, bucket, keyPrefix, location);
+            }
+
+            // Resources are uploaded before the entries that refer to them, so that a client never
+            // reads a manifest whose resources are not available yet
+            List<String> resources = new ArrayList<String>();
+            List<String> others = new ArrayList<String>();
+            for (String name : this.getEntries().keySet()) {
+                if (!HEX_DIGEST.matcher(name).matches()) {
+                    others.add(name);
+                } else if (!ledger.contains(name)) {
+                    resources.add(name);
                 }
-            } else {
-            	throw amazonException("The bucket specified does not exist: " + bucket, null);
+            }
+
+            // Upload on a bounded pool, the first failure cancels the remaining uploads
+            int threadCount = Math.max(1, Math.min(this.getPublisherSettings().getAmazonUploadThreads(), Math.max(resources.size(), others.size())));
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                uploadAll(executor, client, bucket, keyPrefix, resources, ledger);
+                uploadAll(executor, client, bucket, keyPrefix, others, ledger);
+            } finally {
+                executor.shutdownNow();
             }
         } catch (AmazonS3Exception exception) {
             throw amazonException(exception.getErrorMessage(), exception);
         } catch (Exception exception) {
-        	if (exception instanceof CompileExceptionError) {
-        		throw exception;
-        	}
-        	
+            if (exception instanceof CompileExceptionError) {
+                throw (CompileExceptionError) exception;
+            }
+
             throw compileException("Failed to publish resources to Amazon", exception);
+        } finally {
+            // Keep what was uploaded, also when the publish failed
+            if (ledger != null && this.ledgerFile != null) {
+                try {
+                    ledger.save(this.ledgerFile);
+                } catch (IOException e) {
+                    // The prefix is listed on the next publish
+                    this.ledgerFile.delete();
+                }
+            }
         }
     }
 
@@ -129,6 +129,27 @@ public class PublisherSettings {
         return this.getValue("liveupdate", "amazon-prefix");
     }
 
+    public void setAmazonEndpoint(String value) {
+        this.setValue("liveupdate", "amazon-endpoint", value);
+    }
+
+    public String getAmazonEndpoint() {
+        return this.getValue("liveupdate", "amazon-endpoint");
+    }
+
+    public void setAmazonUploadThreads(int value) {
+        this.setValue("liveupdate", "amazon-upload-threads", Integer.toString(value));
+    }
+
+    public int getAmazonUploadThreads() {
+        String value = this.getValue("liveupdate", "amazon-upload-threads");
+        try {
+            return value != null ? Integer.parseInt(value) : AWSPublisher.DEFAULT_UPLOAD_THREADS;
+        } catch (NumberFormatException e) {
+            return AWSPublisher.DEFAULT_UPLOAD_THREADS;
+        }
+    }
+
     public void setZipFilepath(String value) {
     	this.setValue("liveupdate", "zip-filepath", value);
     }
@@ -0,0 +1,107 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive.publisher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Record of the resources already uploaded to a location, e.g. a bucket
+ * and prefix. Resources are content addressed, so a resource that has been
+ * uploaded once doesn't have to be uploaded again.
+ */
+class UploadLedger {
+
+    private static final int MAGIC = 0x4c444752; // LDGR
+    private static final int VERSION = 1;
+
+    private final String location;
+    private final Set<String> uploaded = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * @param location identifies where the resources are uploaded, e.g. endpoint, bucket and prefix
+     */
+    UploadLedger(String location) {
+        this.location = location;
+    }
+
+    boolean contains(String name) {
+        return uploaded.contains(name);
+    }
+
+    void add(String name) {
+        uploaded.add(name);
+    }
+
+    int size() {
+        return uploaded.size();
+    }
+
+    /**
+     * Load a ledger
+     * @param file ledger file
+     * @param location location the ledger must describe
+     * @return ledger, or null if the file is missing, invalid or describes another location
+     */
+    static UploadLedger load(File file, String location) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || !is.readUTF().equals(location)) {
+                return null;
+            }
+            UploadLedger ledger = new UploadLedger(location);
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                ledger.add(is.readUTF());
+            }
+            return ledger;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Save the ledger
+     * @param file ledger file
+     * @throws IOException
+     */
+    void save(File file) throws IOException {
+        Set<String> names;
+        synchronized (uploaded) {
+            names = new TreeSet<String>(uploaded);
+        }
+        file.getParentFile().mkdirs();
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeUTF(location);
+            os.writeInt(names.size());
+            for (String name : names) {
+                os.writeUTF(name);
+            }
+        }
+    }
+}
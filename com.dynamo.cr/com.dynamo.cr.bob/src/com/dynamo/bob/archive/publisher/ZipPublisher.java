@@ -13,68 +13,200 @@
 package com.dynamo.bob.archive.publisher;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-
-import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.fs.IResource;
 
 public class ZipPublisher extends Publisher {
 
+    // Resource pack files start with the size (4 bytes), the archive entry flags (1 byte) and padding (11 bytes)
+    private static final int RESOURCE_PACK_HEADER_SIZE = 16;
+    private static final int RESOURCE_PACK_FLAGS_OFFSET = 4;
+    private static final byte RESOURCE_PACK_PADDING = (byte) 0xED;
+    // Entries whose sample has more bits of entropy per byte than this are stored, not deflated
+    private static final double MAX_ENTROPY = 7.5;
+    private static final int ENTROPY_SAMPLE_SIZE = 64 * 1024;
+
     private File resourcePackZip = null;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
 
     public ZipPublisher(PublisherSettings settings) {
         super(settings);
     }
 
+    /**
+     * Set the number of threads used to deflate entries
+     * @param threadCount number of threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    private static boolean isResourcePack(byte[] content) {
+        if (content.length < RESOURCE_PACK_HEADER_SIZE) {
+            return false;
+        }
+        for (int i = RESOURCE_PACK_FLAGS_OFFSET + 1; i < RESOURCE_PACK_HEADER_SIZE; ++i) {
+            if (content[i] != RESOURCE_PACK_PADDING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Shannon entropy in bits per byte of a sample of the content
+    private static double getEntropy(byte[] content, int offset) {
+        int length = Math.min(content.length - offset, ENTROPY_SAMPLE_SIZE);
+        if (length <= 0) {
+            return 0.0;
+        }
+        int[] histogram = new int[256];
+        for (int i = offset; i < offset + length; ++i) {
+            histogram[content[i] & 0xff]++;
+        }
+        double entropy = 0.0;
+        for (int count : histogram) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * Check if an entry should be stored rather than deflated, i.e. if it
+     * is a resource pack entry that is already compressed or encrypted, or
+     * if the content looks random
+     * @param content content of the entry
+     * @return true if the entry should be stored
+     */
+    static boolean shouldStore(byte[] content) {
+        int offset = 0;
+        if (isResourcePack(content)) {
+            int flags = content[RESOURCE_PACK_FLAGS_OFFSET];
+            if ((flags & (ArchiveEntry.FLAG_COMPRESSED | ArchiveEntry.FLAG_ENCRYPTED)) != 0) {
+                return true;
+            }
+            offset = RESOURCE_PACK_HEADER_SIZE;
+        }
+        return getEntropy(content, offset) > MAX_ENTROPY;
+    }
+
+    private static ByteBuffer deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] output = new byte[Math.max(64, content.length + content.length / 1000 + 64)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return ByteBuffer.wrap(output, 0, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Read, checksum and, unless it doesn't compress, deflate an entry
+    private static ZipWriter.Entry prepareEntry(File fhandle) throws IOException {
+        byte[] content = Files.readAllBytes(fhandle.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteBuffer data = null;
+        int method = ZipEntry.STORED;
+        if (!shouldStore(content)) {
+            data = deflate(content);
+            method = ZipEntry.DEFLATED;
+        }
+        if (data == null || data.remaining() >= content.length) {
+            data = ByteBuffer.wrap(content);
+            method = ZipEntry.STORED;
+        }
+        return new ZipWriter.Entry(fhandle.getName(), method, crc.getValue(), content.length, fhandle.lastModified(), data);
+    }
+
+    private static ZipWriter.Entry getPreparedEntry(Future<ZipWriter.Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     @Override
     public void Publish() throws CompileExceptionError {
-    	try {
-	    	String tempFilePrefix = "defold.resourcepack_" + this.platform + "_";
-	    	this.resourcePackZip = File.createTempFile(tempFilePrefix, ".zip");
-	        FileOutputStream resourcePackOutputStream = new FileOutputStream(this.resourcePackZip);
-	        ZipOutputStream zipOutputStream = new ZipOutputStream(resourcePackOutputStream);
-	        try {
-	            for (String hexDigest : this.getEntries().keySet()) {
-		            File fhandle = this.getEntries().get(hexDigest);
-		            ZipEntry currentEntry = new ZipEntry(fhandle.getName());
-		            zipOutputStream.putNextEntry(currentEntry);
-	
-		            FileInputStream currentInputStream = new FileInputStream(fhandle);
-		            int currentLength = 0;
-		            byte[] currentBuffer = new byte[1024];
-		            while ((currentLength = currentInputStream.read(currentBuffer)) > 0) {
-		                zipOutputStream.write(currentBuffer, 0, currentLength);
-		            }
-		            
-		        	zipOutputStream.closeEntry();
-		            IOUtils.closeQuietly(currentInputStream);
-	            }
-	        } catch (FileNotFoundException exception) {
-	        	throw new CompileExceptionError("Unable to find required file for liveupdate resources: " + exception.getMessage(), exception);
-	        } catch (IOException exception) {
-	        	throw new CompileExceptionError("Unable to write to zip archive for liveupdate resources: " + exception.getMessage(), exception);
-	        } finally {
-	            IOUtils.closeQuietly(zipOutputStream);
-	        }
-	        
-	        File exportFilehandle = new File(this.getPublisherSettings().getZipFilepath(), this.resourcePackZip.getName());
-	        Files.move(this.resourcePackZip.toPath(), exportFilehandle.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-    	} catch (IOException exception) {
-        	throw new CompileExceptionError("Unable to create zip archive for liveupdate resources: " + exception.getMessage(), exception);
-    	}
+        try {
+            String tempFilePrefix = "defold.resourcepack_" + this.platform + "_";
+            this.resourcePackZip = File.createTempFile(tempFilePrefix, ".zip");
+
+            // Entries are deflated on a pool of threads and written in order
+            // by this thread. The number of entries in memory is bounded by
+            // the size of the window.
+            List<String> names = new ArrayList<String>(this.getEntries().keySet());
+            Collections.sort(names);
+            int window = threadCount * 2;
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try (FileChannel channel = FileChannel.open(this.resourcePackZip.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ZipWriter zipWriter = new ZipWriter(channel);
+                List<Future<ZipWriter.Entry>> futures = new ArrayList<Future<ZipWriter.Entry>>(names.size());
+                int submitted = 0;
+                for (int n = 0; n < names.size(); ++n) {
+                    while (submitted < names.size() && submitted < n + window) {
+                        final File fhandle = this.getEntries().get(names.get(submitted++));
+                        futures.add(executor.submit(() -> prepareEntry(fhandle)));
+                    }
+                    ZipWriter.Entry entry = getPreparedEntry(futures.get(n));
+                    futures.set(n, null);
+                    zipWriter.add(entry);
+                }
+                zipWriter.finish();
+            } catch (NoSuchFileException exception) {
+                throw new CompileExceptionError("Unable to find required file for liveupdate resources: " + exception.getMessage(), exception);
+            } catch (IOException exception) {
+                throw new CompileExceptionError("Unable to write to zip archive for liveupdate resources: " + exception.getMessage(), exception);
+            } finally {
+                executor.shutdownNow();
+            }
+
+            File exportFilehandle = new File(this.getPublisherSettings().getZipFilepath(), this.resourcePackZip.getName());
+            Files.move(this.resourcePackZip.toPath(), exportFilehandle.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exception) {
+            throw new CompileExceptionError("Unable to create zip archive for liveupdate resources: " + exception.getMessage(), exception);
+        }
     }
 
     public List<IResource> getOutputs(IResource input) {
@@ -0,0 +1,227 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.archive.publisher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive from entries that are already compressed, or stored,
+ * so that entries can be deflated concurrently and written in order.
+ * Uses zip64 records when the archive has more than 65535 entries or is
+ * larger than 4 GiB.
+ */
+class ZipWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // Names are UTF-8
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+
+    /**
+     * Entry data, compressed with {@link ZipEntry#DEFLATED} or stored with {@link ZipEntry#STORED}
+     */
+    static class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long size;
+        final long time;
+        final ByteBuffer data;
+
+        /**
+         * @param name name in the archive
+         * @param method {@link ZipEntry#DEFLATED} if data is raw deflate data, or {@link ZipEntry#STORED}
+         * @param crc CRC-32 of the uncompressed data
+         * @param size size of the uncompressed data
+         * @param time modification time in milliseconds
+         * @param data data as written to the archive
+         */
+        Entry(String name, int method, long crc, long size, long time, ByteBuffer data) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.time = time;
+            this.data = data;
+        }
+    }
+
+    private static class Written {
+        byte[] name;
+        int method;
+        long crc;
+        long compressedSize;
+        long size;
+        int dosTime;
+        long offset;
+    }
+
+    private final WritableByteChannel channel;
+    private final List<Written> written = new ArrayList<Written>();
+    private final ByteBuffer header = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = 0;
+
+    ZipWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private ByteBuffer headerBuffer(int size) {
+        if (header.capacity() < size) {
+            return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        header.clear();
+        return header;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    /**
+     * Write an entry. Entries are written in the order they are added.
+     * @param entry entry
+     * @throws IOException
+     */
+    void add(Entry entry) throws IOException {
+        Written w = new Written();
+        w.name = entry.name.getBytes(StandardCharsets.UTF_8);
+        w.method = entry.method;
+        w.crc = entry.crc;
+        w.compressedSize = entry.data.remaining();
+        w.size = entry.size;
+        w.dosTime = toDosTime(entry.time);
+        w.offset = position;
+        if (w.compressedSize > MAX_32 || w.size > MAX_32) {
+            throw new IOException("Zip entry is too large: " + entry.name);
+        }
+
+        ByteBuffer buffer = headerBuffer(30 + w.name.length);
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) w.method);
+        buffer.putInt(w.dosTime);
+        buffer.putInt((int) w.crc);
+        buffer.putInt((int) w.compressedSize);
+        buffer.putInt((int) w.size);
+        buffer.putShort((short) w.name.length);
+        buffer.putShort((short) 0);
+        buffer.put(w.name);
+        buffer.flip();
+        write(buffer);
+        write(entry.data.duplicate());
+        written.add(w);
+    }
+
+    /**
+     * Write the central directory. No entries can be added after this.
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        long directoryOffset = position;
+        for (Written w : written) {
+            boolean zip64 = w.offset > MAX_32;
+            ByteBuffer buffer = headerBuffer(46 + w.name.length + 12);
+            buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+            buffer.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+            buffer.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+            buffer.putShort((short) FLAG_UTF8);
+            buffer.putShort((short) w.method);
+            buffer.putInt(w.dosTime);
+            buffer.putInt((int) w.crc);
+            buffer.putInt((int) w.compressedSize);
+            buffer.putInt((int) w.size);
+            buffer.putShort((short) w.name.length);
+            buffer.putShort((short) (zip64 ? 12 : 0));
+            buffer.putShort((short) 0); // comment
+            buffer.putShort((short) 0); // disk
+            buffer.putShort((short) 0); // internal attributes
+            buffer.putInt(0); // external attributes
+            buffer.putInt(zip64 ? (int) MAX_32 : (int) w.offset);
+            buffer.put(w.name);
+            if (zip64) {
+                buffer.putShort((short) ZIP64_EXTRA_ID);
+                buffer.putShort((short) 8);
+                buffer.putLong(w.offset);
+            }
+            buffer.flip();
+            write(buffer);
+        }
+        long directorySize = position - directoryOffset;
+        int count = written.size();
+
+        boolean zip64 = count > MAX_16 || directoryOffset > MAX_32 || directorySize > MAX_32;
+        if (zip64) {
+            long zip64EndOffset = position;
+            ByteBuffer buffer = headerBuffer(56 + 20);
+            buffer.putInt(ZIP64_END_SIGNATURE);
+            buffer.putLong(44); // size of the remaining record
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putInt(0); // disk
+            buffer.putInt(0); // disk of the central directory
+            buffer.putLong(count);
+            buffer.putLong(count);
+            buffer.putLong(directorySize);
+            buffer.putLong(directoryOffset);
+            buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+            buffer.putInt(0); // disk of the zip64 end record
+            buffer.putLong(zip64EndOffset);
+            buffer.putInt(1); // number of disks
+            buffer.flip();
+            write(buffer);
+        }
+
+        ByteBuffer buffer = headerBuffer(22);
+        buffer.putInt(END_SIGNATURE);
+        buffer.putShort((short) 0); // disk
+        buffer.putShort((short) 0); // disk of the central directory
+        buffer.putShort((short) Math.min(count, MAX_16));
+        buffer.putShort((short) Math.min(count, MAX_16));
+        buffer.putInt((int) Math.min(directorySize, MAX_32));
+        buffer.putInt((int) Math.min(directoryOffset, MAX_32));
+        buffer.putShort((short) 0); // comment
+        buffer.flip();
+        write(buffer);
+    }
+}
@@ -2,7 +2,6 @@ package com.dynamo.bob.bundle;
 
 import static org.apache.commons.io.FilenameUtils.normalize;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -288,48 +287,36 @@ public class AndroidAPK {
 
                 ZipEntry ze = new ZipEntry(inE.getName());
                 ze.setSize(inE.getSize());
-                byte[] entryData = null;
-                CRC32 crc = null;
 
                 // Some files need to be STORED instead of DEFLATED to
                 // get "correct" memory mapping at runtime.
-                int zipMethod = ZipEntry.DEFLATED;
                 boolean isAsset = inE.getName().startsWith("assets");
                 if (isAsset) {
                     // Set up uncompresed file, unfortunately need to calculate crc32 and other data for this to work.
                     // https://blogs.oracle.com/CoreJavaTechTips/entry/creating_zip_and_jar_files
-                    crc = new CRC32();
-                    zipMethod = ZipEntry.STORED;
-                    ze.setCompressedSize(inE.getSize());
-                }
-
-                ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-                try {
-                    if (inE.getSize() > 0) {
-                        int count;
-                        entryData = new byte[(int) inE.getSize()];
-                        InputStream stream = zipFileIn.getInputStream(inE);
-                        while((count = stream.read(entryData, 0, (int)inE.getSize())) != -1) {
-                            byteOut.write(entryData, 0, count);
-                            if (zipMethod == ZipEntry.STORED) {
-                                crc.update(entryData, 0, count);
+                    // The crc32 of the uncompressed data is already known from the input entry
+                    long crc = inE.getCrc();
+                    if (crc == -1) {
+                        try (InputStream stream = zipFileIn.getInputStream(inE)) {
+                            CRC32 crc32 = new CRC32();
+                            byte[] buffer = new byte[64 * 1024];
+                            int count;
+                            while ((count = stream.read(buffer)) != -1) {
+                                crc32.update(buffer, 0, count);
                             }
+                            crc = crc32.getValue();
                         }
                     }
-                } finally {
-                    if(null != byteOut) {
-                        byteOut.close();
-                        entryData = byteOut.toByteArray();
-                    }
-                }
-
-                if (zipMethod == ZipEntry.STORED) {
-                    ze.setCrc(crc.getValue());
-                    ze.setMethod(zipMethod);
+                    ze.setCompressedSize(inE.getSize());
+                    ze.setCrc(crc);
+                    ze.setMethod(ZipEntry.STORED);
                 }
 
+                // Stream the entry rather than holding it in memory, assets can be large
                 zipOut.putNextEntry(ze);
-                zipOut.write(entryData);
+                try (InputStream stream = zipFileIn.getInputStream(inE)) {
+                    IOUtils.copy(stream, zipOut);
+                }
                 zipOut.closeEntry();
             }
 
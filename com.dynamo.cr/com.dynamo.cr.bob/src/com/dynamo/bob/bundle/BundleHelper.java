@@ -575,7 +575,9 @@ public class BundleHelper {
                 if (!inResource.exists()) {
                     throw new IOException(String.format("%s does not exist.", resource));
                 }
-                FileUtils.writeByteArrayToFile(outFile, inResource.getContent());
+                try (InputStream is = inResource.openInputStream()) {
+                    FileUtils.copyInputStreamToFile(is, outFile);
+                }
                 return;
             }
         }
@@ -601,7 +603,9 @@ public class BundleHelper {
             if (!largestIconRes.exists()) {
                 throw new IOException("Could not find resource: " + largestIcon);
             }
-            FileUtils.writeByteArrayToFile(largestIconFile, largestIconRes.getContent());
+            try (InputStream is = largestIconRes.openInputStream()) {
+                FileUtils.copyInputStreamToFile(is, largestIconFile);
+            }
         } else {
             URL defaultIconURL = getClass().getResource("resources/ios/default_icon.png");
             FileUtils.writeByteArrayToFile(largestIconFile, IOUtils.toByteArray(defaultIconURL));
@@ -12,7 +12,6 @@
 
 package com.dynamo.bob.bundle;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
@@ -20,8 +19,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
-import java.io.OutputStream;
-import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -254,7 +251,9 @@ public class IOSBundler implements IBundler {
                         Files.createDirectories(parentDir.toPath());
                     }
 
-                    FileUtils.writeByteArrayToFile(target, r.getContent());
+                    try (InputStream is = r.openInputStream()) {
+                        FileUtils.copyInputStreamToFile(is, target);
+                    }
                 } catch (IOException e) {
                     logger.log(Level.SEVERE, String.format("Failed copying %s to %s\n", r.getPath(), target));
                     throw e;
@@ -369,11 +368,9 @@ public class IOSBundler implements IBundler {
             // If an override entitlements has been set, use that custom entitlements file directly instead of trying to merge it.
             if (overrideEntitlementsProperty) {
                 IResource customEntitlementsResource = project.getResource(customEntitlementsProperty);
-                InputStream is = new ByteArrayInputStream(customEntitlementsResource.getContent());
-                OutputStream outStream = new FileOutputStream(entitlementOut);
-                byte[] buffer = new byte[is.available()];
-                is.read(buffer);
-                outStream.write(buffer);
+                try (InputStream is = customEntitlementsResource.openInputStream()) {
+                    FileUtils.copyInputStreamToFile(is, entitlementOut);
+                }
             } else {
                 try {
                     XMLPropertyListConfiguration customEntitlements = new XMLPropertyListConfiguration();
@@ -385,8 +382,9 @@ public class IOSBundler implements IBundler {
                     if (customEntitlementsProperty != null && customEntitlementsProperty.length() > 0) {
                         IResource customEntitlementsResource = project.getResource(customEntitlementsProperty);
                         if (customEntitlementsResource.exists()) {
-                            InputStream is = new ByteArrayInputStream(customEntitlementsResource.getContent());
-                            customEntitlements.read(new InputStreamReader(is));
+                            try (InputStream is = customEntitlementsResource.openInputStream()) {
+                                customEntitlements.read(new InputStreamReader(is));
+                            }
 
                             Iterator<String> keys = customEntitlements.getKeys();
                             while (keys.hasNext()) {
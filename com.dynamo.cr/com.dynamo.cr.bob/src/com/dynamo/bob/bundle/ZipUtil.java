@@ -1,15 +1,12 @@
 package com.dynamo.bob.bundle;
 
 import java.io.File;
-import java.io.InputStream;
 import java.io.IOException;
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
-import java.io.FileInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
-import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -38,48 +35,21 @@ public class ZipUtil {
 
 		ZipEntry ze = new ZipEntry(filePath);
 		ze.setSize(fileSize);
-		byte[] entryData = null;
-		CRC32 crc = null;
 
 		// Some files need to be STORED instead of DEFLATED to
 		// get "correct" memory mapping at runtime.
-		int zipMethod = ZipEntry.DEFLATED;
 		boolean isAsset = filePath.startsWith("assets");
 		if (isAsset) {
 			// Set up an uncompressed file, unfortunately need to calculate crc32 and other data for this to work.
 			// https://blogs.oracle.com/CoreJavaTechTips/entry/creating_zip_and_jar_files
-			crc = new CRC32();
-			zipMethod = ZipEntry.STORED;
+			// The file is read twice rather than held in memory, assets can be large
 			ze.setCompressedSize(fileSize);
-		}
-
-		ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-		try {
-			if (fileSize > 0) {
-				int count;
-				entryData = new byte[(int) fileSize];
-				InputStream stream = new FileInputStream(file);
-				while((count = stream.read(entryData, 0, (int)fileSize)) != -1) {
-					byteOut.write(entryData, 0, count);
-					if (zipMethod == ZipEntry.STORED) {
-						crc.update(entryData, 0, count);
-					}
-				}
-			}
-		} finally {
-			if(null != byteOut) {
-				byteOut.close();
-				entryData = byteOut.toByteArray();
-			}
-		}
-
-		if (zipMethod == ZipEntry.STORED) {
-			ze.setCrc(crc.getValue());
-			ze.setMethod(zipMethod);
+			ze.setCrc(FileUtils.checksumCRC32(file));
+			ze.setMethod(ZipEntry.STORED);
 		}
 
 		zipOut.putNextEntry(ze);
-		zipOut.write(entryData);
+		FileUtils.copyFile(file, zipOut);
 		zipOut.closeEntry();
 	}
 
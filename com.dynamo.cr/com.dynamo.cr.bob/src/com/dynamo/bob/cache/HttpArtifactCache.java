@@ -0,0 +1,88 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Artifact cache on a HTTP server. Entries are fetched with GET and stored
+ * with PUT on {@code <url>/<key>}. A 404 response is a cache miss.
+ */
+public class HttpArtifactCache implements IArtifactCache {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final String url;
+
+    public HttpArtifactCache(String url) {
+        this.url = url.endsWith("/") ? url : url + "/";
+    }
+
+    private HttpURLConnection open(String key) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + key).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        HttpURLConnection connection = open(key);
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            } else if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Unable to get '%s' from artifact cache: %d %s", key, code, connection.getResponseMessage()));
+            }
+            InputStream input = connection.getInputStream();
+            try {
+                return IOUtils.toByteArray(input);
+            } finally {
+                IOUtils.closeQuietly(input);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        HttpURLConnection connection = open(key);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(content.length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(content);
+            } finally {
+                IOUtils.closeQuietly(output);
+            }
+            int code = connection.getResponseCode();
+            if (code / 100 != 2) {
+                throw new IOException(String.format("Unable to put '%s' in artifact cache: %d %s", key, code, connection.getResponseMessage()));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
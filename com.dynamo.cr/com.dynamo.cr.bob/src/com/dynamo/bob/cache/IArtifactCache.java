@@ -0,0 +1,40 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.IOException;
+
+/**
+ * Content addressed cache of build outputs. Entries are keyed on a digest of
+ * the task signature and the output path, see {@link com.dynamo.bob.Task#calculateSignature(com.dynamo.bob.Project)}.
+ * Since the key covers everything affecting the output, entries are never
+ * invalidated and can be shared between checkouts and machines.
+ */
+public interface IArtifactCache {
+
+    /**
+     * Get cached content
+     * @param key entry key, hex encoded digest
+     * @return content or null if the entry doesn't exist
+     * @throws IOException
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Put content in cache. Existing entries are overwritten.
+     * @param key entry key, hex encoded digest
+     * @param content content to store
+     * @throws IOException
+     */
+    void put(String key, byte[] content) throws IOException;
+}
@@ -0,0 +1,65 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Artifact cache stored in a local directory, e.g. on a shared drive.
+ * Entries are stored in sub directories named by the first two characters of the key.
+ */
+public class LocalArtifactCache implements IArtifactCache {
+
+    private final File directory;
+
+    public LocalArtifactCache(File directory) {
+        this.directory = directory;
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        // Write to a temporary file first so that concurrent readers never see a partial entry
+        Path tmp = Files.createTempFile(dir.toPath(), key, ".tmp");
+        try {
+            Files.write(tmp, content);
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -57,6 +58,14 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
         return buildDirectory;
     }
 
+    @Override
+    public void prehash(Collection<IResource> resources, ExecutorService executor) throws IOException {
+    }
+
+    @Override
+    public void invalidate(String path) {
+    }
+
     @Override
     public void addMountPoint(IMountPoint mountPoint) throws IOException {
         mountPoint.mount();
@@ -14,7 +14,15 @@ package com.dynamo.bob.fs;
 
 import static org.apache.commons.io.FilenameUtils.concat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -45,20 +53,77 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
 
     @Override
     public byte[] sha1() throws IOException {
-        byte[] content = getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
-        }
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        InputStream is;
+        try {
+            is = openInputStream();
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
+        }
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                sha1.update(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
         return sha1.digest();
     }
 
+    /**
+     * Default implementation, reads all content, override when the resource can be streamed
+     */
+    @Override
+    public InputStream openInputStream() throws IOException {
+        byte[] content = getContent();
+        if (content == null) {
+            throw new FileNotFoundException(String.format("Resource '%s' is not created", path));
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        return Channels.newChannel(openInputStream());
+    }
+
+    /**
+     * Default implementation, reads all content, override when the resource can be mapped
+     */
+    @Override
+    public ByteBuffer map() throws IOException {
+        byte[] content = getContent();
+        if (content == null) {
+            throw new FileNotFoundException(String.format("Resource '%s' is not created", path));
+        }
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    /**
+     * Default implementation, buffers all content and sets it when the stream is closed
+     */
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+        return new ByteArrayOutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    setContent(toByteArray());
+                }
+            }
+        };
+    }
+
     @Override
     public String getAbsPath() {
         return concat(fileSystem.getRootDirectory(), path);
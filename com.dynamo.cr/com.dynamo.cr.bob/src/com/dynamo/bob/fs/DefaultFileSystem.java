@@ -14,31 +14,75 @@ package com.dynamo.bob.fs;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.util.BuildTrace;
+
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
-    static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
-        long mTime;
-        byte[] sha1;
+    private static final int CACHE_MAGIC = 0x42444743; // "BDGC"
+    private static final int CACHE_VERSION = 1;
+    private static final int SHA1_SIZE = 20;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // A cached digest is valid as long as size, modification time and file key (inode) are unchanged
+    static class CacheEntry {
+        final long size;
+        final long mTime;
+        final String fileKey;
+        final byte[] sha1;
+
+        CacheEntry(long size, long mTime, String fileKey, byte[] sha1) {
+            this.size = size;
+            this.mTime = mTime;
+            this.fileKey = fileKey;
+            this.sha1 = sha1;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                && mTime == attributes.lastModifiedTime().toMillis()
+                && fileKey.equals(fileKey(attributes));
+        }
     }
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    private static final ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        }
+    };
+
+    // Accessed concurrently when building with more than one job
+    private Map<String, CacheEntry> cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
 
     @Override
     public IResource get(String path) {
@@ -52,48 +96,112 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
         return new DefaultResource(this, path);
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
-        }
+    private static String fileKey(BasicFileAttributes attributes) {
+        // Not all platforms provide a file key, e.g. Windows
+        return Objects.toString(attributes.fileKey(), "");
+    }
+
+    private static byte[] calcSha1(Path path) throws IOException {
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        // Stream the content through the digest rather than reading the whole file onto the heap
+        ByteBuffer buffer = readBuffer.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            int n;
+            while ((n = channel.read(buffer)) != -1) {
+                BuildTrace.addBytesRead(n);
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        }
         return sha1.digest();
     }
 
     byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
+        Path path = new File(resource.getAbsPath()).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+        }
+
         CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
+        if (e != null && e.matches(attributes)) {
             return e.sha1;
         } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
+            e = new CacheEntry(attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes), calcSha1(path));
             cache.put(resource.getPath(), e);
             return e.sha1;
         }
     }
 
-    @SuppressWarnings("unchecked")
+    @Override
+    public void prehash(Collection<IResource> resources, ExecutorService executor) throws IOException {
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(resources.size());
+        for (final IResource resource : resources) {
+            if (resource instanceof DefaultResource && resource.exists()) {
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return sha1((DefaultResource) resource);
+                    }
+                }));
+            }
+        }
+        for (Future<byte[]> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while hashing resources", e);
+            } catch (ExecutionException e) {
+                // Reported by the task using the resource
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(String path) {
+        if (path.startsWith("/"))
+            path = path.substring(1);
+        cache.remove(path);
+    }
+
+    private String getCacheFileName() {
+        return FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
+    }
+
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectInputStream is = null;
+        cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+        DataInputStream is = null;
         try {
-            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
-            is.close();
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(getCacheFileName())));
+            if (is.readInt() != CACHE_MAGIC || is.readInt() != CACHE_VERSION) {
+                return;
+            }
+            int count = is.readInt();
+            Map<String, CacheEntry> loaded = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>(count);
+            for (int i = 0; i < count; ++i) {
+                String path = is.readUTF();
+                long size = is.readLong();
+                long mTime = is.readLong();
+                String fileKey = is.readUTF();
+                byte[] sha1 = new byte[SHA1_SIZE];
+                is.readFully(sha1);
+                loaded.put(path, new CacheEntry(size, mTime, fileKey, sha1));
+            }
+            cache = loaded;
         } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
         } finally {
             IOUtils.closeQuietly(is);
         }
@@ -101,11 +209,21 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
 
     @Override
     public void saveCache() {
-        String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
-        ObjectOutputStream os = null;
+        DataOutputStream os = null;
         try {
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
-            os.writeObject(cache);
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getCacheFileName())));
+            List<Map.Entry<String, CacheEntry>> entries = new ArrayList<Map.Entry<String, CacheEntry>>(cache.entrySet());
+            os.writeInt(CACHE_MAGIC);
+            os.writeInt(CACHE_VERSION);
+            os.writeInt(entries.size());
+            for (Map.Entry<String, CacheEntry> entry : entries) {
+                CacheEntry e = entry.getValue();
+                os.writeUTF(entry.getKey());
+                os.writeLong(e.size);
+                os.writeLong(e.mTime);
+                os.writeUTF(e.fileKey);
+                os.write(e.sha1);
+            }
         } catch (IOException e) {
         } finally {
             IOUtils.closeQuietly(os);
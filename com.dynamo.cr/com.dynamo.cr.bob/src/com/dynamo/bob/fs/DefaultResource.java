@@ -16,13 +16,21 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
+import com.dynamo.bob.util.BuildTrace;
+
 public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
     public DefaultResource(DefaultFileSystem fileSystem, String path) {
@@ -39,6 +47,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         BufferedInputStream is = new BufferedInputStream(new FileInputStream(f));
         try {
             is.read(buf);
+            BuildTrace.addBytesRead(buf.length);
             return buf;
         } finally {
             is.close();
@@ -59,11 +68,71 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(f));
         try {
             os.write(content);
+            BuildTrace.addBytesWritten(content.length);
         } finally {
             os.close();
         }
     }
 
+    private File getExistingFile() throws FileNotFoundException {
+        File f = new File(getAbsPath());
+        if (!f.isFile()) {
+            throw new FileNotFoundException(String.format("Resource '%s' is not created", path));
+        }
+        return f;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        File f = getExistingFile();
+        BuildTrace.addBytesRead(f.length());
+        return new FileInputStream(f);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        File f = getExistingFile();
+        BuildTrace.addBytesRead(f.length());
+        return FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    }
+
+    @Override
+    public ByteBuffer map() throws IOException {
+        File f = getExistingFile();
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            BuildTrace.addBytesRead(size);
+            if (size == 0) {
+                return ByteBuffer.allocate(0).asReadOnlyBuffer();
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+        final File f = new File(getAbsPath());
+        if (!f.exists()) {
+            File dirFile = f.getParentFile();
+            if (dirFile != null && !dirFile.exists()) {
+                dirFile.mkdirs();
+            }
+        }
+        return new BufferedOutputStream(new FileOutputStream(f), 64 * 1024) {
+            @Override
+            public void write(int b) throws IOException {
+                super.write(b);
+                BuildTrace.addBytesWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                super.write(b, off, len);
+                BuildTrace.addBytesWritten(len);
+            }
+        };
+    }
+
     @Override
     public void setContent(InputStream stream) throws IOException {
         File f = new File(getAbsPath());
@@ -77,6 +146,7 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
 
         try {
             FileUtils.copyInputStreamToFile(stream, f);
+            BuildTrace.addBytesWritten(f.length());
         } finally {
             stream.close();
         }
@@ -14,6 +14,7 @@ package com.dynamo.bob.fs;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Abstract file-system
@@ -87,6 +88,21 @@ public interface IFileSystem {
      */
     public void saveCache();
 
+    /**
+     * Calculate and cache the signatures of resources in parallel (optionally).
+     * Resources that can't be hashed are ignored.
+     * @param resources resources to hash
+     * @param executor executor to hash the resources on
+     * @throws IOException
+     */
+    public void prehash(Collection<IResource> resources, ExecutorService executor) throws IOException;
+
+    /**
+     * Remove the cached signature of a resource (optionally), e.g. when the resource is known to have changed.
+     * @param path root relative path of the resource
+     */
+    public void invalidate(String path);
+
     /**
      * Add a mount point to the file system, e.g. a zip archive or Java class loader.
      * @param mountPoint mount point to add
@@ -14,6 +14,9 @@ package com.dynamo.bob.fs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 
 /**
@@ -38,6 +41,42 @@ public interface IResource {
      */
     byte[] getContent() throws IOException;
 
+    /**
+     * Open a stream for reading the content of the resource without
+     * reading it all into memory. The caller must close the stream.
+     * @return input stream
+     * @throws IOException if the resource doesn't exist
+     */
+    InputStream openInputStream() throws IOException;
+
+    /**
+     * Open a channel for reading the content of the resource. The caller
+     * must close the channel.
+     * @return channel
+     * @throws IOException if the resource doesn't exist
+     */
+    ReadableByteChannel openChannel() throws IOException;
+
+    /**
+     * Get the content of the resource as a read-only buffer. File resources
+     * are memory mapped, i.e. the content is not copied onto the heap.
+     * @note a mapped file can't be removed or replaced on some platforms, e.g. Windows,
+     * until the buffer has been garbage collected. Use {@link #openChannel()}
+     * for resources that will be written during the build.
+     * @return read-only buffer
+     * @throws IOException if the resource doesn't exist
+     */
+    ByteBuffer map() throws IOException;
+
+    /**
+     * Open a stream for writing the content of the resource. The content
+     * is replaced when the stream is closed.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @return output stream
+     * @throws IOException
+     */
+    OutputStream openOutputStream() throws IOException;
+
     /**
      * Set content for resource. #
      * @note only valid operation for output-resources, see {@link IResource#output()}
@@ -28,6 +28,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.fs.IFileSystem.IWalker;
+import com.dynamo.bob.util.BuildTrace;
 import com.dynamo.bob.util.LibraryUtil;
 
 public class ZipMountPoint implements IMountPoint {
@@ -54,12 +55,19 @@ public class ZipMountPoint implements IMountPoint {
                 ByteArrayOutputStream os = new ByteArrayOutputStream((int)this.entry.getSize());
                 is = file.getInputStream(this.entry);
                 IOUtils.copy(is, os);
+                BuildTrace.addBytesRead(os.size());
                 return os.toByteArray();
             } finally {
                 IOUtils.closeQuietly(is);
             }
         }
 
+        @Override
+        public InputStream openInputStream() throws IOException {
+            BuildTrace.addBytesRead(this.entry.getSize());
+            return file.getInputStream(this.entry);
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
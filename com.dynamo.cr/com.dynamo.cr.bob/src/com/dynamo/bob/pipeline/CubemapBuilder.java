@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.pipeline;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -68,26 +69,27 @@ public class CubemapBuilder extends Builder<Void> {
 
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
 
-        TextureImage[] textures = new TextureImage[6];
+        TextureImage[] textures;
         try {
+            BufferedImage[] images = new BufferedImage[6];
             for (int i = 0; i < 6; i++) {
-                ByteArrayInputStream is = new ByteArrayInputStream(task.input(i + 1).getContent());
-                boolean compress = project.option("texture-compression", "false").equals("true");
-                // NOTE: Cubemap sides should not have a flipped Y axis (as opposed to any other texture).
-                // I could only find tidbits of information regarding this online, as far as I understand
-                // it is not explained in the OGL spec or cubemap extension either.
-                // However, most suggest that the origin of cubemap sides are upper left as opposed to lower left
-                // like this SO answer suggest;
-                //   "Cube Maps have been specified to follow the RenderMan specification (for whatever reason),
-                //    and RenderMan assumes the images' origin being in the upper left, contrary to the usual
-                //    OpenGL behaviour of having the image origin in the lower left."
-                // Source: https://stackoverflow.com/a/11690553/129360
-                //
-                // So for cube map textures we don't flip on any axis, meaning the texture data begin at the
-                // upper left corner of the input image.
-                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class));
-                textures[i] = texture;
+                images[i] = TextureGenerator.readImage(new ByteArrayInputStream(task.input(i + 1).getContent()));
             }
+            boolean compress = project.option("texture-compression", "false").equals("true");
+            // NOTE: Cubemap sides should not have a flipped Y axis (as opposed to any other texture).
+            // I could only find tidbits of information regarding this online, as far as I understand
+            // it is not explained in the OGL spec or cubemap extension either.
+            // However, most suggest that the origin of cubemap sides are upper left as opposed to lower left
+            // like this SO answer suggest;
+            //   "Cube Maps have been specified to follow the RenderMan specification (for whatever reason),
+            //    and RenderMan assumes the images' origin being in the upper left, contrary to the usual
+            //    OpenGL behaviour of having the image origin in the lower left."
+            // Source: https://stackoverflow.com/a/11690553/129360
+            //
+            // So for cube map textures we don't flip on any axis, meaning the texture data begin at the
+            // upper left corner of the input image.
+            // The sides are encoded concurrently.
+            textures = TextureGenerator.generate(images, texProfile, compress, EnumSet.noneOf(FlipAxis.class), project.getTextureTiming(task.input(0).getPath()));
             validate(task, textures);
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
@@ -17,10 +17,15 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -38,6 +43,7 @@ import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.error.YAMLException;
 
@@ -186,6 +192,26 @@ public class ExtenderUtil {
 		public void setContent(byte[] content) throws IOException {
 		}
 
+		@Override
+		public InputStream openInputStream() throws IOException {
+			return new ByteArrayInputStream(getContent());
+		}
+
+		@Override
+		public ReadableByteChannel openChannel() throws IOException {
+			return Channels.newChannel(openInputStream());
+		}
+
+		@Override
+		public ByteBuffer map() throws IOException {
+			return ByteBuffer.wrap(getContent()).asReadOnlyBuffer();
+		}
+
+		@Override
+		public OutputStream openOutputStream() throws IOException {
+			return new NullOutputStream();
+		}
+
 		@Override
 		public byte[] sha1() throws IOException {
             byte[] content = getContent();
@@ -34,11 +34,17 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
@@ -48,6 +54,7 @@ import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveSplit;
 import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.fs.IResource;
@@ -76,7 +83,6 @@ import com.dynamo.lua.proto.Lua.LuaModule;
 import com.dynamo.model.proto.ModelProto.Model;
 import com.dynamo.particle.proto.Particle.ParticleFX;
 import com.dynamo.physics.proto.Physics.CollisionObjectDesc;
-import com.dynamo.proto.DdfExtensions;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Material.MaterialDesc;
 import com.dynamo.render.proto.Render.DisplayProfiles;
@@ -89,12 +95,10 @@ import com.dynamo.spine.proto.Spine.SpineModelDesc;
 import com.dynamo.sprite.proto.Sprite.SpriteDesc;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.tile.proto.Tile.TileGrid;
-import com.google.protobuf.DescriptorProtos.FieldOptions;
-import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.GeneratedMessage;
 import com.google.protobuf.Message;
 
-@BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000)
+@BuilderParams(name = "GameProjectBuilder", inExts = ".project", outExt = "", createOrder = 1000, cacheOutputs = false)
 public class GameProjectBuilder extends Builder<Void> {
 
     private static Map<String, Class<? extends GeneratedMessage>> extToMessageClass = new HashMap<String, Class<? extends GeneratedMessage>>();
@@ -144,6 +148,20 @@ public class GameProjectBuilder extends Builder<Void> {
         leafResourceTypes.add(".bufferc");
     }
 
+    // Default instances of the message classes, used to parse outputs without looking up their builders
+    private static Map<String, Message> extToMessagePrototype = new HashMap<String, Message>();
+
+    static {
+        for (Map.Entry<String, Class<? extends GeneratedMessage>> entry : extToMessageClass.entrySet()) {
+            try {
+                Method getDefaultInstance = entry.getValue().getDeclaredMethod("getDefaultInstance");
+                extToMessagePrototype.put(entry.getKey(), (Message) getDefaultInstance.invoke(null));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     private RandomAccessFile createRandomAccessFile(File handle) throws IOException {
         handle.deleteOnExit();
         RandomAccessFile file = new RandomAccessFile(handle, "rw");
@@ -228,9 +246,26 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
-    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
-        String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
-        ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder);
+    // Settings shared by the main archive and the split archives
+    private void configureArchiveBuilder(ArchiveBuilder archiveBuilder, ResourceNode rootNode) throws CompileExceptionError {
+        // Trade archive size for build time in debug builds
+        String defaultCompression = project.option("variant", Bob.VARIANT_RELEASE).equals(Bob.VARIANT_DEBUG) ? "fast" : "high";
+        archiveBuilder.setFastCompression(project.option("archive-compression", defaultCompression).equals("fast"));
+        if (project.option("archive-layout", "default").equals("load-order")) {
+            archiveBuilder.setLoadOrder(rootNode);
+        }
+        archiveBuilder.setPerfectHash(project.hasOption("archive-perfect-hash"));
+        if (project.hasOption("archive-page-align")) {
+            String pageSize = project.option("archive-page-size", Integer.toString(ArchiveBuilder.PAGE_SIZE));
+            try {
+                archiveBuilder.setDataAlignment(Integer.parseInt(pageSize));
+            } catch (IllegalArgumentException e) {
+                throw new CompileExceptionError("Invalid archive page size '" + pageSize + "'", e);
+            }
+        }
+    }
+
+    private void addArchiveEntries(ArchiveBuilder archiveBuilder, Collection<String> resources) throws IOException {
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
         HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
 
@@ -239,6 +274,16 @@ public class GameProjectBuilder extends Builder<Void> {
             boolean compress = (flags != null && flags.contains(Project.OutputFlags.UNCOMPRESSED)) ? false : doCompress;
             archiveBuilder.add(s, compress);
         }
+    }
+
+    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, ResourceNode rootNode, List<String> excludedResources, Path resourcePackDirectory, IResource previousArchiveIndex, IResource previousArchiveData) throws IOException, CompileExceptionError {
+        String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
+        ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder);
+        // Copy entries that are unchanged since the previous build from the previous archive
+        archiveBuilder.setArchiveCache(new File(FilenameUtils.concat(root, "archive_cache")), new File(previousArchiveIndex.getAbsPath()), new File(previousArchiveData.getAbsPath()));
+        archiveBuilder.setCompressionStats(new File(FilenameUtils.concat(root, "archive_compression")));
+        configureArchiveBuilder(archiveBuilder, rootNode);
+        addArchiveEntries(archiveBuilder, resources);
 
         archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
         manifestBuilder.setArchiveIdentifier(archiveBuilder.getArchiveIndexHash());
@@ -253,97 +298,150 @@ public class GameProjectBuilder extends Builder<Void> {
         }
     }
 
-    private static void findResources(Project project, Message node, Collection<String> resources) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                findResources(project, (Message) value, resources);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        findResources(project, (Message) v, resources);
-                    } else if (isResource && v instanceof String) {
-                        findResources(project, project.getResource((String) v), resources);
-                    }
+    /*  Get the collection proxies to write archives of their own for, from
+        the comma separated list of proxies in option 'archive-split'. The
+        proxy paths may refer to the source or the built proxy, and 'excluded'
+        adds the proxies excluded from the bundle.
+    */
+    private List<String> getSplitProxies(List<String> excludedResources) {
+        List<String> proxies = new ArrayList<String>();
+        for (String proxy : project.option("archive-split", "").split(",")) {
+            proxy = proxy.trim();
+            if (proxy.equals("excluded")) {
+                proxies.addAll(excludedResources);
+            } else if (proxy.length() > 0) {
+                if (!proxy.startsWith("/")) {
+                    proxy = "/" + proxy;
                 }
-            } else if (isResource && value instanceof String) {
-                findResources(project, project.getResource((String) value), resources);
+                proxies.add(BuilderUtil.replaceExt(proxy, ".collectionproxy", ".collectionproxyc"));
             }
         }
+        return proxies;
     }
 
-    /*  Adds unique resources to list 'resources'. Each resource should once occur
-        once in the list regardless if the resource appears in several collections
-        or collectionproxies.
+    /*  The split archives are written to the archives directory of the build
+        directory. They aren't outputs of the task, so the directory is
+        removed on every archive build, also when no proxy is split.
     */
-    private static void findResources(Project project, IResource resource, Collection<String> resources) throws CompileExceptionError {
-        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
-            return;
+    private File getSplitArchivesDirectory() {
+        String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
+        return new File(FilenameUtils.concat(root, "archives"));
+    }
+
+    /*  Write an archive per split collection proxy, and one for the resources
+        shared between the proxies, to the archives directory of the build
+        directory. See ArchiveSplit for which resources go where. The archives
+        are written concurrently, with each other and with the main archive.
+    */
+    private List<Future<Void>> submitSplitArchives(ExecutorService executor, ResourceNode rootNode, Collection<String> resources, HashAlgorithm hashAlgorithm, List<String> splitProxies) throws IOException, CompileExceptionError {
+        String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
+        File directory = getSplitArchivesDirectory();
+
+        ArchiveSplit split = new ArchiveSplit(rootNode, splitProxies);
+        List<String> groups = split.getGroups();
+        // Share the cores between the split archives
+        int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, groups.size()));
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (String group : groups) {
+            ManifestBuilder manifestBuilder = new ManifestBuilder();
+            manifestBuilder.setResourceHashAlgorithm(hashAlgorithm);
+            final ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder, threadCount);
+            configureArchiveBuilder(archiveBuilder, rootNode);
+            List<String> entries = new ArrayList<String>();
+            for (String path : split.getResources(group)) {
+                if (resources.contains(path)) {
+                    entries.add(path);
+                }
+            }
+            addArchiveEntries(archiveBuilder, entries);
+
+            final File indexFile = new File(directory, ArchiveSplit.getArchiveName(group) + ".arci");
+            final File dataFile = new File(directory, ArchiveSplit.getArchiveName(group) + ".arcd");
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    indexFile.getParentFile().mkdirs();
+                    RandomAccessFile archiveIndex = new RandomAccessFile(indexFile, "rw");
+                    RandomAccessFile archiveData = new RandomAccessFile(dataFile, "rw");
+                    try {
+                        archiveIndex.setLength(0);
+                        archiveData.setLength(0);
+                        // Nothing is excluded, so no resource pack is written
+                        archiveBuilder.write(archiveIndex, archiveData, null, new ArrayList<String>());
+                    } finally {
+                        IOUtils.closeQuietly(archiveIndex);
+                        IOUtils.closeQuietly(archiveData);
+                    }
+                    return null;
+                }
+            }));
         }
+        return futures;
+    }
 
-        resources.add(resource.output().getAbsPath());
+    private static void waitForSplitArchives(List<Future<Void>> futures) throws IOException {
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing split archives", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Unable to write split archive", cause);
+            }
+        }
+    }
 
+    /*  Get the resources referenced by a resource, or null if the resource
+        doesn't reference other resources. The output is parsed once and the
+        references are kept in the reference table of the project.
+    */
+    private static String[] getReferences(Project project, IResource resource) throws CompileExceptionError {
         int i = resource.getPath().lastIndexOf(".");
         if (i == -1) {
-            return;
+            return null;
         }
         String ext = resource.getPath().substring(i);
 
         if (leafResourceTypes.contains(ext)) {
-            return;
+            return null;
         }
 
-        Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
-            try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                findResources(project, (Message) message, resources);
-            } catch(CompileExceptionError e) {
-                throw e;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            }
-        } else {
+        Message prototype = extToMessagePrototype.get(ext);
+        if (prototype == null) {
             throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
         }
+        try {
+            IResource output = resource.output();
+            String[] references = project.getResourceReferences().getReferences(output, project.getOutputSignature(output.getAbsPath()), prototype);
+            if (references == null) {
+                throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
+            }
+            return references;
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    private static void buildResourceGraph(Project project, Message node, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                buildResourceGraph(project, (Message) value, parentNode, visitedNodes);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        buildResourceGraph(project, (Message) v, parentNode, visitedNodes);
-                    } else if (isResource && v instanceof String) {
-                        buildResourceGraph(project, project.getResource((String) v), parentNode, visitedNodes);
-                    }
-                }
-            } else if (isResource && value instanceof String) {
-                buildResourceGraph(project, project.getResource((String) value), parentNode, visitedNodes);
+    /*  Adds unique resources to list 'resources'. Each resource should once occur
+        once in the list regardless if the resource appears in several collections
+        or collectionproxies.
+    */
+    private static void findResources(Project project, IResource resource, Collection<String> resources) throws CompileExceptionError {
+        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
+            return;
+        }
+
+        resources.add(resource.output().getAbsPath());
+
+        String[] references = getReferences(project, resource);
+        if (references != null) {
+            for (String reference : references) {
+                findResources(project, project.getResource(reference), resources);
             }
         }
     }
@@ -367,36 +465,11 @@ public class GameProjectBuilder extends Builder<Void> {
         ResourceNode currentNode = new ResourceNode(resource.getPath(), resource.output().getAbsPath());
         parentNode.addChild(currentNode);
 
-        int i = resource.getPath().lastIndexOf(".");
-        if (i == -1) {
-            return;
-        }
-        String ext = resource.getPath().substring(i);
-
-        if (leafResourceTypes.contains(ext)) {
-            return;
-        }
-
-        Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
-            try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                buildResourceGraph(project, (Message) message, currentNode, visitedNodes);
-            } catch(CompileExceptionError e) {
-                throw e;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
+        String[] references = getReferences(project, resource);
+        if (references != null) {
+            for (String reference : references) {
+                buildResourceGraph(project, project.getResource(reference), currentNode, visitedNodes);
             }
-        } else {
-            throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
         }
     }
 
@@ -532,6 +605,8 @@ public class GameProjectBuilder extends Builder<Void> {
         FileInputStream archiveDataInputStream = null;
         FileInputStream resourcePackInputStream = null;
         FileInputStream publicKeyInputStream = null;
+        ExecutorService splitExecutor = null;
+        List<Future<Void>> splitArchives = new ArrayList<Future<Void>>();
 
         IResource input = task.input(0);
 
@@ -561,7 +636,14 @@ public class GameProjectBuilder extends Builder<Void> {
                 File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
                 RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
-                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
+                List<String> splitProxies = getSplitProxies(excludedResources);
+                FileUtils.deleteDirectory(getSplitArchivesDirectory());
+                if (!splitProxies.isEmpty()) {
+                    splitExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(splitProxies.size() + 1, Runtime.getRuntime().availableProcessors())));
+                    splitArchives = submitSplitArchives(splitExecutor, rootNode, resources, manifestBuilder.getResourceHashAlgorithm(), splitProxies);
+                }
+                createArchive(resources, archiveIndex, archiveData, manifestBuilder, rootNode, excludedResources, resourcePackDirectory, task.getOutputs().get(1), task.getOutputs().get(2));
+                waitForSplitArchives(splitArchives);
 
                 // Create manifest
                 byte[] manifestFile = manifestBuilder.buildManifest();
@@ -602,6 +684,9 @@ public class GameProjectBuilder extends Builder<Void> {
             transformGameProjectFile(properties);
             task.getOutputs().get(0).setContent(properties.serialize().getBytes());
         } finally {
+            if (splitExecutor != null) {
+                splitExecutor.shutdownNow();
+            }
             IOUtils.closeQuietly(archiveIndexInputStream);
             IOUtils.closeQuietly(archiveDataInputStream);
             IOUtils.closeQuietly(resourcePackInputStream);
@@ -74,8 +74,9 @@ public class ProtoBuilders {
         return out;
     }
 
+    // Excludes the proxy from the bundle when built, which can't be fetched from the artifact cache
     @ProtoParams(messageClass = CollectionProxyDesc.class)
-    @BuilderParams(name="CollectionProxy", inExts=".collectionproxy", outExt=".collectionproxyc")
+    @BuilderParams(name="CollectionProxy", inExts=".collectionproxy", outExt=".collectionproxyc", cacheOutputs = false)
     public static class CollectionProxyBuilder extends ProtoBuilder<CollectionProxyDesc.Builder> {
         @Override
         protected CollectionProxyDesc.Builder transform(Task<Void> task, IResource resource, CollectionProxyDesc.Builder messageBuilder) throws CompileExceptionError {
@@ -0,0 +1,136 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.proto.DdfExtensions;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Table of the resources referenced by each output, i.e. the values of the
+ * message fields marked as resources. An output is parsed the first time
+ * its references are requested and the references are kept for as long as
+ * the signature of the output stays the same, also between builds of the
+ * same project.
+ */
+public class ResourceReferences {
+
+    private static final String[] NO_REFERENCES = new String[0];
+
+    private static class Entry {
+        final byte[] signature;
+        final String[] references;
+
+        Entry(byte[] signature, String[] references) {
+            this.signature = signature;
+            this.references = references;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    // Paths are referenced by many outputs, keep one copy of each
+    private final Map<String, String> paths = new HashMap<String, String>();
+    private int parseCount = 0;
+
+    private static boolean isResourceField(FieldDescriptor fieldDescriptor) {
+        return (Boolean) fieldDescriptor.getOptions().getField(DdfExtensions.resource.getDescriptor());
+    }
+
+    private void collectReferences(Message node, List<String> references) {
+        for (FieldDescriptor fieldDescriptor : node.getDescriptorForType().getFields()) {
+            boolean isResource = isResourceField(fieldDescriptor);
+            Object value = node.getField(fieldDescriptor);
+            if (value instanceof Message) {
+                collectReferences((Message) value, references);
+            } else if (value instanceof List) {
+                for (Object v : (List<?>) value) {
+                    if (v instanceof Message) {
+                        collectReferences((Message) v, references);
+                    } else if (isResource && v instanceof String) {
+                        references.add(intern((String) v));
+                    }
+                }
+            } else if (isResource && value instanceof String) {
+                references.add(intern((String) value));
+            }
+        }
+    }
+
+    private String intern(String path) {
+        String existing = paths.get(path);
+        if (existing == null) {
+            paths.put(path, path);
+            existing = path;
+        }
+        return existing;
+    }
+
+    /**
+     * Get the resources referenced by an output, in the order of the message fields
+     * @param output output resource
+     * @param signature signature of the task that produced the output, or null if unknown
+     * in which case the output is read to check if it has changed
+     * @param prototype message of the type of the output, e.g. the default instance
+     * @return referenced paths, or null if the output doesn't exist
+     * @throws IOException if the output can't be read or parsed
+     */
+    public synchronized String[] getReferences(IResource output, byte[] signature, Message prototype) throws IOException {
+        String path = output.getAbsPath();
+        byte[] content = null;
+        if (signature == null || signature.length == 0) {
+            content = output.getContent();
+            if (content == null) {
+                return null;
+            }
+            signature = DigestUtils.sha1(content);
+        }
+
+        Entry entry = entries.get(path);
+        if (entry != null && Arrays.equals(entry.signature, signature)) {
+            return entry.references;
+        }
+
+        if (content == null) {
+            content = output.getContent();
+            if (content == null) {
+                return null;
+            }
+        }
+        Message message = prototype.newBuilderForType().mergeFrom(content).build();
+        ++parseCount;
+        List<String> references = new ArrayList<String>();
+        collectReferences(message, references);
+        String[] result = references.isEmpty() ? NO_REFERENCES : references.toArray(new String[references.size()]);
+        entries.put(path, new Entry(signature, result));
+        return result;
+    }
+
+    /**
+     * Get the number of outputs parsed so far
+     * @return number of outputs parsed
+     */
+    public synchronized int getParseCount() {
+        return parseCount;
+    }
+}
@@ -12,9 +12,10 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
@@ -54,11 +55,10 @@ public class TextureBuilder extends Builder<Void> {
 
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
 
-        ByteArrayInputStream is = new ByteArrayInputStream(task.input(0).getContent());
         TextureImage texture;
-        try {
+        try (InputStream is = new BufferedInputStream(task.input(0).openInputStream())) {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(is, texProfile, compress);
+            texture = TextureGenerator.generate(is, texProfile, compress, project.getTextureTiming(task.input(0).getPath()));
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
@@ -69,10 +69,9 @@ public class TextureBuilder extends Builder<Void> {
             }
         }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
-        texture.writeTo(out);
-        out.close();
-        task.output(0).setContent(out.toByteArray());
+        try (OutputStream out = task.output(0).openOutputStream()) {
+            texture.writeTo(out);
+        }
     }
 
 }
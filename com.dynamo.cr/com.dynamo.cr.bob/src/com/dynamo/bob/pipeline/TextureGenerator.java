@@ -22,7 +22,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.EnumSet;
@@ -87,6 +98,51 @@ public class TextureGenerator {
         */
     }
 
+    // Images are encoded concurrently, one job per image and format, on a
+    // pool shared by all textures being built.
+    private static final int ENCODE_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService encodeExecutor = Executors.newFixedThreadPool(ENCODE_THREAD_COUNT, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "texture-encode-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // The memory used by the jobs in flight is bounded, in MiB, so that large
+    // textures encoded at once don't exhaust the memory. A job needing more
+    // than the whole budget runs alone.
+    private static final int ENCODE_MEMORY_BUDGET = (int) Math.max(64, Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024));
+    private static final Semaphore encodeMemory = new Semaphore(ENCODE_MEMORY_BUDGET, true);
+
+    /**
+     * Time spent generating a texture. The encode time is the sum of the time
+     * spent encoding each image, on any thread, and may exceed the total time.
+     */
+    public static class Timing {
+        private final AtomicLong encodeNanos = new AtomicLong();
+        private final AtomicInteger imageCount = new AtomicInteger();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getEncodeNanos() {
+            return encodeNanos.get();
+        }
+
+        /**
+         * @return number of images encoded, one per format and cubemap side
+         */
+        public int getImageCount() {
+            return imageCount.get();
+        }
+    }
+
     private static BufferedImage convertImage(BufferedImage origImage, int type) {
         BufferedImage image = new BufferedImage(origImage.getWidth(), origImage.getHeight(), type);
         Graphics2D g2d = image.createGraphics();
@@ -150,17 +206,11 @@ public class TextureGenerator {
         return targetFormat;
     }
 
-    private static TextureImage.Image generateFromColorAndFormat(BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-
+    // Read the pixels of an ABGR image as RGBA, once for all formats
+    private static ByteBuffer readPixels(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int componentCount = colorModel.getNumComponents();
-        Integer pixelFormat = PixelFormat.R8G8B8A8;
-        int texcCompressionLevel;
-        int texcCompressionType;
-
-        int dataSize = width * height * 4;
-        ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4);
 
         // On Linux we run out of memory while trying to load a 4K texture.
         // We split the pixel read out into blocks with 512 scan lines per block.
@@ -176,7 +226,27 @@ public class TextureGenerator {
         }
 
         buffer.flip();
-        Pointer texture = TexcLibrary.TEXC_Create(width, height, PixelFormat.R8G8B8A8, ColorSpace.SRGB, buffer);
+        return buffer;
+    }
+
+    // Rough estimate of the memory used to encode an image, in MiB: the source
+    // and the resized image with mip-maps in texc, and the encoded data
+    private static int estimateEncodeMemory(int width, int height) {
+        long pixels = Math.max((long) width * height, (long) TextureUtil.closestPOT(width) * TextureUtil.closestPOT(height));
+        long bytes = pixels * 4 * 4;
+        return (int) Math.min(ENCODE_MEMORY_BUDGET, Math.max(1, bytes >> 20));
+    }
+
+    private static TextureImage.Image generateFromColorAndFormat(ByteBuffer pixels, int width, int height, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+
+        Integer pixelFormat = PixelFormat.R8G8B8A8;
+        int texcCompressionLevel;
+        int texcCompressionType;
+        int dataSize;
+        ByteBuffer buffer;
+
+        // The pixels are shared by the jobs of the image, texc copies them
+        Pointer texture = TexcLibrary.TEXC_Create(width, height, PixelFormat.R8G8B8A8, ColorSpace.SRGB, pixels);
 
         // convert from protobuf specified compressionlevel to texc int
         texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
@@ -205,8 +275,8 @@ public class TextureGenerator {
 
         try {
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            int newWidth  = width;
+            int newHeight = height;
 
             newWidth = TextureUtil.closestPOT(newWidth);
             newHeight = TextureUtil.closestPOT(newHeight);
@@ -344,22 +414,59 @@ public class TextureGenerator {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, Timing timing) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), timing);
+    }
+
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, Timing timing) throws TextureGeneratorException, IOException {
+        return generate(readImage(inputStream), texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), timing);
+    }
+
     // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-        // Convert image into readable format
-        // Always convert to ABGR since the texc lib demands that for resizing etc
-        BufferedImage image;
-        if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
-            image = convertImage(origImage, BufferedImage.TYPE_4BYTE_ABGR);
-        } else {
-            image = origImage;
+        return generate(origImage, texProfile, compress, flipAxis, null);
+    }
+
+    /**
+     * Generate a texture, recording the time spent
+     * @param timing timing to add to, or null
+     */
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, Timing timing) throws TextureGeneratorException, IOException {
+        return generate(new BufferedImage[] { origImage }, texProfile, compress, flipAxis, timing)[0];
+    }
+
+    static BufferedImage readImage(InputStream inputStream) throws TextureGeneratorException, IOException {
+        BufferedImage image = ImageIO.read(inputStream);
+        inputStream.close();
+        if (image == null) {
+            throw new TextureGeneratorException("Unknown texture format.");
         }
+        return image;
+    }
 
-        // Setup texture format and settings
-        ColorModel colorModel = origImage.getColorModel();
-        int componentCount = colorModel.getNumComponents();
-        TextureImage.Builder textureBuilder = TextureImage.newBuilder();
+    // Settings of one encoded image of a texture
+    private static class EncodeSettings {
+        TextureFormat textureFormat;
+        TextureFormatAlternative.CompressionLevel compressionLevel;
+        TextureImage.CompressionType compressionType;
+        boolean generateMipMaps;
+        int maxTextureSize;
+        boolean compress;
+        boolean premulAlpha;
+
+        EncodeSettings(TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha) {
+            this.textureFormat = textureFormat;
+            this.compressionLevel = compressionLevel;
+            this.compressionType = compressionType;
+            this.generateMipMaps = generateMipMaps;
+            this.maxTextureSize = maxTextureSize;
+            this.compress = compress;
+            this.premulAlpha = premulAlpha;
+        }
+    }
 
+    private static List<EncodeSettings> getEncodeSettings(int componentCount, TextureProfile texProfile, boolean compress) {
+        List<EncodeSettings> result = new ArrayList<EncodeSettings>();
         if (texProfile != null) {
 
             // Generate an image for each format specified in the profile
@@ -374,36 +481,124 @@ public class TextureGenerator {
                     // image has 3 channels, even if the texture profile specified a format with 4 channels.
                     textureFormat = pickOptimalFormat(componentCount, textureFormat);
 
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
-                    }
-
+                    result.add(new EncodeSettings(textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha()));
                 }
             }
-
-            textureBuilder.setCount(1);
-            if (textureBuilder.getAlternativesCount() == 0) {
-                texProfile = null;
-            }
         }
 
         // If no texture profile was supplied, or no matching format was found
-        if (texProfile == null) {
+        if (result.isEmpty()) {
 
             // Guess texture format based on number color components of input image
             TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
-            textureBuilder.addAlternatives(raw);
-            textureBuilder.setCount(1);
+            result.add(new EncodeSettings(textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true));
+        }
+        return result;
+    }
+
+    private static Future<TextureImage.Image> submitEncode(final ByteBuffer pixels, final int width, final int height, final EncodeSettings settings, final EnumSet<FlipAxis> flipAxis, final Timing timing) {
+        return encodeExecutor.submit(new Callable<TextureImage.Image>() {
+            @Override
+            public TextureImage.Image call() throws TextureGeneratorException, IOException, InterruptedException {
+                int memory = estimateEncodeMemory(width, height);
+                encodeMemory.acquire(memory);
+                try {
+                    long start = System.nanoTime();
+                    TextureImage.Image image = generateFromColorAndFormat(pixels, width, height, settings.textureFormat, settings.compressionLevel, settings.compressionType, settings.generateMipMaps, settings.maxTextureSize, settings.compress, settings.premulAlpha, flipAxis);
+                    if (timing != null) {
+                        timing.encodeNanos.addAndGet(System.nanoTime() - start);
+                        timing.imageCount.incrementAndGet();
+                    }
+                    return image;
+                } finally {
+                    encodeMemory.release(memory);
+                }
+            }
+        });
+    }
 
+    private static TextureImage.Image getEncoded(Future<TextureImage.Image> future) throws TextureGeneratorException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating texture", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Unable to generate texture", cause);
         }
+    }
+
+    /**
+     * Generate textures from several images, e.g. the sides of a cubemap.
+     * The images of all textures, one per image and format in the profile,
+     * are encoded concurrently. The result is the same as generating the
+     * textures one at a time.
+     * @param origImages images
+     * @param texProfile texture profile, or null
+     * @param compress true to compress the images as specified in the profile
+     * @param flipAxis axes to flip the images on
+     * @param timing timing to add to, or null
+     * @return one texture per image
+     */
+    public static TextureImage[] generate(BufferedImage[] origImages, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, Timing timing) throws TextureGeneratorException, IOException {
+        long start = System.nanoTime();
+        List<List<Future<TextureImage.Image>>> jobs = new ArrayList<List<Future<TextureImage.Image>>>(origImages.length);
+        try {
+            for (BufferedImage origImage : origImages) {
+                // Convert image into readable format
+                // Always convert to ABGR since the texc lib demands that for resizing etc
+                BufferedImage image;
+                if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
+                    image = convertImage(origImage, BufferedImage.TYPE_4BYTE_ABGR);
+                } else {
+                    image = origImage;
+                }
+
+                // Setup texture format and settings
+                ColorModel colorModel = origImage.getColorModel();
+                int componentCount = colorModel.getNumComponents();
+                ByteBuffer pixels = readPixels(image);
 
-        textureBuilder.setType(Type.TYPE_2D);
-        return textureBuilder.build();
+                List<Future<TextureImage.Image>> imageJobs = new ArrayList<Future<TextureImage.Image>>();
+                for (EncodeSettings settings : getEncodeSettings(componentCount, texProfile, compress)) {
+                    imageJobs.add(submitEncode(pixels, image.getWidth(), image.getHeight(), settings, flipAxis, timing));
+                }
+                jobs.add(imageJobs);
+            }
 
+            // Assemble in the order of the profile, regardless of which job finishes first
+            TextureImage[] result = new TextureImage[origImages.length];
+            for (int i = 0; i < origImages.length; ++i) {
+                TextureImage.Builder textureBuilder = TextureImage.newBuilder();
+                for (Future<TextureImage.Image> job : jobs.get(i)) {
+                    textureBuilder.addAlternatives(getEncoded(job));
+                }
+                textureBuilder.setCount(1);
+                textureBuilder.setType(Type.TYPE_2D);
+                result[i] = textureBuilder.build();
+            }
+            return result;
+        } finally {
+            // Jobs not started are skipped if a job failed
+            for (List<Future<TextureImage.Image>> imageJobs : jobs) {
+                for (Future<TextureImage.Image> job : imageJobs) {
+                    job.cancel(false);
+                }
+            }
+            if (timing != null) {
+                timing.totalNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
     }
 
     public static void main(String[] args) throws IOException, TextureGeneratorException {
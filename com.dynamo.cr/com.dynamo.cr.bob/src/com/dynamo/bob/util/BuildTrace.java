@@ -0,0 +1,231 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Records where build time goes, see --build-trace. Events are written in the
+ * Chrome trace-event format, which can be opened in chrome://tracing or Perfetto.
+ * All methods are cheap no-ops unless a trace has been started.
+ */
+public class BuildTrace {
+
+    private static class Event {
+        final String name;
+        final String category;
+        final long start;
+        final long end;
+        final long threadId;
+        final Map<String, Object> args;
+
+        Event(String name, String category, long start, long end, long threadId, Map<String, Object> args) {
+            this.name = name;
+            this.category = category;
+            this.start = start;
+            this.end = end;
+            this.threadId = threadId;
+            this.args = args;
+        }
+    }
+
+    // Bytes read and written by the current thread, { read, written }
+    private static final ThreadLocal<long[]> byteCounters = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private static volatile BuildTrace current = null;
+
+    private final long startTime = System.nanoTime();
+    private final List<Event> events = new ArrayList<Event>();
+    private final Map<Long, String> threadNames = new ConcurrentHashMap<Long, String>();
+
+    /**
+     * Start recording a new trace. Any trace being recorded is discarded.
+     */
+    public static void start() {
+        current = new BuildTrace();
+    }
+
+    public static boolean isEnabled() {
+        return current != null;
+    }
+
+    /**
+     * Get start time to pass to {@link #add(String, String, long, Map)}
+     * @return current time in nanoseconds
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record an event ending now on the current thread
+     * @param name event name
+     * @param category event category, e.g. task or exec
+     * @param startTime start time from {@link #now()}
+     * @param args additional event arguments, may be null
+     */
+    public static void add(String name, String category, long startTime, Map<String, Object> args) {
+        BuildTrace trace = current;
+        if (trace == null) {
+            return;
+        }
+        long endTime = System.nanoTime();
+        Thread thread = Thread.currentThread();
+        trace.threadNames.putIfAbsent(thread.getId(), thread.getName());
+        Event event = new Event(name, category, startTime, endTime, thread.getId(), args);
+        synchronized (trace.events) {
+            trace.events.add(event);
+        }
+    }
+
+    /**
+     * Create an argument map for {@link #add(String, String, long, Map)}
+     * @param keyValues alternating keys and values
+     * @return argument map
+     */
+    public static Map<String, Object> args(Object... keyValues) {
+        Map<String, Object> args = new LinkedHashMap<String, Object>();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            args.put(keyValues[i].toString(), keyValues[i + 1]);
+        }
+        return args;
+    }
+
+    public static void addBytesRead(long bytes) {
+        if (current != null) {
+            byteCounters.get()[0] += bytes;
+        }
+    }
+
+    public static void addBytesWritten(long bytes) {
+        if (current != null) {
+            byteCounters.get()[1] += bytes;
+        }
+    }
+
+    /**
+     * Get total number of bytes read by the current thread. Only counted while tracing.
+     * @return bytes read
+     */
+    public static long getBytesRead() {
+        return byteCounters.get()[0];
+    }
+
+    /**
+     * Get total number of bytes written by the current thread. Only counted while tracing.
+     * @return bytes written
+     */
+    public static long getBytesWritten() {
+        return byteCounters.get()[1];
+    }
+
+    /**
+     * Stop recording and write the trace, if one is being recorded
+     * @param file file to write the trace to
+     * @throws IOException
+     */
+    public static void stop(File file) throws IOException {
+        BuildTrace trace = current;
+        current = null;
+        if (trace != null) {
+            trace.write(file);
+        }
+    }
+
+    private long toMicros(long time) {
+        return (time - startTime) / 1000;
+    }
+
+    private void write(File file) throws IOException {
+        List<Event> sorted;
+        synchronized (events) {
+            sorted = new ArrayList<Event>(events);
+        }
+        sorted.sort((a, b) -> Long.compare(a.start, b.start));
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        JsonGenerator generator = null;
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            generator = (new JsonFactory()).createJsonGenerator(writer);
+
+            generator.writeStartObject();
+            generator.writeStringField("displayTimeUnit", "ms");
+            generator.writeFieldName("traceEvents");
+            generator.writeStartArray();
+            for (Map.Entry<Long, String> entry : threadNames.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", "thread_name");
+                generator.writeStringField("ph", "M");
+                generator.writeNumberField("pid", 1);
+                generator.writeNumberField("tid", entry.getKey());
+                generator.writeFieldName("args");
+                generator.writeStartObject();
+                generator.writeStringField("name", entry.getValue());
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            for (Event event : sorted) {
+                generator.writeStartObject();
+                generator.writeStringField("name", event.name);
+                generator.writeStringField("cat", event.category);
+                generator.writeStringField("ph", "X");
+                generator.writeNumberField("ts", toMicros(event.start));
+                generator.writeNumberField("dur", Math.max(0, toMicros(event.end) - toMicros(event.start)));
+                generator.writeNumberField("pid", 1);
+                generator.writeNumberField("tid", event.threadId);
+                if (event.args != null) {
+                    generator.writeFieldName("args");
+                    generator.writeStartObject();
+                    for (Map.Entry<String, Object> arg : event.args.entrySet()) {
+                        Object value = arg.getValue();
+                        if (value instanceof Number) {
+                            generator.writeNumberField(arg.getKey(), ((Number) value).longValue());
+                        } else {
+                            generator.writeStringField(arg.getKey(), String.valueOf(value));
+                        }
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } finally {
+            if (generator != null) {
+                generator.close();
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -25,7 +26,15 @@ public class Exec {
 
     private static Logger logger = Logger.getLogger(Exec.class.getCanonicalName());
 
+    private static void trace(long startTime, List<String> command, int ret) {
+        if (BuildTrace.isEnabled()) {
+            String name = new File(command.get(0)).getName();
+            BuildTrace.add(name, "exec", startTime, BuildTrace.args("command", String.join(" ", command), "exit_code", ret));
+        }
+    }
+
     public static int exec(String... args) throws IOException {
+        long startTime = BuildTrace.now();
         Process p = new ProcessBuilder(args).redirectErrorStream(true).start();
         int ret = 127;
         byte[] buf = new byte[16 * 1024];
@@ -39,6 +48,7 @@ public class Exec {
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Unexpected interruption", e);
         }
+        trace(startTime, Arrays.asList(args), ret);
 
         return ret;
     }
@@ -59,6 +69,7 @@ public class Exec {
      * @throws IOException
      */
     public static Result execResult(String... args) throws IOException {
+        long startTime = BuildTrace.now();
         Process p = new ProcessBuilder(args).redirectErrorStream(true).start();
         int ret = 127;
         byte[] buf = new byte[16 * 1024];
@@ -74,6 +85,7 @@ public class Exec {
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Unexpected interruption", e);
         }
+        trace(startTime, Arrays.asList(args), ret);
 
         return new Result(ret, out.toByteArray());
     }
@@ -92,6 +104,7 @@ public class Exec {
     }
 
     private static Result runProcessBuilder(ProcessBuilder pb) throws IOException {
+        long startTime = BuildTrace.now();
         Process p = pb.start();
         int ret = 127;
         byte[] buf = new byte[16 * 1024];
@@ -107,6 +120,7 @@ public class Exec {
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Unexpected interruption", e);
         }
+        trace(startTime, pb.command(), ret);
 
         return new Result(ret, out.toByteArray());
     }
@@ -13,8 +13,12 @@
 package com.dynamo.bob.util;
 
 import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.TreeMap;
 
 import java.io.File;
 import java.io.InputStream;
@@ -27,6 +31,7 @@ import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ArchiveEntry;
+import com.dynamo.bob.pipeline.TextureGenerator;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -54,6 +59,8 @@ public class ReportGenerator {
         long size;
         long compressedSize;
         boolean encrypted;
+        // Offset of the data in the archive, -1 if not archived
+        long offset = -1;
         public ResourceEntry(String path, long size) {
             this.path = path;
             this.size = size;
@@ -68,8 +75,18 @@ public class ReportGenerator {
         }
     }
 
+    /**
+     * Padding between entries in the archive data, per resource type.
+     */
+    private class PaddingEntry {
+        long entries;
+        long size;
+        long padding;
+    }
+
     private Project project = null;
     private HashMap<String, ResourceEntry> resources;
+    private TreeMap<String, PaddingEntry> padding = new TreeMap<String, PaddingEntry>();
 
     /**
      * Creates a ReportGenerator that looks into the supplied project instance
@@ -141,17 +158,46 @@ public class ReportGenerator {
                 resEntry.compressedSize = compressedSize;
                 resEntry.size = archiveEntry.size;
                 resEntry.encrypted = encrypted;
+                resEntry.offset = archiveEntry.resourceOffset;
             } else {
                 ResourceEntry resEntry = new ResourceEntry(archiveEntry.fileName,
                         archiveEntry.size,
                         compressedSize,
                         encrypted);
+                resEntry.offset = archiveEntry.resourceOffset;
 
                 this.resources.put(archiveEntry.fileName, resEntry);
             }
 
         }
 
+        // Padding in front of each entry, caused by the data alignment
+        List<ArchiveEntry> sortedEntries = new ArrayList<ArchiveEntry>(archiveEntries);
+        Collections.sort(sortedEntries, new Comparator<ArchiveEntry>() {
+            @Override
+            public int compare(ArchiveEntry a, ArchiveEntry b) {
+                return Integer.compare(a.resourceOffset, b.resourceOffset);
+            }
+        });
+        long end = 0;
+        for (ArchiveEntry archiveEntry : sortedEntries) {
+            long storedSize = archiveEntry.compressedSize != -1 ? archiveEntry.compressedSize : archiveEntry.size;
+            if (archiveEntry.resourceOffset + storedSize <= end) {
+                // Shares the data of a previous entry
+                continue;
+            }
+            String type = FilenameUtils.getExtension(archiveEntry.fileName);
+            PaddingEntry paddingEntry = padding.get(type);
+            if (paddingEntry == null) {
+                paddingEntry = new PaddingEntry();
+                padding.put(type, paddingEntry);
+            }
+            paddingEntry.entries++;
+            paddingEntry.size += storedSize;
+            paddingEntry.padding += Math.max(0, archiveEntry.resourceOffset - end);
+            end = archiveEntry.resourceOffset + storedSize;
+        }
+
         ar.close();
     }
 
@@ -224,6 +270,79 @@ public class ReportGenerator {
             }
             generator.writeEndArray();
 
+            // Alignment padding in the archive, per resource type
+            if (!padding.isEmpty()) {
+                generator.writeFieldName("archive_padding");
+                generator.writeStartArray();
+                for (Map.Entry<String, PaddingEntry> entry : padding.entrySet()) {
+                    generator.writeStartObject();
+                    generator.writeFieldName("type");
+                    generator.writeString(entry.getKey());
+                    generator.writeFieldName("entries");
+                    generator.writeNumber(entry.getValue().entries);
+                    generator.writeFieldName("size");
+                    generator.writeNumber(entry.getValue().size);
+                    generator.writeFieldName("padding");
+                    generator.writeNumber(entry.getValue().padding);
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+
+            // Order of the resource data in the archive
+            List<ResourceEntry> archived = new ArrayList<ResourceEntry>();
+            for (ResourceEntry resource : resources.values()) {
+                if (resource.offset >= 0) {
+                    archived.add(resource);
+                }
+            }
+            if (!archived.isEmpty()) {
+                Collections.sort(archived, new Comparator<ResourceEntry>() {
+                    @Override
+                    public int compare(ResourceEntry a, ResourceEntry b) {
+                        int result = Long.compare(a.offset, b.offset);
+                        return result != 0 ? result : a.path.compareTo(b.path);
+                    }
+                });
+                generator.writeFieldName("archive_layout");
+                generator.writeStartObject();
+                generator.writeFieldName("mode");
+                generator.writeString(project.option("archive-layout", "default"));
+                generator.writeFieldName("order");
+                generator.writeStartArray();
+                for (ResourceEntry resource : archived) {
+                    generator.writeStartObject();
+                    generator.writeFieldName("file");
+                    generator.writeString(resource.path);
+                    generator.writeFieldName("offset");
+                    generator.writeNumber(resource.offset);
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+
+            // Time spent generating textures, in the order of the paths
+            Map<String, TextureGenerator.Timing> textureTimings = project.getTextureTimings();
+            if (!textureTimings.isEmpty()) {
+                generator.writeFieldName("texture_times");
+                generator.writeStartArray();
+                for (Map.Entry<String, TextureGenerator.Timing> entry : textureTimings.entrySet()) {
+                    TextureGenerator.Timing timing = entry.getValue();
+                    generator.writeStartObject();
+                    generator.writeFieldName("file");
+                    generator.writeString(entry.getKey());
+                    generator.writeFieldName("images");
+                    generator.writeNumber(timing.getImageCount());
+                    generator.writeFieldName("time_ms");
+                    generator.writeNumber(timing.getTotalNanos() / 1000000);
+                    generator.writeFieldName("encode_ms");
+                    generator.writeNumber(timing.getEncodeNanos() / 1000000);
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+
             generator.writeEndObject();
         }
         finally {
@@ -12,9 +12,27 @@
 
 package com.dynamo.crypt;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 public class Crypt {
 
     private final static int NUM_ROUNDS = 32;
+    private final static int DELTA = 0x9e3779b9;
+    private final static int BLOCK_SIZE = 8;
+    // Inputs larger than this are split across threads
+    private final static int PARALLEL_THRESHOLD = 1024 * 1024;
+    private final static int MIN_BLOCKS_PER_TASK = (256 * 1024) / BLOCK_SIZE;
+
+    private static ExecutorService executor;
 
     private static int[] toIntArray(byte[] data, int n) {
         int[] result = new int[n >> 2];
@@ -24,44 +42,104 @@ public class Crypt {
         return result;
     }
 
-    private static byte[] toByteArray(int[] data) {
-        int n = data.length << 2;
-        byte[] result = new byte[n];
-
-        for (int i = 0; i < n; ++i) {
-            result[i] = (byte) (data[i >>> 2] >>> ((3 - (i & 3)) << 3));
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "crypt");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
-        return result;
+        return executor;
     }
 
-    private static int[] encrypt(int[] v, int[] key) {
-        int sum = 0;
-        int delta = 0x9e3779b9;
-        int v0 = v[0];
-        int v1 = v[1];
-        for (int i = 0; i < NUM_ROUNDS; i++) {
-            v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + key[sum & 3]);
-            sum += delta;
-            v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + key[(sum >>> 11) & 3]);
+    /**
+     * XOR the keystream of blocks [firstBlock, firstBlock + blockCount) with the data.
+     * The counter of block n is { 0, n }, encrypted and used big endian.
+     */
+    private static void encryptBlocks(ByteBuffer data, int offset, long firstBlock, long blockCount, int[] key) {
+        int end = data.limit();
+        int position = offset;
+        for (long block = firstBlock; block < firstBlock + blockCount; ++block) {
+            // Buffers are smaller than 2^31 bytes, so the upper half of the counter is always 0
+            int v0 = 0;
+            int v1 = (int) block;
+            int sum = 0;
+            for (int i = 0; i < NUM_ROUNDS; i++) {
+                v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + key[sum & 3]);
+                sum += DELTA;
+                v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + key[(sum >>> 11) & 3]);
+            }
+            if (end - position >= BLOCK_SIZE) {
+                long keystream = ((long) v0 << 32) | (v1 & 0xffffffffL);
+                data.putLong(position, data.getLong(position) ^ keystream);
+                position += BLOCK_SIZE;
+            } else {
+                for (int i = 0; position < end; ++i, ++position) {
+                    int keyByte = i < 4 ? v0 >>> ((3 - i) << 3) : v1 >>> ((7 - i) << 3);
+                    data.put(position, (byte) (data.get(position) ^ keyByte));
+                }
+            }
         }
-        return new int[] { v0, v1 };
     }
 
-    public static byte[] encryptCTR(byte[] data, byte[] key) {
-        byte[] result = new byte[data.length];
-        int[] counter = new int[2];
-        byte[] enc_counter = new byte[8];
-        int[] int_key = toIntArray(key, 16);
+    /**
+     * Encrypt the remaining bytes of a buffer in place. The position and
+     * limit of the buffer are not changed. Large buffers are encrypted on
+     * several threads.
+     * @param data data to encrypt
+     * @param key 16 byte key
+     */
+    public static void encryptCTR(ByteBuffer data, byte[] key) {
+        final int[] intKey = toIntArray(key, 16);
+        // Absolute get/put, big endian, from the current position
+        final ByteBuffer buffer = data.slice().order(ByteOrder.BIG_ENDIAN);
+        int size = buffer.remaining();
+        final long blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        if (size < PARALLEL_THRESHOLD || threadCount == 1) {
+            encryptBlocks(buffer, 0, 0, blockCount, intKey);
+            return;
+        }
 
-        for (int i = 0; i < data.length; i++) {
-            if (i % 8 == 0) {
-                enc_counter = toByteArray(encrypt(counter, int_key));
-                // TODO: Include overflow for supporting more than 2^31 bytes of data.
-                //       i.e. handling incrementing counter[0] as well.
-                counter[1]++;
+        // Blocks are independent, each task encrypts a contiguous range of them
+        long blocksPerTask = Math.max(MIN_BLOCKS_PER_TASK, (blockCount + threadCount - 1) / threadCount);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (long first = 0; first < blockCount; first += blocksPerTask) {
+            final long taskFirst = first;
+            final long taskCount = Math.min(blocksPerTask, blockCount - first);
+            futures.add(getExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    ByteBuffer range = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+                    range.limit((int) Math.min(buffer.limit(), (taskFirst + taskCount) * BLOCK_SIZE));
+                    encryptBlocks(range, (int) (taskFirst * BLOCK_SIZE), taskFirst, taskCount, intKey);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
             }
-            result[i] = (byte) ((data[i] ^ enc_counter[i % 8]) & 0xff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         }
+    }
+
+    public static void decryptCTR(ByteBuffer data, byte[] key) {
+        encryptCTR(data, key);
+    }
+
+    public static byte[] encryptCTR(byte[] data, byte[] key) {
+        byte[] result = data.clone();
+        encryptCTR(ByteBuffer.wrap(result), key);
         return result;
     }
 
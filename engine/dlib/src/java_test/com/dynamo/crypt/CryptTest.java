@@ -0,0 +1,110 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CryptTest {
+
+    private static final byte[] KEY = "12345678abcdefgh".getBytes();
+
+    // Straightforward implementation, one block at a time, to compare with
+    private static byte[] referenceEncryptCTR(byte[] data, byte[] key) {
+        int[] k = new int[4];
+        for (int i = 0; i < 16; ++i) {
+            k[i >>> 2] |= (0xff & key[i]) << ((3 - (i & 3)) << 3);
+        }
+        byte[] result = new byte[data.length];
+        int counter = 0;
+        byte[] keystream = new byte[8];
+        for (int i = 0; i < data.length; ++i) {
+            if (i % 8 == 0) {
+                int v0 = 0;
+                int v1 = counter++;
+                int sum = 0;
+                for (int r = 0; r < 32; ++r) {
+                    v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + k[sum & 3]);
+                    sum += 0x9e3779b9;
+                    v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + k[(sum >>> 11) & 3]);
+                }
+                for (int j = 0; j < 4; ++j) {
+                    keystream[j] = (byte) (v0 >>> ((3 - j) << 3));
+                    keystream[4 + j] = (byte) (v1 >>> ((3 - j) << 3));
+                }
+            }
+            result[i] = (byte) (data[i] ^ keystream[i % 8]);
+        }
+        return result;
+    }
+
+    @Test
+    public void testSameAsNative() {
+        // Same as the dmCrypt test in dlib
+        byte[] expected = { (byte) 0x81, (byte) 0xb4, (byte) 0xa1, 0x04, 0x2d, (byte) 0xac, (byte) 0xe5, (byte) 0xcb, 0x77,
+                            (byte) 0x89, (byte) 0xec, 0x11, 0x61, (byte) 0xc3, (byte) 0xdc, (byte) 0xfa, (byte) 0xb9, (byte) 0xa3, 0x25 };
+        assertArrayEquals(expected, Crypt.encryptCTR("ABCDEFGH12345678XYZ".getBytes(), KEY));
+    }
+
+    @Test
+    public void testSameAsReference() {
+        Random random = new Random(0);
+        for (int size = 0; size < 1025; ++size) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            byte[] encrypted = Crypt.encryptCTR(data, KEY);
+            assertArrayEquals(referenceEncryptCTR(data, KEY), encrypted);
+            assertArrayEquals(data, Crypt.decryptCTR(encrypted, KEY));
+        }
+    }
+
+    @Test
+    public void testLarge() {
+        // Encrypted on several threads
+        byte[] data = new byte[3 * 1024 * 1024 + 5];
+        new Random(0).nextBytes(data);
+        assertArrayEquals(referenceEncryptCTR(data, KEY), Crypt.encryptCTR(data, KEY));
+    }
+
+    @Test
+    public void testByteBuffer() {
+        byte[] data = new byte[100];
+        new Random(0).nextBytes(data);
+        byte[] expected = referenceEncryptCTR(Arrays.copyOfRange(data, 10, 90), KEY);
+
+        // Only the remaining bytes are encrypted, starting with the first counter
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(100), ByteBuffer.allocateDirect(100) }) {
+            buffer.put(data);
+            buffer.position(10);
+            buffer.limit(90);
+            Crypt.encryptCTR(buffer, KEY);
+            byte[] actual = new byte[80];
+            buffer.get(actual);
+            assertArrayEquals(expected, actual);
+            buffer.clear();
+            assertArrayEquals(Arrays.copyOf(data, 10), Arrays.copyOf(readAll(buffer), 10));
+        }
+    }
+
+    private static byte[] readAll(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+}